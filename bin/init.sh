@@ -18,6 +18,13 @@ openssl rsa -in jwt.pem -pubout -outform PEM -out jwt.pub.pem
 openssl req -x509 -newkey rsa:4096 -keyout idp.pem -out ./idp.crt -days 365 -nodes
 openssl pkcs8 -topk8 -inform PEM -outform DER -in ./idp.pem -out ./idp.der -nocrypt
 
+# Creating the additional ECDSA SAML Certificate
+openssl req -x509 -newkey ec -pkeyopt ec_paramgen_curve:P-256 -keyout idp-ec.pem -out ./idp-ec.crt -days 365 -nodes
+openssl pkcs8 -topk8 -inform PEM -outform DER -in ./idp-ec.pem -out ./idp-ec.der -nocrypt
+
+# Creating the AES key for encrypted assert parameters
+openssl rand -out assert-parameters-1.key 32
+
 # Generate IRMA docker test keys.
 ../utils/keygen.sh ./irma-test ./irma-test.pub
 
@@ -0,0 +1,63 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import io.jsonwebtoken.Claims;
+import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.model.RequestError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the assert parameters carried by the assert_parameters token, for a successful
+ * request and for an error.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssertParametersBenchmark {
+    @Param({"SUCCESS", "ERROR"})
+    private String outcome;
+
+    private AssertParameters assertParameters;
+
+    private Claims claims;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        this.assertParameters = fixtures.assertParameters();
+        if ("ERROR".equals(this.outcome)) {
+            this.assertParameters.setRequestError(RequestError.builder()
+                    .statusCode(400)
+                    .message("The user cancelled.")
+                    .build());
+        }
+
+        this.claims = fixtures.jwtUtil.getAssertParameters(
+                fixtures.jwtUtil.createAssertParametersToken(this.assertParameters.toTreeMap()));
+    }
+
+    @Benchmark
+    public Map<String, Object> toTreeMap() {
+        return this.assertParameters.toTreeMap();
+    }
+
+    @Benchmark
+    public AssertParameters fromClaims() throws Exception {
+        return AssertParameters.fromClaims(this.claims);
+    }
+}
@@ -0,0 +1,79 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import nl.sidn.irma.saml_bridge.model.ResultStatus;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
+import nl.sidn.irma.saml_bridge.service.OpenSamlService;
+import nl.sidn.irma.saml_bridge.service.TemplateResponseWriter;
+import org.opensaml.saml.saml2.core.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the SAML Response object tree, and marshalling plus signing it.
+ *
+ * A signed Response cannot be marshalled twice, so the marshalling benchmark includes building it,
+ * which makes it comparable to writing and signing the same Response from a template.
+ * Both sign with the RSA key and with the ECDSA key of the development configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssertionResponseBenchmark {
+    @Param({"RSA", "EC"})
+    private String keyType;
+
+    private OpenSamlService openSamlService;
+
+    private TemplateResponseWriter templateResponseWriter;
+
+    private AssertParameters assertParameters;
+
+    private Disclosure disclosure;
+
+    private SigningKey signingKey;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        this.openSamlService = fixtures.openSamlService;
+        this.templateResponseWriter = fixtures.templateResponseWriter;
+        this.assertParameters = fixtures.assertParameters();
+        this.disclosure = Disclosure.fromJwt(fixtures.irmaResultClaims());
+        this.signingKey = "EC".equals(this.keyType)
+                ? fixtures.keyService.getSamlEcSigningKey()
+                : fixtures.keyService.getSamlSigningKey();
+    }
+
+    @Benchmark
+    public Response createAssertionResponse() {
+        return this.openSamlService.createAssertionResponse(this.assertParameters, this.disclosure, ResultStatus.SUCCESS);
+    }
+
+    @Benchmark
+    public byte[] createAndMarshallResponse() throws Exception {
+        Response response = this.openSamlService.createAssertionResponse(this.assertParameters, this.disclosure, ResultStatus.SUCCESS);
+        return this.openSamlService.marshallResponse(response, this.signingKey);
+    }
+
+    @Benchmark
+    public byte[] writeTemplateResponse() throws Exception {
+        return this.templateResponseWriter.write(this.assertParameters, this.disclosure, ResultStatus.SUCCESS,
+                this.signingKey);
+    }
+}
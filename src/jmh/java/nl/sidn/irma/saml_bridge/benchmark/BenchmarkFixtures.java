@@ -0,0 +1,232 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.shibboleth.shared.xml.ParserPool;
+import nl.sidn.irma.saml_bridge.config.ApplicationConfig;
+import nl.sidn.irma.saml_bridge.config.SamlConfiguration;
+import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.service.ConfigurationService;
+import nl.sidn.irma.saml_bridge.service.KeyService;
+import nl.sidn.irma.saml_bridge.service.OpenSamlService;
+import nl.sidn.irma.saml_bridge.service.RedirectInstructionService;
+import nl.sidn.irma.saml_bridge.service.SelfVerificationService;
+import nl.sidn.irma.saml_bridge.service.SignatureValidationService;
+import nl.sidn.irma.saml_bridge.service.SigningExecutor;
+import nl.sidn.irma.saml_bridge.service.TemplateResponseWriter;
+import nl.sidn.irma.saml_bridge.util.HTTPRedirectDeflateDecoder;
+import nl.sidn.irma.saml_bridge.util.HTTPRedirectDeflateEncoder;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import nl.sidn.irma.saml_bridge.util.JwtUtil;
+import nl.sidn.irma.saml_bridge.util.KeyReader;
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
+import nl.sidn.irma.saml_bridge.util.XmlSerializer;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.ext.reqattr.RequestedAttributes;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Extensions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+import org.opensaml.saml.saml2.metadata.RequestedAttribute;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Realistic inputs for the benchmarks, built the same way the /test/request and /test/assert
+ * controllers build them against the development configuration in config.test.json.
+ *
+ * All services are constructed by hand instead of through a Spring context, so a benchmark only
+ * measures the stage it calls.
+ */
+final class BenchmarkFixtures {
+    private static final String DEFAULT_CONFIG_PATH = "./config.test.json";
+    static final String SP_NAME = "test";
+    static final String AUTHNREQUEST_ID = "_0f4a7c2e9d1b8e3a5c6f7a8b9c0d1e2f";
+    static final String RETURN_URL = "http://test";
+    static final String RELAY_STATE = "relay_state_test";
+    static final String ATTRIBUTE_KEY = "pbdf.gemeente.personalData.fullname";
+    static final String ATTRIBUTE_VALUE = "W.Geraedts";
+    static final String TOKEN = "Zk4GvBPnEcFzwBd3Xr1A";
+
+    final ObjectMapper objectMapper;
+    final ConfigurationService configurationService;
+    final KeyService keyService;
+    final ParserPool parserPool;
+    final SamlObjectBuilders builders;
+    final IdGenerator idGenerator;
+    final OpenSamlService openSamlService;
+    final SignatureValidationService signatureValidationService;
+    final SelfVerificationService selfVerificationService;
+    final TemplateResponseWriter templateResponseWriter;
+    final SigningExecutor signingExecutor;
+    final RedirectInstructionService redirectInstructionService;
+    final JwtUtil jwtUtil;
+
+    BenchmarkFixtures() throws Exception {
+        // Forked benchmark JVMs do not inherit -D options, so default to the test configuration.
+        if (System.getProperty("CONFIG_PATH") == null) {
+            System.setProperty("CONFIG_PATH", DEFAULT_CONFIG_PATH);
+        }
+
+        this.objectMapper = new ApplicationConfig().objectMapper();
+        this.configurationService = new ConfigurationService(this.objectMapper);
+        this.keyService = new KeyService(this.configurationService, new KeyReader());
+        this.parserPool = new SamlConfiguration().parserPool();
+        this.builders = new SamlObjectBuilders();
+        this.idGenerator = new IdGenerator();
+        this.openSamlService = new OpenSamlService(this.configurationService, this.keyService, this.parserPool,
+                this.builders, new XmlSerializer(), this.idGenerator);
+        this.signatureValidationService = new SignatureValidationService(this.configurationService, this.parserPool);
+        this.selfVerificationService = new SelfVerificationService(this.configurationService, this.openSamlService,
+                new SimpleMeterRegistry());
+        this.templateResponseWriter = new TemplateResponseWriter(this.configurationService, this.keyService,
+                this.idGenerator);
+        this.signingExecutor = new SigningExecutor(this.configurationService, new SimpleMeterRegistry());
+        this.redirectInstructionService = new RedirectInstructionService(this.openSamlService,
+                this.selfVerificationService, this.templateResponseWriter, this.signingExecutor, this.keyService,
+                this.signatureValidationService);
+        this.jwtUtil = new JwtUtil(this.configurationService, this.keyService);
+    }
+
+    String[][][] condiscon() {
+        return new String[][][] { { { ATTRIBUTE_KEY } } };
+    }
+
+    AssertParameters assertParameters() throws Exception {
+        return AssertParameters.builder()
+                .spName(SP_NAME)
+                .requestId(AUTHNREQUEST_ID)
+                .serviceUrl(RETURN_URL)
+                .issuer(this.configurationService.getConfiguration().getIssuerName())
+                .condiscon(this.objectMapper.writeValueAsString(condiscon()))
+                .relayState(RELAY_STATE)
+                .build();
+    }
+
+    /**
+     * @return The assert_parameters JWT as the /request endpoint hands it to the frontend.
+     */
+    String assertParametersToken() throws Exception {
+        return this.jwtUtil.createAssertParametersToken(assertParameters().toTreeMap());
+    }
+
+    /**
+     * @return A signed IRMA disclosure session result, as the IRMA server would post it back.
+     */
+    String irmaResultToken() {
+        Map<String, Object> attr = new TreeMap<>();
+        attr.put("rawvalue", ATTRIBUTE_VALUE);
+        attr.put("id", ATTRIBUTE_KEY);
+        attr.put("status", "PRESENT");
+
+        List<Map<String, Object>> con = new ArrayList<>();
+        con.add(attr);
+
+        List<List<Map<String, Object>>> discon = new ArrayList<>();
+        discon.add(con);
+
+        Map<String, Object> claims = new TreeMap<>();
+        claims.put("token", TOKEN);
+        claims.put("status", "DONE");
+        claims.put("type", "disclosing");
+        claims.put("proofStatus", "VALID");
+        claims.put("disclosed", discon);
+
+        return this.jwtUtil.createTestIrmaJwtTokenWithClaims("irmaserver", "disclosing_result", claims);
+    }
+
+    Jws<Claims> irmaResultClaims() {
+        return this.jwtUtil.getClaims(this.keyService.getIrmaPublicKey(), irmaResultToken());
+    }
+
+    /**
+     * Encodes and signs an AuthnRequest with the HTTP-Redirect binding, like the /test/request
+     * endpoint does, and replays the resulting redirect as an incoming GET request.
+     *
+     * @return The request as it arrives at the /request endpoint.
+     */
+    MockHttpServletRequest signedAuthnRequest() throws Exception {
+        AuthnRequest authnRequest = this.builders.getAuthnRequestBuilder().buildObject();
+        authnRequest.setID(AUTHNREQUEST_ID);
+        authnRequest.setIssueInstant(Instant.now());
+
+        Issuer issuer = this.builders.getIssuerBuilder().buildObject();
+        issuer.setValue(this.configurationService.getConfiguration().getIssuerName());
+        authnRequest.setIssuer(issuer);
+
+        XSString attributeValue = this.builders.getXsStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
+                XSString.TYPE_NAME);
+        attributeValue.setValue(this.objectMapper.writeValueAsString(condiscon()));
+
+        RequestedAttribute requestedAttribute = this.builders.getRequestedAttributeBuilder().buildObject();
+        requestedAttribute.setName("condiscon");
+        requestedAttribute.getAttributeValues().add(attributeValue);
+
+        RequestedAttributes requestedAttributes = this.builders.getRequestedAttributesBuilder().buildObject();
+        requestedAttributes.getRequestedAttributes().add(requestedAttribute);
+
+        Extensions extensions = this.builders.getExtensionsBuilder().buildObject();
+        extensions.getUnknownXMLObjects().add(requestedAttributes);
+        authnRequest.setExtensions(extensions);
+
+        MessageContext messageContext = new MessageContext();
+        messageContext.setMessage(authnRequest);
+
+        SignatureSigningParameters sigparams = new SignatureSigningParameters();
+        sigparams.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        sigparams.setSigningCredential(this.keyService.getSamlCredential());
+        messageContext.getSubcontext(SecurityParametersContext.class, true).setSignatureSigningParameters(sigparams);
+
+        Endpoint samlEndpoint = this.builders.getAssertionConsumerServiceBuilder().buildObject();
+        samlEndpoint.setLocation(this.configurationService.getConfiguration().constructUrl("/request"));
+        messageContext.getSubcontext(SAMLPeerEntityContext.class, true)
+                .getSubcontext(SAMLEndpointContext.class, true)
+                .setEndpoint(samlEndpoint);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HTTPRedirectDeflateEncoder encoder = new HTTPRedirectDeflateEncoder(response);
+        encoder.setMessageContext(messageContext);
+        encoder.initialize();
+        encoder.encode();
+
+        URI redirect = URI.create(response.getRedirectedUrl());
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", redirect.getRawPath());
+        request.setQueryString(redirect.getRawQuery());
+        for (String parameter : redirect.getRawQuery().split("&")) {
+            int separator = parameter.indexOf('=');
+            request.addParameter(
+                    URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return request;
+    }
+
+    /**
+     * Decodes an incoming redirect request into a fresh message context, as the /request endpoint does.
+     */
+    static MessageContext decode(MockHttpServletRequest request) throws Exception {
+        HTTPRedirectDeflateDecoder decoder = new HTTPRedirectDeflateDecoder();
+        decoder.setHttpServletRequest(request);
+        decoder.initialize();
+        decoder.decode();
+        return decoder.getMessageContext();
+    }
+}
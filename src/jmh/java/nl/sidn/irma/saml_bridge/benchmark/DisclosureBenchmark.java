@@ -0,0 +1,59 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import nl.sidn.irma.saml_bridge.model.Condiscon;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the disclosed attributes from a verified IRMA session result, and matching them
+ * against the requested condiscon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisclosureBenchmark {
+    private Jws<Claims> irmaResult;
+
+    private Disclosure disclosure;
+
+    private Condiscon condiscon;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        this.irmaResult = fixtures.irmaResultClaims();
+        this.disclosure = Disclosure.fromJwt(this.irmaResult);
+        this.condiscon = Condiscon.of(fixtures.condiscon());
+    }
+
+    @Benchmark
+    public Disclosure fromJwt() throws Exception {
+        return Disclosure.fromJwt(this.irmaResult);
+    }
+
+    @Benchmark
+    public boolean fulfillsCondiscon() {
+        return this.disclosure.fulfillsCondiscon(this.condiscon);
+    }
+
+    @Benchmark
+    public Disclosure requestedBy() {
+        return this.disclosure.requestedBy(this.condiscon);
+    }
+}
@@ -0,0 +1,57 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import com.google.common.io.BaseEncoding;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating response and assertion IDs as before, with a new Random per ID and base64 or base16
+ * encoding through intermediate strings, against the {@link IdGenerator}. Run with several threads,
+ * as IDs are generated concurrently by the request handling threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class IdGeneratorBenchmark {
+    private final IdGenerator idGenerator = new IdGenerator();
+
+    @Benchmark
+    public String randomBase64() {
+        byte[] bytes = new byte[20];
+        Random random = new Random();
+        random.nextBytes(bytes);
+        return new String(Base64.getEncoder().encode(bytes));
+    }
+
+    @Benchmark
+    public String generateId() {
+        return this.idGenerator.generateId();
+    }
+
+    @Benchmark
+    public String tokenBase16() {
+        return "_" + BaseEncoding.base16().encode(BenchmarkFixtures.TOKEN.getBytes());
+    }
+
+    @Benchmark
+    public String fromToken() {
+        return this.idGenerator.fromToken(BenchmarkFixtures.TOKEN);
+    }
+}
@@ -0,0 +1,90 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import nl.sidn.irma.saml_bridge.service.KeyService;
+import nl.sidn.irma.saml_bridge.util.ClaimsDeserializer;
+import nl.sidn.irma.saml_bridge.util.JwtUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and verification of the JWTs on the request and assert paths.
+ *
+ * verifyIrmaResultWithNewParser builds a parser for every JWT, as JwtUtil used to, to show the
+ * setup cost that the parsers kept by JwtUtil avoid.
+ *
+ * The assert parameters are signed with the JWT key, or encrypted with the AES key of the test configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+    @Param({"RSA", "AES_GCM"})
+    private String assertParametersMode;
+
+    private JwtUtil jwtUtil;
+
+    private KeyService keyService;
+
+    private Map<String, Object> assertParameters;
+
+    private String assertParametersToken;
+
+    private String irmaResultToken;
+
+    private ClaimsDeserializer claimsDeserializer;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        fixtures.configurationService.getConfiguration()
+                .setAssertParametersKeyId("AES_GCM".equals(this.assertParametersMode) ? "1" : null);
+        this.jwtUtil = fixtures.jwtUtil;
+        this.keyService = fixtures.keyService;
+        this.assertParameters = fixtures.assertParameters().toTreeMap();
+        this.assertParametersToken = fixtures.assertParametersToken();
+        this.irmaResultToken = fixtures.irmaResultToken();
+        this.claimsDeserializer = new ClaimsDeserializer();
+    }
+
+    @Benchmark
+    public String signAssertParameters() {
+        return this.jwtUtil.createAssertParametersToken(this.assertParameters);
+    }
+
+    @Benchmark
+    public Claims verifyAssertParameters() {
+        return this.jwtUtil.getAssertParameters(this.assertParametersToken);
+    }
+
+    @Benchmark
+    public Jws<Claims> verifyIrmaResult() {
+        return this.jwtUtil.getClaims(this.keyService.getIrmaPublicKey(), this.irmaResultToken);
+    }
+
+    @Benchmark
+    public Jws<Claims> verifyIrmaResultWithNewParser() {
+        return Jwts.parser()
+                .verifyWith(this.keyService.getIrmaPublicKey())
+                .json(this.claimsDeserializer)
+                .build()
+                .parseSignedClaims(this.irmaResultToken);
+    }
+}
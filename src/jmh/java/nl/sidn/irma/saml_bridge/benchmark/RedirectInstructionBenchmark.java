@@ -0,0 +1,73 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import nl.sidn.irma.saml_bridge.model.RedirectInstruction;
+import nl.sidn.irma.saml_bridge.model.ResultStatus;
+import nl.sidn.irma.saml_bridge.model.SelfVerification;
+import nl.sidn.irma.saml_bridge.service.RedirectInstructionService;
+import nl.sidn.irma.saml_bridge.service.SelfVerificationService;
+import nl.sidn.irma.saml_bridge.service.TemplateResponseWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The complete /assert output stage: building, signing and self-verifying the SAML Response on a
+ * signing thread and encoding it into a redirect instruction, for every self-verification mode, with
+ * both the OpenSAML and the template response writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedirectInstructionBenchmark {
+    @Param({"ALWAYS", "SAMPLED", "IN_MEMORY", "OFF"})
+    private SelfVerification selfVerification;
+
+    @Param({"false", "true"})
+    private boolean templateResponses;
+
+    private RedirectInstructionService redirectInstructionService;
+
+    private AssertParameters assertParameters;
+
+    private Disclosure disclosure;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        fixtures.configurationService.getConfiguration().setSelfVerification(this.selfVerification);
+        fixtures.configurationService.getConfiguration().setTemplateResponses(this.templateResponses);
+        this.redirectInstructionService = new RedirectInstructionService(fixtures.openSamlService,
+                new SelfVerificationService(fixtures.configurationService, fixtures.openSamlService,
+                        new SimpleMeterRegistry()),
+                new TemplateResponseWriter(fixtures.configurationService, fixtures.keyService, fixtures.idGenerator),
+                fixtures.signingExecutor, fixtures.keyService, fixtures.signatureValidationService);
+        this.assertParameters = fixtures.assertParameters();
+        this.disclosure = Disclosure.fromJwt(fixtures.irmaResultClaims());
+    }
+
+    @Benchmark
+    public RedirectInstruction success() throws Exception {
+        return this.redirectInstructionService.create(this.assertParameters, this.disclosure, ResultStatus.SUCCESS);
+    }
+
+    @Benchmark
+    public RedirectInstruction failure() throws Exception {
+        return this.redirectInstructionService.create(this.assertParameters, ResultStatus.FAILED);
+    }
+}
@@ -0,0 +1,39 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 decoding, inflating and unmarshalling of an incoming HTTP-Redirect AuthnRequest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestDecodeBenchmark {
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        this.request = new BenchmarkFixtures().signedAuthnRequest();
+    }
+
+    @Benchmark
+    public MessageContext decode() throws Exception {
+        return BenchmarkFixtures.decode(this.request);
+    }
+}
@@ -0,0 +1,159 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.SAMLObjectBuilder;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.namespace.QName;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the object tree of an assertion response, with every builder looked up in the OpenSAML
+ * registry on every call as before, against the builders resolved once by {@link SamlObjectBuilders}.
+ *
+ * Only the builders are compared, so the tree is built without setting any values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamlObjectBuildersBenchmark {
+    private SamlObjectBuilders builders;
+
+    @Setup
+    public void setup() throws Exception {
+        this.builders = new SamlObjectBuilders();
+    }
+
+    @Benchmark
+    public Response registryLookups() {
+        XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+
+        Response response = this.<Response>lookup(factory, Response.DEFAULT_ELEMENT_NAME).buildObject();
+        Status status = this.<Status>lookup(factory, Status.DEFAULT_ELEMENT_NAME).buildObject();
+        status.setStatusCode(this.<StatusCode>lookup(factory, StatusCode.DEFAULT_ELEMENT_NAME).buildObject());
+        response.setStatus(status);
+        response.setIssuer(this.<Issuer>lookup(factory, Issuer.DEFAULT_ELEMENT_NAME).buildObject());
+
+        Assertion assertion = this.<Assertion>lookup(factory, Assertion.DEFAULT_ELEMENT_NAME).buildObject();
+        assertion.setIssuer(this.<Issuer>lookup(factory, Issuer.DEFAULT_ELEMENT_NAME).buildObject());
+
+        Subject subject = this.<Subject>lookup(factory, Subject.DEFAULT_ELEMENT_NAME).buildObject();
+        subject.setNameID(this.<NameID>lookup(factory, NameID.DEFAULT_ELEMENT_NAME).buildObject());
+        SubjectConfirmation subjectConfirmation = this.<SubjectConfirmation>lookup(factory,
+                SubjectConfirmation.DEFAULT_ELEMENT_NAME).buildObject();
+        subjectConfirmation.setSubjectConfirmationData(this.<SubjectConfirmationData>lookup(factory,
+                SubjectConfirmationData.DEFAULT_ELEMENT_NAME).buildObject());
+        subject.getSubjectConfirmations().add(subjectConfirmation);
+        assertion.setSubject(subject);
+
+        AudienceRestriction audienceRestriction = this.<AudienceRestriction>lookup(factory,
+                AudienceRestriction.DEFAULT_ELEMENT_NAME).buildObject();
+        audienceRestriction.getAudiences().add(this.<Audience>lookup(factory, Audience.DEFAULT_ELEMENT_NAME).buildObject());
+        Conditions conditions = this.<Conditions>lookup(factory, Conditions.DEFAULT_ELEMENT_NAME).buildObject();
+        conditions.getAudienceRestrictions().add(audienceRestriction);
+        assertion.setConditions(conditions);
+
+        AuthnContext authnContext = this.<AuthnContext>lookup(factory, AuthnContext.DEFAULT_ELEMENT_NAME).buildObject();
+        authnContext.setAuthnContextClassRef(this.<AuthnContextClassRef>lookup(factory,
+                AuthnContextClassRef.DEFAULT_ELEMENT_NAME).buildObject());
+        AuthnStatement authnStatement = this.<AuthnStatement>lookup(factory,
+                AuthnStatement.DEFAULT_ELEMENT_NAME).buildObject();
+        authnStatement.setAuthnContext(authnContext);
+        assertion.getAuthnStatements().add(authnStatement);
+
+        @SuppressWarnings("unchecked")
+        XMLObjectBuilder<XSString> xsStringBuilder = (XMLObjectBuilder<XSString>) factory.getBuilder(XSString.TYPE_NAME);
+        Attribute attribute = this.<Attribute>lookup(factory, Attribute.DEFAULT_ELEMENT_NAME).buildObject();
+        attribute.getAttributeValues().add(xsStringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME));
+        AttributeStatement attributeStatement = this.<AttributeStatement>lookup(factory,
+                AttributeStatement.DEFAULT_ELEMENT_NAME).buildObject();
+        attributeStatement.getAttributes().add(attribute);
+        assertion.getAttributeStatements().add(attributeStatement);
+
+        response.getAssertions().add(assertion);
+        return response;
+    }
+
+    @Benchmark
+    public Response resolvedBuilders() {
+        SamlObjectBuilders builders = this.builders;
+
+        Response response = builders.getResponseBuilder().buildObject();
+        Status status = builders.getStatusBuilder().buildObject();
+        status.setStatusCode(builders.getStatusCodeBuilder().buildObject());
+        response.setStatus(status);
+        response.setIssuer(builders.getIssuerBuilder().buildObject());
+
+        Assertion assertion = builders.getAssertionBuilder().buildObject();
+        assertion.setIssuer(builders.getIssuerBuilder().buildObject());
+
+        Subject subject = builders.getSubjectBuilder().buildObject();
+        subject.setNameID(builders.getNameIDBuilder().buildObject());
+        SubjectConfirmation subjectConfirmation = builders.getSubjectConfirmationBuilder().buildObject();
+        subjectConfirmation.setSubjectConfirmationData(builders.getSubjectConfirmationDataBuilder().buildObject());
+        subject.getSubjectConfirmations().add(subjectConfirmation);
+        assertion.setSubject(subject);
+
+        AudienceRestriction audienceRestriction = builders.getAudienceRestrictionBuilder().buildObject();
+        audienceRestriction.getAudiences().add(builders.getAudienceBuilder().buildObject());
+        Conditions conditions = builders.getConditionsBuilder().buildObject();
+        conditions.getAudienceRestrictions().add(audienceRestriction);
+        assertion.setConditions(conditions);
+
+        AuthnContext authnContext = builders.getAuthnContextBuilder().buildObject();
+        authnContext.setAuthnContextClassRef(builders.getAuthnContextClassRefBuilder().buildObject());
+        AuthnStatement authnStatement = builders.getAuthnStatementBuilder().buildObject();
+        authnStatement.setAuthnContext(authnContext);
+        assertion.getAuthnStatements().add(authnStatement);
+
+        Attribute attribute = builders.getAttributeBuilder().buildObject();
+        attribute.getAttributeValues().add(
+                builders.getXsStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME));
+        AttributeStatement attributeStatement = builders.getAttributeStatementBuilder().buildObject();
+        attributeStatement.getAttributes().add(attribute);
+        assertion.getAttributeStatements().add(attributeStatement);
+
+        response.getAssertions().add(assertion);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends SAMLObject> SAMLObjectBuilder<T> lookup(XMLObjectBuilderFactory factory, QName name) {
+        return (SAMLObjectBuilder<T>) factory.getBuilder(name);
+    }
+}
@@ -0,0 +1,49 @@
+package nl.sidn.irma.saml_bridge.benchmark;
+
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import nl.sidn.irma.saml_bridge.service.SignatureValidationService;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verification of the HTTP-Redirect signature on an AuthnRequest against the SP metadata.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureValidationBenchmark {
+    private SignatureValidationService signatureValidationService;
+
+    private String queryString;
+
+    private String issuer;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures fixtures = new BenchmarkFixtures();
+        this.signatureValidationService = fixtures.signatureValidationService;
+        MockHttpServletRequest request = fixtures.signedAuthnRequest();
+        this.queryString = request.getQueryString();
+        this.issuer = ((AuthnRequest) BenchmarkFixtures.decode(request).getMessage()).getIssuer().getValue();
+    }
+
+    @Benchmark
+    public ServiceProvider verifySignature() throws Exception {
+        return this.signatureValidationService.verifySignature(this.queryString, this.issuer);
+    }
+}
@@ -0,0 +1,135 @@
+package nl.sidn.irma.saml_bridge.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.service.ConfigurationService;
+import nl.sidn.irma.saml_bridge.util.IrmaRoutes;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.ssl.TrustStrategy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.net.ssl.SSLContext;
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * The non-blocking HTTP client used to start IRMA sessions, with a separately sized
+ * connection pool for every IRMA server in the configuration.
+ */
+@Configuration
+public class IrmaHttpClientConfig {
+
+    @Bean
+    public PoolingAsyncClientConnectionManager irmaConnectionManager(ConfigurationService configurationService)
+            throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException, URISyntaxException {
+        Map<HttpRoute, IrmaPath> routes = IrmaRoutes.of(configurationService.getConfiguration());
+
+        Map<HttpHost, ConnectionConfig> connectionConfigs = new HashMap<>();
+        routes.forEach((route, irmaPath) -> connectionConfigs.put(route.getTargetHost(), connectionConfig(irmaPath)));
+        ConnectionConfig defaultConnectionConfig = connectionConfig(new IrmaPath());
+
+        TrustStrategy acceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
+
+        SSLContext sslContext = SSLContexts.custom()
+                .setProtocol("TLSv1.3")
+                .loadTrustMaterial(null, acceptingTrustStrategy)
+                .build();
+
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setTlsStrategy(ClientTlsStrategyBuilder.create()
+                        .setSslContext(sslContext)
+                        .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                        .buildAsync())
+                .setMaxConnTotal(configurationService.getConfiguration().getIrmaMaxConnectionsTotal())
+                .setDefaultConnectionConfig(defaultConnectionConfig)
+                .setConnectionConfigResolver(route ->
+                        connectionConfigs.getOrDefault(route.getTargetHost(), defaultConnectionConfig))
+                .build();
+        routes.forEach((route, irmaPath) -> connectionManager.setMaxPerRoute(route, irmaPath.getMaxConnections()));
+        return connectionManager;
+    }
+
+    /**
+     * Non-blocking HTTP client used to start IRMA sessions, so no request thread waits on the IRMA server.
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpAsyncClient httpAsyncClient(
+            PoolingAsyncClientConnectionManager irmaConnectionManager,
+            ConfigurationService configurationService) {
+        CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(irmaConnectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(
+                        configurationService.getConfiguration().getIrmaIdleConnectionTimeoutInSec()))
+                .build();
+        httpClient.start();
+        return httpClient;
+    }
+
+    /**
+     * Expose the leased, pending, available and maximum number of connections to every IRMA server.
+     */
+    @Bean
+    public MeterBinder irmaConnectionPoolMetrics(
+            PoolingAsyncClientConnectionManager irmaConnectionManager,
+            ConfigurationService configurationService) throws URISyntaxException {
+        Set<HttpRoute> routes = IrmaRoutes.of(configurationService.getConfiguration()).keySet();
+        return registry -> {
+            for (HttpRoute route : routes) {
+                String host = route.getTargetHost().toURI();
+                gauge(registry, "irma.connections.leased", "Connections to the IRMA server in use",
+                        host, irmaConnectionManager, route, PoolStats::getLeased);
+                gauge(registry, "irma.connections.pending", "Requests waiting for a connection to the IRMA server",
+                        host, irmaConnectionManager, route, PoolStats::getPending);
+                gauge(registry, "irma.connections.available", "Idle connections to the IRMA server",
+                        host, irmaConnectionManager, route, PoolStats::getAvailable);
+                gauge(registry, "irma.connections.max", "Maximum number of connections to the IRMA server",
+                        host, irmaConnectionManager, route, PoolStats::getMax);
+            }
+        };
+    }
+
+    private static void gauge(
+            MeterRegistry registry,
+            String name,
+            String description,
+            String host,
+            PoolingAsyncClientConnectionManager connectionManager,
+            HttpRoute route,
+            ToIntFunction<PoolStats> value) {
+        Gauge.builder(name, connectionManager, manager -> value.applyAsInt(manager.getStats(route)))
+                .description(description)
+                .tag("host", host)
+                .register(registry);
+    }
+
+    private static ConnectionConfig connectionConfig(IrmaPath irmaPath) {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(irmaPath.getConnectTimeoutInMs()))
+                .setTimeToLive(TimeValue.ofSeconds(irmaPath.getConnectionTtlInSec()))
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(irmaPath.getValidateAfterInactivityInMs()))
+                .build();
+    }
+}
@@ -7,6 +7,7 @@ import lombok.extern.slf4j.Slf4j;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
 import nl.sidn.irma.saml_bridge.exception.MalformedException;
 import nl.sidn.irma.saml_bridge.model.*;
+import nl.sidn.irma.saml_bridge.service.CondisconService;
 import nl.sidn.irma.saml_bridge.service.KeyService;
 import nl.sidn.irma.saml_bridge.service.RedirectInstructionService;
 import nl.sidn.irma.saml_bridge.util.JwtUtil;
@@ -32,16 +33,20 @@ public class AssertController {
 
     private final RedirectInstructionService redirectInstructionService;
 
+    private final CondisconService condisconService;
+
     public AssertController(
             ObjectMapper objectMapper,
             KeyService keyService,
             JwtUtil jwtUtil,
-            RedirectInstructionService redirectInstructionService
+            RedirectInstructionService redirectInstructionService,
+            CondisconService condisconService
     ) {
         this.objectMapper = objectMapper;
         this.keyService = keyService;
         this.jwtUtil = jwtUtil;
         this.redirectInstructionService = redirectInstructionService;
+        this.condisconService = condisconService;
     }
 
     @PostMapping(value="", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -56,9 +61,8 @@ public class AssertController {
         // Decode the IRMA response.
         Jws<Claims> token = jwtUtil.getClaims(keyService.getIrmaPublicKey(), arequest.getToken());
 
-        // Decode our pre-prepared set of assertion parameters (self-signed by the bridge;
-        // verified with the public key derived from our JWT private key).
-        Jws<Claims> parametersJws = jwtUtil.getClaims(keyService.getJwtPublicKey(), arequest.getParameters());
+        // Decode our pre-prepared set of assertion parameters (self-signed or encrypted by the bridge).
+        Claims parameters = jwtUtil.getAssertParameters(arequest.getParameters());
 
         // Unpack the IRMA response.
         Disclosure disclosure;
@@ -72,7 +76,7 @@ public class AssertController {
         }
 
         // Unpack the Assertion parameters.
-        AssertParameters assertParameters = AssertParameters.fromClaims(parametersJws.getPayload());
+        AssertParameters assertParameters = AssertParameters.fromClaims(parameters);
 
         // Verify that IRMA response is valid and present
         if (disclosure.getAttributes().isEmpty() || !"VALID".equals(disclosure.getProofStatus())) {
@@ -82,13 +86,15 @@ public class AssertController {
             return;
         }
 
-        // Verify that IRMA response matches our SAML request
-        if (!disclosure.fulfillsCondiscon(objectMapper.readValue(assertParameters.getCondiscon(), String[][][].class))) {
+        // Verify that IRMA response matches our SAML request, and only pass on the attributes that were asked for
+        Disclosure requested = disclosure.requestedBy(condisconService.parse(assertParameters.getCondiscon()));
+        if (requested == null) {
             log.warn("action=\"assert-flow\", warning=\"The disclosure does not match the requested condiscon\"");
             response.setStatus(401);
             response.getWriter().write("The disclosure does not match the requested condiscon");
             return;
         }
+        disclosure = requested;
 
         // Construct the set of instructions to the React applet.
         RedirectInstruction ri;
@@ -102,7 +108,8 @@ public class AssertController {
 
         log.info("action=\"disclosedsuccesfully\", attributes=\"{}\", serviceprovider=\"{}\"", disclosure.getAttributes().keySet(), assertParameters.getSpName());
 
+        // Stream the instructions, and the SAML response as base64 within them, straight to the client.
         response.setContentType("application/json");
-        response.getWriter().write(objectMapper.writeValueAsString(ri));
+        objectMapper.writeValue(response.getOutputStream(), ri);
     }
 }
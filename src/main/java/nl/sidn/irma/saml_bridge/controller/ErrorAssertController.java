@@ -2,11 +2,9 @@ package nl.sidn.irma.saml_bridge.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
 import lombok.extern.slf4j.Slf4j;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
 import nl.sidn.irma.saml_bridge.model.*;
-import nl.sidn.irma.saml_bridge.service.KeyService;
 import nl.sidn.irma.saml_bridge.service.RedirectInstructionService;
 import nl.sidn.irma.saml_bridge.util.JwtUtil;
 import org.springframework.http.HttpStatus;
@@ -26,20 +24,16 @@ public class ErrorAssertController {
 
     private final ObjectMapper objectMapper;
 
-    private final KeyService keyService;
-
     private final JwtUtil jwtUtil;
 
     private final RedirectInstructionService redirectInstructionService;
 
     public ErrorAssertController(
             ObjectMapper objectMapper,
-            KeyService keyService,
             JwtUtil jwtUtil,
             RedirectInstructionService redirectInstructionService
     ) {
         this.objectMapper = objectMapper;
-        this.keyService = keyService;
         this.jwtUtil = jwtUtil;
         this.redirectInstructionService = redirectInstructionService;
     }
@@ -86,10 +80,10 @@ public class ErrorAssertController {
         AssertRequest assertRequest = objectMapper.readValue(request.getReader(), AssertRequest.class);
 
         // Decode our pre-prepared set of assertion parameters.
-        Jws<Claims> parametersJws = jwtUtil.getClaims(keyService.getJwtPublicKey(), assertRequest.getParameters());
+        Claims parameters = jwtUtil.getAssertParameters(assertRequest.getParameters());
 
         // Unpack the Assertion parameters.
-        AssertParameters assertParameters = AssertParameters.fromClaims(parametersJws.getPayload());
+        AssertParameters assertParameters = AssertParameters.fromClaims(parameters);
         if(requestError != null) {
             assertParameters.setRequestError(requestError);
         }
@@ -117,6 +111,6 @@ public class ErrorAssertController {
         // Yield these instructions as a REST json body response.
         response.setContentType("application/json");
         response.setStatus(200);
-        response.getWriter().write(objectMapper.writeValueAsString(ri));
+        objectMapper.writeValue(response.getOutputStream(), ri);
     }
 }
@@ -1,46 +1,41 @@
 package nl.sidn.irma.saml_bridge.controller;
 
 import lombok.extern.slf4j.Slf4j;
-import nl.sidn.irma.saml_bridge.service.OpenSamlService;
+import nl.sidn.irma.saml_bridge.model.IdPMetadata;
+import nl.sidn.irma.saml_bridge.service.MetadataService;
 import org.opensaml.core.xml.io.MarshallingException;
-import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerException;
 import java.io.IOException;
-import java.security.cert.CertificateEncodingException;
 
 @Slf4j
 @Controller
 @RequestMapping("/metadata")
 public class MetadataController {
-    private final OpenSamlService openSamlService;
+    private final MetadataService metadataService;
 
     public MetadataController(
-            OpenSamlService openSamlService) {
-        this.openSamlService = openSamlService;
+            MetadataService metadataService) {
+        this.metadataService = metadataService;
     }
 
     @GetMapping(value = "")
-    public void metadata(HttpServletResponse response) throws IOException {
+    public void metadata(HttpServletRequest request, HttpServletResponse response) throws IOException {
         // Default to Internal Server Error
         response.setStatus(500);
 
-        EntityDescriptor metadata;
+        IdPMetadata metadata;
         try {
-            metadata = openSamlService.createIdPMetadata();
-        } catch (CertificateEncodingException e) {
-            log.error("action=\"metadata-flow.create-idp-metadata\", error=\"Failed to emit certificate\"", e);
-            response.getWriter().write("Failed to emit certificate");
-            return;
-        }
-
-        String samlResponse;
-        try {
-            samlResponse = openSamlService.marshallMetadata(metadata);
+            metadata = metadataService.getMetadata();
 
         } catch (MarshallingException e) {
             log.error("action=\"metadata-flow.marshall-metadata\", error=\"Failed to marshall assertion\"", e);
@@ -50,10 +45,22 @@ public class MetadataController {
             log.error("action=\"metadata-flow.marshall-metadata\", error=\"Failed to write assertion\"", e);
             response.getWriter().write("Failed to write assertion");
             return;
+        } catch (SignatureException e) {
+            log.error("action=\"metadata-flow.sign-metadata\", error=\"Failed to sign metadata\"", e);
+            response.getWriter().write("Failed to sign metadata");
+            return;
         }
 
         // We were able to generate the file, go back to 200 OK.
         response.setStatus(200);
-        response.getWriter().write(samlResponse);
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(metadata.getCacheDuration()).cachePublic().getHeaderValue());
+
+        // Sets the ETag, and answers 304 Not Modified when the client already has this document.
+        if (new ServletWebRequest(request, response).checkNotModified(metadata.getEtag())) {
+            return;
+        }
+
+        response.getOutputStream().write(metadata.getDocument());
     }
 }
@@ -1,18 +1,21 @@
 package nl.sidn.irma.saml_bridge.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import net.shibboleth.shared.component.ComponentInitializationException;
-import net.shibboleth.shared.resolver.ResolverException;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
 import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.model.Condiscon;
 import nl.sidn.irma.saml_bridge.model.Configuration;
 import nl.sidn.irma.saml_bridge.model.IrmaPath;
 import nl.sidn.irma.saml_bridge.model.RequestError;
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import nl.sidn.irma.saml_bridge.model.SessionRequest;
+import nl.sidn.irma.saml_bridge.service.CondisconService;
 import nl.sidn.irma.saml_bridge.service.ConfigurationService;
 import nl.sidn.irma.saml_bridge.service.IrmaService;
-import nl.sidn.irma.saml_bridge.service.OpenSamlService;
+import nl.sidn.irma.saml_bridge.service.ReplayCacheService;
+import nl.sidn.irma.saml_bridge.service.SessionRequestService;
 import nl.sidn.irma.saml_bridge.service.SignatureValidationService;
 import nl.sidn.irma.saml_bridge.util.HTTPRedirectDeflateDecoder;
 import nl.sidn.irma.saml_bridge.util.JwtUtil;
@@ -27,11 +30,11 @@ import org.opensaml.saml.saml2.core.Attribute;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.Extensions;
 import org.opensaml.saml.saml2.core.NameIDPolicy;
-import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml.saml2.metadata.RequestedAttribute;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
@@ -41,36 +44,54 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Controller
 @RequestMapping("/request")
 public class RequestController {
 
-    private final ObjectMapper objectMapper;
-
     private final SignatureValidationService signatureValidationService;
 
     private final ConfigurationService configurationService;
 
-    private final OpenSamlService openSamlService;
-
     private final JwtUtil jwtUtil;
     private final IrmaService irmaService;
+    private final ReplayCacheService replayCacheService;
+    private final CondisconService condisconService;
+    private final SessionRequestService sessionRequestService;
 
     public RequestController(
-            ObjectMapper objectMapper,
             SignatureValidationService signatureValidationService,
             ConfigurationService configurationService,
-            OpenSamlService openSamlService,
             JwtUtil jwtUtil,
-            IrmaService irmaService) {
-        this.objectMapper = objectMapper;
+            IrmaService irmaService,
+            ReplayCacheService replayCacheService,
+            CondisconService condisconService,
+            SessionRequestService sessionRequestService) {
         this.signatureValidationService = signatureValidationService;
         this.configurationService = configurationService;
-        this.openSamlService = openSamlService;
         this.jwtUtil = jwtUtil;
         this.irmaService = irmaService;
+        this.replayCacheService = replayCacheService;
+        this.condisconService = condisconService;
+        this.sessionRequestService = sessionRequestService;
+    }
+
+    /**
+     * Prepare the response to show an error message instead of the default
+     * interaction, as the already completed result of the request.
+     *
+     * @param requestError The request error.
+     * @param response     The servlet response.
+     * @param model        The servlet response.
+     */
+    private CompletableFuture<String> showError(
+            RequestError requestError,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Model model) throws JsonProcessingException {
+        return CompletableFuture.completedFuture(renderError(requestError, request, response, model));
     }
 
     /**
@@ -84,7 +105,7 @@ public class RequestController {
      * @param response     The servlet response.
      * @param model        The servlet response.
      */
-    private String showError(
+    private String renderError(
             RequestError requestError,
             HttpServletRequest request,
             HttpServletResponse response,
@@ -97,15 +118,39 @@ public class RequestController {
         response.setContentType("text/html");
         request.setAttribute("error", requestError.getMessage());
         request.setAttribute("assert_parameters",
-                jwtUtil.createJwtToken("assert_parameters", "aparams", assertParameters.toTreeMap()));
+                jwtUtil.createAssertParametersToken(assertParameters.toTreeMap()));
 
         model.addAttribute("request", request);
         // Show same page as always, let React render error
         return "irma-request";
     }
 
+    /**
+     * Show the error of an IRMA session that could not be started. Invoked when the
+     * request is resumed after the asynchronous session start failed.
+     */
+    @ExceptionHandler(BridgeException.class)
+    public String sessionStartFailed(
+            BridgeException e,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Model model) throws JsonProcessingException {
+        // logging already done in the irmaService
+        return renderError(RequestError.builder()
+                .statusCode(e.getHttpStatusCode())
+                .message(e.getMessage())
+                .build(),
+                request,
+                response,
+                model);
+    }
+
+    /**
+     * Handle a SAML AuthnRequest. The IRMA session is started asynchronously, so the
+     * request thread is released while waiting for the IRMA server.
+     */
     @GetMapping
-    public String request(
+    public CompletableFuture<String> request(
             HttpServletRequest request,
             HttpServletResponse response,
             Model model) throws IOException, ServletException {
@@ -120,6 +165,8 @@ public class RequestController {
 
         HTTPRedirectDeflateDecoder httpRedirectDeflateDecoder = new HTTPRedirectDeflateDecoder();
         httpRedirectDeflateDecoder.setHttpServletRequest(request);
+        httpRedirectDeflateDecoder.setMaxCompressedSize(config.getSamlRequestMaxCompressedBytes());
+        httpRedirectDeflateDecoder.setMaxInflatedSize(config.getSamlRequestMaxInflatedBytes());
         try {
             httpRedirectDeflateDecoder.initialize();
         } catch (ComponentInitializationException e) {
@@ -166,10 +213,11 @@ public class RequestController {
         }
 
         // Check the signature and find out from which entity this message originated.
-        EntityDescriptor entityDescriptor;
+        ServiceProvider serviceProvider;
         try {
-            entityDescriptor = signatureValidationService.verifySignature(request, messageContext);
-        } catch (MessageHandlerException | ComponentInitializationException | ResolverException e) {
+            String issuer = authnRequest.getIssuer() == null ? null : authnRequest.getIssuer().getValue();
+            serviceProvider = signatureValidationService.verifySignature(request.getQueryString(), issuer);
+        } catch (MessageHandlerException e) {
             log.warn("action=\"request-flow\", warning=\"SAML request signature malformed\"", e);
             return showError(RequestError.builder()
                     .statusCode(HttpStatus.UNAUTHORIZED.value())
@@ -191,6 +239,54 @@ public class RequestController {
                     model);
         }
 
+        // A request from the future would be valid, and be remembered by the replay cache, for as long as
+        // its sender likes.
+        if (authnRequest.getIssueInstant().isAfter(Instant.now().plusSeconds(config.getSamlClockSkewInSec()))) {
+            log.warn("action=\"request-flow\", warning=\"SAML request is issued in the future\"");
+            return showError(RequestError.builder()
+                    .statusCode(HttpStatus.BAD_REQUEST.value())
+                    .message("SAML request is issued in the future")
+                    .build(),
+                    request,
+                    response,
+                    model);
+        }
+
+        // Every AuthnRequest may only be used once within its TTL, so reject replays
+        // before they cost an IRMA session.
+        if (StringUtils.isEmpty(authnRequest.getID())) {
+            log.warn("action=\"request-flow\", warning=\"SAML request has no ID\"");
+            return showError(RequestError.builder()
+                    .statusCode(HttpStatus.BAD_REQUEST.value())
+                    .message("SAML request has no ID")
+                    .build(),
+                    request,
+                    response,
+                    model);
+        }
+
+        switch (replayCacheService.register(serviceProvider.getEntityId(), authnRequest.getID(),
+                authnRequest.getIssueInstant())) {
+            case REPLAYED:
+                return showError(RequestError.builder()
+                        .statusCode(HttpStatus.BAD_REQUEST.value())
+                        .message("SAML request has already been used")
+                        .build(),
+                        request,
+                        response,
+                        model);
+            case FULL:
+                return showError(RequestError.builder()
+                        .statusCode(HttpStatus.SERVICE_UNAVAILABLE.value())
+                        .message("Too many SAML requests, try again later")
+                        .build(),
+                        request,
+                        response,
+                        model);
+            default:
+                break;
+        }
+
         // Retrieve condiscon from extensions (Signicat broker does not filter this
         // value out)
         Extensions extensions = authnRequest.getExtensions();
@@ -288,7 +384,7 @@ public class RequestController {
             }
         }
 
-        String[][][] condiscon = null;
+        Condiscon condiscon = null;
         if (!simpleAttributes.isEmpty()) {
             if (packedCondiscon != null) {
                 log.warn(
@@ -301,14 +397,15 @@ public class RequestController {
                         response,
                         model);
             }
-            condiscon = new String[simpleAttributes.size()][][];
+            String[][][] discons = new String[simpleAttributes.size()][][];
             int i = 0;
             for (Set<String> attributes : simpleAttributes.values()) {
-                condiscon[i++] = new String[][] { attributes.toArray(new String[0]) };
+                discons[i++] = new String[][] { attributes.toArray(new String[0]) };
             }
+            condiscon = condisconService.of(discons);
         } else if (StringUtils.isNotEmpty(packedCondiscon)) {
             try {
-                condiscon = objectMapper.readValue(packedCondiscon, String[][][].class);
+                condiscon = condisconService.parse(packedCondiscon);
             } catch (JsonProcessingException e) {
                 log.warn("action=\"request-flow\", warning=\"Requested condiscon could not be parsed\"", e);
                 return showError(RequestError.builder()
@@ -330,7 +427,7 @@ public class RequestController {
                 String nameIdPolicyFormat = nameIdPolicy.getFormat();
                 if (nameIdPolicyFormat != null) {
                     try {
-                        condiscon = objectMapper.readValue(nameIdPolicyFormat, String[][][].class);
+                        condiscon = condisconService.parse(nameIdPolicyFormat);
                     } catch (Exception _e) {
                         log.warn("Could not convert nameIdPolicy format to a condiscons array with error: {}",
                                 _e.getMessage());
@@ -339,14 +436,14 @@ public class RequestController {
             }
             if (condiscon == null) {
                 log.warn("action=\"request-flow\", warning=\"Requested attributeType is empty\"");
-                condiscon = config.getDefaultCondiscon();
+                condiscon = condisconService.getDefaultCondiscon();
             }
         }
 
         String returnUrl = authnRequest.getAssertionConsumerServiceURL();
         if (StringUtils.isEmpty(returnUrl)) {
             log.debug("action=\"request-flow\", debug=\"Using default AssertionConsumerServiceURL from metadata\"");
-            returnUrl = this.openSamlService.findRedirectAssertionConsumerService(entityDescriptor);
+            returnUrl = serviceProvider.getRedirectAssertionConsumerServiceUrl();
         }
 
         if (StringUtils.isEmpty(returnUrl)) {
@@ -379,49 +476,17 @@ public class RequestController {
 
         if (path == null) {
             // No specific mapping found, use generic mapping.
-            host = config.getDefaultMap().getHost();
-            irmaServiceBaseUrl = protocol + config.getDefaultMap().getIrmaServiceHost();
-            postfix = config.getDefaultMap().getPostfix();
-        } else {
-            // Use specific mapping.
-            host = path.getHost();
-            irmaServiceBaseUrl = protocol + path.getIrmaServiceHost();
-            postfix = path.getPostfix();
+            path = config.getDefaultMap();
         }
+        host = path.getHost();
+        irmaServiceBaseUrl = protocol + path.getIrmaServiceHost();
+        postfix = path.getPostfix();
 
         host = host.replace("{spName}", spName);
         postfix = postfix.replace("{spName}", spName);
 
-        // Create the JWT request intended for IRMA.
-        TreeMap<String, Object> content = new TreeMap<>();
-        content.put("@context", "https://irma.app/ld/request/disclosure/v2");
-        content.put("disclose", condiscon);
-        content.put("host", host);
-
-        TreeMap<String, Object> sprequest = new TreeMap<>();
-        sprequest.put("request", content);
-        sprequest.put("validity", 30); // Seconds that JWT session result is valid
-        // sprequest.put("timeout", 240); // Seconds that JWT session is valid before it
-        // times out
-
-        // Sign with our private key
-        String token = jwtUtil.createJwtToken("verification_request", "sprequest", sprequest);
-
-        // start the IRMA session from the backend to see if it is possible to start
-        // without errors
-        String irmaSessionData = null;
-        try {
-            irmaSessionData = irmaService.startSession(token, irmaServiceBaseUrl + postfix);
-        } catch (BridgeException e) {
-            // looging already done in the irmaService
-            return showError(RequestError.builder()
-                    .statusCode(e.getHttpStatusCode())
-                    .message(e.getMessage())
-                    .build(),
-                    request,
-                    response,
-                    model);
-        }
+        // Create the session request intended for IRMA, or reuse a recent one.
+        SessionRequest sessionRequest = sessionRequestService.getSessionRequest(host, postfix, condiscon, path);
 
         // The yivi frontend has no support for switching languages mid-session,
         // so we pick one from the browser's Accept-Language header. The asset
@@ -429,46 +494,50 @@ public class RequestController {
         // header is missing or doesn't negotiate to English. We avoid
         // request.getLocale() here because it falls back to the JVM default
         // locale (en_US on the runtime image) when no Accept-Language is sent.
-        String language = "nl";
-        if (request.getHeader("Accept-Language") != null
-                && "en".equals(request.getLocale().getLanguage())) {
-            language = "en";
-        }
+        String language = request.getHeader("Accept-Language") != null
+                && "en".equals(request.getLocale().getLanguage()) ? "en" : "nl";
 
         // Use a URL with the external host to prevent CORS issues.
         String externalIrmaServiceBaseUrl = protocol + host;
-
-        request.setAttribute("irma_server", externalIrmaServiceBaseUrl + postfix);
-        request.setAttribute("language", language);
-        request.setAttribute("session_data", irmaSessionData);
-        request.setAttribute("assert_url", ourPostfix + "/assert");
+        String irmaServer = externalIrmaServiceBaseUrl + postfix;
 
         String issuer = authnRequest.getIssuer().getValue();
 
-        String repackedCondiscon = objectMapper.writeValueAsString(condiscon);
-
         // Create the JWT parameters used by this daemon to formulate a SAML Assertion.
         AssertParameters assertParameters = AssertParameters.builder()
                 .spName(spName)
                 .requestId(authnRequest.getID())
                 .serviceUrl(returnUrl)
                 .issuer(issuer)
-                .condiscon(repackedCondiscon)
+                .condiscon(condiscon.getJson())
                 .relayState(request.getParameter("RelayState"))
                 .build();
 
-        request.setAttribute("assert_parameters",
-                jwtUtil.createJwtToken("assert_parameters", "aparams", assertParameters.toTreeMap()));
-        // The user browser is going to communicate with our IRMA server,
-        // which is under the guise of a client hostname.
-        // As such we need to give permission to perform an AJAX request to that
-        // hostname.
-        response.setHeader("Access-Control-Allow-Origin", externalIrmaServiceBaseUrl);
-
-        response.setContentType("text/html");
+        // Signed before the IRMA session is started, so the completion of the
+        // session start only has to fill in the response.
+        String assertParametersToken = jwtUtil.createAssertParametersToken(assertParameters.toTreeMap());
 
-        model.addAttribute("request", request);
-
-        return "irma-request";
+        // start the IRMA session from the backend to see if it is possible to start
+        // without errors. A failure completes the future with a BridgeException,
+        // which is rendered by sessionStartFailed.
+        return irmaService.startSession(sessionRequest, irmaServiceBaseUrl + postfix, path)
+                .thenApply(irmaSessionData -> {
+                    request.setAttribute("irma_server", irmaServer);
+                    request.setAttribute("language", language);
+                    request.setAttribute("session_data", irmaSessionData);
+                    request.setAttribute("assert_url", ourPostfix + "/assert");
+                    request.setAttribute("assert_parameters", assertParametersToken);
+                    // The user browser is going to communicate with our IRMA server,
+                    // which is under the guise of a client hostname.
+                    // As such we need to give permission to perform an AJAX request to that
+                    // hostname.
+                    response.setHeader("Access-Control-Allow-Origin", externalIrmaServiceBaseUrl);
+
+                    response.setContentType("text/html");
+
+                    model.addAttribute("request", request);
+
+                    return "irma-request";
+                });
     }
 }
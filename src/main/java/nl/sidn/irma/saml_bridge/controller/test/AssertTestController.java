@@ -1,8 +1,7 @@
 package nl.sidn.irma.saml_bridge.controller.test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import net.shibboleth.shared.codec.Base64Support;
-import net.shibboleth.shared.codec.DecodingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import nl.sidn.irma.saml_bridge.model.AssertParameters;
 import nl.sidn.irma.saml_bridge.model.AssertRequest;
 import nl.sidn.irma.saml_bridge.model.RedirectInstruction;
@@ -18,6 +17,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -50,7 +50,7 @@ public class AssertTestController {
 
     @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
     public void testAssert(
-            HttpServletResponse httpServletResponse) throws IOException, DecodingException {
+            HttpServletResponse httpServletResponse) throws IOException {
 
         String[][][] condiscon = { { { ATTRIBUTE_KEY } } };
 
@@ -82,7 +82,7 @@ public class AssertTestController {
         claims.put("disclosed", discon);
 
         AssertRequest arequest = new AssertRequest();
-        arequest.setParameters(jwtUtil.createJwtToken("assert_parameters", "aparams", assertParameters.toTreeMap()));
+        arequest.setParameters(jwtUtil.createAssertParametersToken(assertParameters.toTreeMap()));
         arequest.setToken(this.jwtUtil.createTestIrmaJwtTokenWithClaims("irmaserver", "disclosing_result", claims));
 
         HttpPost request = new HttpPost(String.format("%s/assert", BASE_URL));
@@ -93,12 +93,12 @@ public class AssertTestController {
             redirectInstruction = httpClient.execute(request, response ->
                     objectMapper.readValue(response.getEntity().getContent(), RedirectInstruction.class));
         }
-        // decode SAML response so we can check the XML response
+        // show the decoded SAML response so we can check the XML response
+        ObjectNode result = objectMapper.valueToTree(redirectInstruction);
         if (redirectInstruction.getSamlResponse() != null) {
-            byte[] samlResponse = Base64Support.decode(redirectInstruction.getSamlResponse());
-            redirectInstruction.setSamlResponse(new String(samlResponse));
+            result.put("samlResponse", new String(redirectInstruction.getSamlResponse(), StandardCharsets.UTF_8));
         }
         httpServletResponse.setContentType("application/json");
-        httpServletResponse.getWriter().write(objectMapper.writeValueAsString(redirectInstruction));
+        httpServletResponse.getWriter().write(objectMapper.writeValueAsString(result));
     }
 }
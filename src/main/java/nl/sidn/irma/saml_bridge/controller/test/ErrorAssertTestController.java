@@ -1,9 +1,8 @@
 package nl.sidn.irma.saml_bridge.controller.test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
-import net.shibboleth.shared.codec.Base64Support;
-import net.shibboleth.shared.codec.DecodingException;
 import nl.sidn.irma.saml_bridge.model.AssertParameters;
 import nl.sidn.irma.saml_bridge.model.AssertRequest;
 import nl.sidn.irma.saml_bridge.model.RedirectInstruction;
@@ -22,6 +21,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -56,7 +56,7 @@ public class ErrorAssertTestController {
     @PostMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
     public void testAssert(
             HttpServletResponse httpServletResponse,
-            @RequestBody(required = false) RequestError requestError) throws IOException, DecodingException {
+            @RequestBody(required = false) RequestError requestError) throws IOException {
 
         constructTest(httpServletResponse, requestError, "/errorassert");
     }
@@ -64,7 +64,7 @@ public class ErrorAssertTestController {
     @PostMapping(value = "/abort", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
     public void testAssertAbort(
             HttpServletResponse httpServletResponse,
-            @RequestBody(required = false) RequestError requestError) throws IOException, DecodingException {
+            @RequestBody(required = false) RequestError requestError) throws IOException {
 
         constructTest(httpServletResponse, requestError, "/errorassert/abort");
     }
@@ -72,7 +72,7 @@ public class ErrorAssertTestController {
     private void constructTest(
             HttpServletResponse httpServletResponse,
             RequestError requestError,
-            String endpointUrl) throws IOException, DecodingException {
+            String endpointUrl) throws IOException {
         if (requestError != null) {
             log.info("Test Error Assert with requestError: {}", StringEscapeUtils.escapeJava(requestError.toString()));
         }
@@ -108,7 +108,7 @@ public class ErrorAssertTestController {
         claims.put("disclosed", discon);
 
         AssertRequest arequest = new AssertRequest();
-        arequest.setParameters(jwtUtil.createJwtToken("assert_parameters", "aparams", assertParameters.toTreeMap()));
+        arequest.setParameters(jwtUtil.createAssertParametersToken(assertParameters.toTreeMap()));
         arequest.setToken(this.jwtUtil.createTestIrmaJwtTokenWithClaims("irmaserver", "disclosing_result", claims));
 
         HttpPost request = new HttpPost(String.format("%s" + endpointUrl, BASE_URL));
@@ -119,12 +119,12 @@ public class ErrorAssertTestController {
             redirectInstruction = httpClient.execute(request, response ->
                     objectMapper.readValue(response.getEntity().getContent(), RedirectInstruction.class));
         }
-        // decode SAML response so we can check the XML response
+        // show the decoded SAML response so we can check the XML response
+        ObjectNode result = objectMapper.valueToTree(redirectInstruction);
         if (redirectInstruction.getSamlResponse() != null) {
-            byte[] samlResponse = Base64Support.decode(redirectInstruction.getSamlResponse());
-            redirectInstruction.setSamlResponse(new String(samlResponse));
+            result.put("samlResponse", new String(redirectInstruction.getSamlResponse(), StandardCharsets.UTF_8));
         }
         httpServletResponse.setContentType("application/json");
-        httpServletResponse.getWriter().write(objectMapper.writeValueAsString(redirectInstruction));
+        httpServletResponse.getWriter().write(objectMapper.writeValueAsString(result));
     }
 }
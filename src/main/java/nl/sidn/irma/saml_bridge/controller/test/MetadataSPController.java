@@ -11,7 +11,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import jakarta.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerException;
 import java.io.IOException;
-import java.security.cert.CertificateEncodingException;
 
 /**
  * Generates the SAML metadata.xml file for this Identity Provider.
@@ -34,15 +33,9 @@ public class MetadataSPController {
         // Default to Internal Server Error
         response.setStatus(500);
 
-        EntityDescriptor metadata;
-        try {
-            metadata = this.openSamlService.createSPMetadata();
-        } catch (CertificateEncodingException e) {
-            log.error("Failed to emit certificate", e);
-            return;
-        }
+        EntityDescriptor metadata = this.openSamlService.createSPMetadata();
 
-        String samlResponse;
+        byte[] samlResponse;
         try {
             samlResponse = this.openSamlService.marshallMetadata(metadata);
         } catch (MarshallingException e) {
@@ -55,6 +48,6 @@ public class MetadataSPController {
 
         // We were able to generate the file, go back to 200 OK.
         response.setStatus(200);
-        response.getWriter().write(samlResponse);
+        response.getOutputStream().write(samlResponse);
     }
 }
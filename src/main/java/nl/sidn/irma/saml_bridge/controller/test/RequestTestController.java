@@ -3,29 +3,22 @@ package nl.sidn.irma.saml_bridge.controller.test;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import net.shibboleth.shared.component.ComponentInitializationException;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
 import nl.sidn.irma.saml_bridge.service.ConfigurationService;
 import nl.sidn.irma.saml_bridge.service.KeyService;
 import nl.sidn.irma.saml_bridge.util.HTTPRedirectDeflateEncoder;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
 
-import org.opensaml.core.xml.XMLObjectBuilderFactory;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.schema.XSString;
-import org.opensaml.core.xml.schema.impl.XSStringBuilder;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.encoder.MessageEncodingException;
-import org.opensaml.saml.common.SAMLObjectBuilder;
 import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
 import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
 import org.opensaml.saml.ext.reqattr.RequestedAttributes;
-import org.opensaml.saml.ext.reqattr.impl.RequestedAttributesImpl;
 import org.opensaml.saml.saml2.core.*;
-import org.opensaml.saml.saml2.core.impl.*;
-import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
 import org.opensaml.saml.saml2.metadata.Endpoint;
 import org.opensaml.saml.saml2.metadata.RequestedAttribute;
-import org.opensaml.saml.saml2.metadata.impl.RequestedAttributeImpl;
-import org.opensaml.security.credential.Credential;
-import org.opensaml.security.x509.BasicX509Credential;
 import org.opensaml.xmlsec.SignatureSigningParameters;
 import org.opensaml.xmlsec.context.SecurityParametersContext;
 import org.springframework.stereotype.Controller;
@@ -53,50 +46,30 @@ public class RequestTestController {
 
     private final KeyService keyService;
 
+    private final SamlObjectBuilders builders;
+
+    private final IdGenerator idGenerator;
+
     public RequestTestController(
             ObjectMapper objectMapper,
             ConfigurationService configurationService,
-            KeyService keyService) {
+            KeyService keyService,
+            SamlObjectBuilders builders,
+            IdGenerator idGenerator) {
         this.objectMapper = objectMapper;
         this.configurationService = configurationService;
         this.keyService = keyService;
+        this.builders = builders;
+        this.idGenerator = idGenerator;
     }
 
     @GetMapping(value = "")
     public void testRequest(
             HttpServletRequest request,
             HttpServletResponse response) throws IOException {
-        XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<AuthnRequestImpl> authnRequestBuilder = (SAMLObjectBuilder<AuthnRequestImpl>) factory
-                .getBuilder(AuthnRequestImpl.DEFAULT_ELEMENT_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<IssuerImpl> issuerBuilder = (SAMLObjectBuilder<IssuerImpl>) factory
-                .getBuilder(Issuer.DEFAULT_ELEMENT_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<Endpoint> endpointBuilder = (SAMLObjectBuilder<Endpoint>) factory
-                .getBuilder(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<NameIDPolicyImpl> nameIDPolicyBuilder = (SAMLObjectBuilder<NameIDPolicyImpl>) factory
-                .getBuilder(NameIDPolicy.DEFAULT_ELEMENT_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<AttributeImpl> attributeBuilder = (SAMLObjectBuilder<AttributeImpl>) factory
-                .getBuilder(Attribute.DEFAULT_ELEMENT_NAME);
-        XSStringBuilder attributeValueBuilder = (XSStringBuilder) factory.getBuilder(XSString.TYPE_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<ExtensionsImpl> extensionsBuilder = (SAMLObjectBuilder<ExtensionsImpl>) factory
-                .getBuilder(Extensions.DEFAULT_ELEMENT_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<RequestedAttributesImpl> requestedAttributesBuilder = (SAMLObjectBuilder<RequestedAttributesImpl>) factory
-                .getBuilder(RequestedAttributes.DEFAULT_ELEMENT_NAME);
-        @SuppressWarnings("unchecked")
-        SAMLObjectBuilder<RequestedAttributeImpl> requestedAttributeBuilder = (SAMLObjectBuilder<RequestedAttributeImpl>) factory
-                .getBuilder(RequestedAttribute.DEFAULT_ELEMENT_NAME);
-
-        AuthnRequestImpl authnRequest = authnRequestBuilder.buildObject();
-
-        IssuerImpl issuer = issuerBuilder.buildObject();
+        AuthnRequest authnRequest = this.builders.getAuthnRequestBuilder().buildObject();
+
+        Issuer issuer = this.builders.getIssuerBuilder().buildObject();
 
         if (request.getParameter("fake-issuer") == null) {
             issuer.setValue(this.configurationService.getConfiguration().getIssuerName());
@@ -109,6 +82,7 @@ public class RequestTestController {
             now = now.minusSeconds(86400);
         }
 
+        authnRequest.setID(this.idGenerator.generateId());
         authnRequest.setIssueInstant(now);
 
         String protocol = configurationService.getConfiguration().getProtocol();
@@ -136,11 +110,11 @@ public class RequestTestController {
                         return;
                     }
 
-                    Extensions extensions = extensionsBuilder.buildObject();
-                    RequestedAttributesImpl requestedAttributes = requestedAttributesBuilder.buildObject();
+                    Extensions extensions = this.builders.getExtensionsBuilder().buildObject();
+                    RequestedAttributes requestedAttributes = this.builders.getRequestedAttributesBuilder().buildObject();
 
                     for (String key : attributes) {
-                        RequestedAttributeImpl requestedAttribute = requestedAttributeBuilder.buildObject();
+                        RequestedAttribute requestedAttribute = this.builders.getRequestedAttributeBuilder().buildObject();
                         requestedAttribute.setIsRequired(true);
                         requestedAttribute.setName(key);
                         requestedAttributes.getRequestedAttributes().add(requestedAttribute);
@@ -152,18 +126,18 @@ public class RequestTestController {
                 }
                 case "condiscon-signicat":
                 case "condiscon": {
-                    RequestedAttributeImpl requestedAttribute = requestedAttributeBuilder.buildObject();
+                    RequestedAttribute requestedAttribute = this.builders.getRequestedAttributeBuilder().buildObject();
                     requestedAttribute.setName(mode.equals("condiscon") ? mode : "signicat:param:condiscon");
 
-                    XSString attributeValue = attributeValueBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
+                    XSString attributeValue = this.builders.getXsStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
                             XSString.TYPE_NAME);
                     attributeValue.setValue(packedRequest);
 
                     requestedAttribute.getAttributeValues().add(attributeValue);
 
-                    Extensions extensions = extensionsBuilder.buildObject();
+                    Extensions extensions = this.builders.getExtensionsBuilder().buildObject();
 
-                    RequestedAttributesImpl requestedAttributes = requestedAttributesBuilder.buildObject();
+                    RequestedAttributes requestedAttributes = this.builders.getRequestedAttributesBuilder().buildObject();
                     requestedAttributes.getRequestedAttributes().add(requestedAttribute);
 
                     extensions.getUnknownXMLObjects().add(requestedAttributes);
@@ -171,23 +145,23 @@ public class RequestTestController {
                     break;
                 }
                 case "condiscon-nameid": {
-                    NameIDPolicyImpl nameIDPolicy = nameIDPolicyBuilder.buildObject();
+                    NameIDPolicy nameIDPolicy = this.builders.getNameIDPolicyBuilder().buildObject();
                     nameIDPolicy.setFormat(packedRequest);
 
                     authnRequest.setNameIDPolicy(nameIDPolicy);
                     break;
                 }
                 case "condiscon-attribute": {
-                    Attribute attribute = attributeBuilder.buildObject();
+                    Attribute attribute = this.builders.getAttributeBuilder().buildObject();
                     attribute.setName("condiscon");
 
-                    XSString attributeValue = attributeValueBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
+                    XSString attributeValue = this.builders.getXsStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
                             XSString.TYPE_NAME);
                     attributeValue.setValue(packedRequest);
 
                     attribute.getAttributeValues().add(attributeValue);
 
-                    Extensions extensions = extensionsBuilder.buildObject();
+                    Extensions extensions = this.builders.getExtensionsBuilder().buildObject();
                     extensions.getUnknownXMLObjects().add(attribute);
 
                     authnRequest.setExtensions(extensions);
@@ -205,18 +179,16 @@ public class RequestTestController {
         messageContext.setMessage(authnRequest);
 
         // TODO use separate credential for testing?
-        Credential credential = new BasicX509Credential(
-                this.keyService.getSamlCertificate(),
-                this.keyService.getSamlPrivateKey());
+        SigningKey signingKey = this.keyService.getSamlSigningKey();
 
         SignatureSigningParameters sigparams = new SignatureSigningParameters();
-        sigparams.setSignatureAlgorithm("http://www.w3.org/2001/04/xmldsig-more#rsa-sha256");
-        sigparams.setSigningCredential(credential);
+        sigparams.setSignatureAlgorithm(signingKey.getSignatureAlgorithm());
+        sigparams.setSigningCredential(signingKey.getCredential());
 
         SecurityParametersContext secparamContext = messageContext.getSubcontext(SecurityParametersContext.class, true);
         secparamContext.setSignatureSigningParameters(sigparams);
 
-        Endpoint samlEndpoint = endpointBuilder.buildObject();
+        Endpoint samlEndpoint = this.builders.getAssertionConsumerServiceBuilder().buildObject();
         samlEndpoint.setLocation(String.format("%s%s/request",
                 path,
                 this.configurationService.getConfiguration().getPostfix()));
@@ -1,6 +1,7 @@
 package nl.sidn.irma.saml_bridge.model;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Claims;
 import lombok.Builder;
@@ -30,26 +31,41 @@ public class AssertParameters {
 	private String relayState;
 	private RequestError requestError;
 
+	/** Version of the compact mapping written by {@link #toTreeMap()}. Mappings without a version are of version 1. */
+	private static final int VERSION = 2;
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
 	/**
 	 * Construct a Key-Value-pair object with the fields of this object.
 	 * Used to construct a JWT object to be passed over to the browser and back again.
 	 *
+	 * The mapping is kept small, as it is included in every request page and posted back on every assertion:
+	 * keys are short, fields that are null are left out, and the request error is a nested mapping.
+	 *
 	 * @return A mapping of the fields in this object.
 	 */
-	public Map<String, Object> toTreeMap() throws JsonProcessingException {
+	public Map<String, Object> toTreeMap() {
 		Map<String, Object> map = new TreeMap<>();
-		map.put("sp_name", this.spName);
-		map.put("request_id", this.requestId);
-		map.put("service_url", this.serviceUrl);
-		map.put("issuer", this.issuer);
-		map.put("condiscon", this.condiscon);
-		map.put("relay_state", this.relayState);
-		map.put("request_error", new ObjectMapper().writeValueAsString(this.requestError));
+		map.put("v", VERSION);
+		putIfNotNull(map, "sp", this.spName);
+		putIfNotNull(map, "id", this.requestId);
+		putIfNotNull(map, "url", this.serviceUrl);
+		putIfNotNull(map, "iss", this.issuer);
+		putIfNotNull(map, "cd", this.condiscon);
+		putIfNotNull(map, "rs", this.relayState);
+		if (this.requestError != null) {
+			Map<String, Object> error = new TreeMap<>();
+			error.put("c", this.requestError.getStatusCode());
+			putIfNotNull(error, "m", this.requestError.getMessage());
+			map.put("err", error);
+		}
 		return map;
 	}
 
 	/**
 	 * Reconstruct the object from a JWT claims object by deconstructing the mapping from `toTreeMap`.
+	 * Mappings of version 1, with snake_case keys and the request error as JSON, are still accepted.
 	 * @param claims
 	 * @return The assert parameters object.
 	 */
@@ -57,9 +73,39 @@ public class AssertParameters {
 		@SuppressWarnings("unchecked")
 		Map<String, Object> params = (Map<String, Object>) claims.get("aparams");
 
+		if (!params.containsKey("v")) {
+			return fromVersion1(params);
+		}
+
+		int version = ((Number) params.get("v")).intValue();
+		if (version != VERSION) {
+			throw new JsonMappingException(null, "Unsupported assert parameters version " + version);
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> error = (Map<String, Object>) params.get("err");
+		RequestError requestError = (error != null)
+				? RequestError.builder()
+						.statusCode(((Number) error.get("c")).intValue())
+						.message((String) error.get("m"))
+						.build()
+				: null;
+
+		return AssertParameters.builder()
+				.spName((String) params.get("sp"))
+				.requestId((String) params.get("id"))
+				.serviceUrl((String) params.get("url"))
+				.issuer((String) params.get("iss"))
+				.condiscon((String) params.get("cd"))
+				.relayState((String) params.get("rs"))
+				.requestError(requestError)
+				.build();
+	}
+
+	private static AssertParameters fromVersion1(Map<String, Object> params) throws JsonProcessingException {
 		String requestErrorJson = (String) params.get("request_error");
 		RequestError requestError = (requestErrorJson != null)
-				? new ObjectMapper().readValue(requestErrorJson, RequestError.class)
+				? OBJECT_MAPPER.readValue(requestErrorJson, RequestError.class)
 				: null;
 
 		return AssertParameters.builder()
@@ -72,4 +118,10 @@ public class AssertParameters {
 				.requestError(requestError)
 				.build();
 	}
+
+	private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+		if (value != null) {
+			map.put(key, value);
+		}
+	}
 }
@@ -0,0 +1,97 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable IRMA condiscon: a conjunction of disjunctions of conjunctions of attribute identifiers.
+ *
+ * See https://irma.app/docs/condiscon/ for its meaning.
+ * A condiscon carries its canonical JSON form, the compact serialization of its attribute identifiers,
+ * so condiscons that only differ in formatting are equal and never need to be serialized again.
+ * It also carries its compiled {@link CondisconMatcher}, so a cached condiscon is only compiled once.
+ */
+@Getter
+@EqualsAndHashCode(of = "json")
+public final class Condiscon {
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	/** The discons, i.e. [[["irma-demo.MijnOverheid.ageLower.over18"]]] */
+	private final List<List<List<String>>> discons;
+
+	/** The canonical JSON form of the discons. */
+	private final String json;
+
+	/** The matcher to check disclosures against this condiscon. */
+	private final CondisconMatcher matcher;
+
+	private Condiscon(List<List<List<String>>> discons, String json) {
+		this.discons = discons;
+		this.json = json;
+		this.matcher = new CondisconMatcher(discons);
+	}
+
+	/**
+	 * Parse a condiscon from its JSON form.
+	 *
+	 * @param json A JSON array of arrays of arrays of attribute identifiers.
+	 * @return The condiscon.
+	 * @throws JsonProcessingException When the JSON is not a valid condiscon.
+	 */
+	public static Condiscon parse(String json) throws JsonProcessingException {
+		return of(OBJECT_MAPPER.readValue(json, String[][][].class));
+	}
+
+	/**
+	 * Construct a condiscon from an array of discons.
+	 *
+	 * @param condiscon The array of discons, which is copied.
+	 * @return The condiscon.
+	 * @throws JsonProcessingException When the array contains nulls.
+	 */
+	public static Condiscon of(String[][][] condiscon) throws JsonProcessingException {
+		if (condiscon == null) {
+			throw JsonMappingException.from((JsonParser) null, "Condiscon is null");
+		}
+
+		List<List<List<String>>> discons = new ArrayList<>(condiscon.length);
+		for (String[][] discon : condiscon) {
+			if (discon == null) {
+				throw JsonMappingException.from((JsonParser) null, "Condiscon contains a null discon");
+			}
+
+			List<List<String>> cons = new ArrayList<>(discon.length);
+			for (String[] con : discon) {
+				if (con == null) {
+					throw JsonMappingException.from((JsonParser) null, "Condiscon contains a null con");
+				}
+
+				List<String> attributes = new ArrayList<>(con.length);
+				for (String attribute : con) {
+					if (attribute == null) {
+						throw JsonMappingException.from((JsonParser) null, "Condiscon contains a null attribute");
+					}
+					attributes.add(attribute);
+				}
+				cons.add(Collections.unmodifiableList(attributes));
+			}
+			discons.add(Collections.unmodifiableList(cons));
+		}
+		discons = Collections.unmodifiableList(discons);
+
+		return new Condiscon(discons, OBJECT_MAPPER.writeValueAsString(discons));
+	}
+
+	@Override
+	public String toString() {
+		return this.json;
+	}
+}
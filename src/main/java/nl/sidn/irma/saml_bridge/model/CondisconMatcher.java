@@ -0,0 +1,170 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A condiscon compiled for matching disclosures against it.
+ *
+ * Every distinct attribute identifier in the condiscon is numbered once, and every con is compiled
+ * to a bitset of the attributes it requires. A disclosure is translated to a bitset of the same
+ * attributes, after which a con is satisfied when its bitset holds no bits that the disclosure lacks.
+ */
+public final class CondisconMatcher {
+	/** The number of every attribute identifier in the condiscon. */
+	private final Map<String, Integer> attributeIds = new HashMap<>();
+
+	/** The attribute identifiers by their number. */
+	private final String[] attributes;
+
+	/** The bitsets of the cons, per discon. */
+	private final long[][][] cons;
+
+	/** The number of distinct attributes in every con, per discon. */
+	private final int[][] conSizes;
+
+	private final int words;
+
+	CondisconMatcher(List<List<List<String>>> discons) {
+		for (List<List<String>> discon : discons) {
+			for (List<String> con : discon) {
+				for (String attribute : con) {
+					this.attributeIds.putIfAbsent(attribute, this.attributeIds.size());
+				}
+			}
+		}
+
+		this.attributes = new String[this.attributeIds.size()];
+		this.attributeIds.forEach((attribute, id) -> this.attributes[id] = attribute);
+		this.words = (this.attributes.length + 63) / 64;
+
+		this.cons = new long[discons.size()][][];
+		this.conSizes = new int[discons.size()][];
+		for (int i = 0; i < discons.size(); i++) {
+			List<List<String>> discon = discons.get(i);
+			this.cons[i] = new long[discon.size()][];
+			this.conSizes[i] = new int[discon.size()];
+			for (int j = 0; j < discon.size(); j++) {
+				long[] con = new long[this.words];
+				for (String attribute : discon.get(j)) {
+					int id = this.attributeIds.get(attribute);
+					con[id >>> 6] |= 1L << id;
+				}
+				this.cons[i][j] = con;
+				this.conSizes[i][j] = cardinality(con);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the disclosed attributes fulfill the condiscon.
+	 *
+	 * @param disclosed The identifiers of the disclosed attributes.
+	 * @return Compliance or failure.
+	 */
+	public boolean matches(Collection<String> disclosed) {
+		long[] bits = bits(disclosed);
+		for (long[][] discon : this.cons) {
+			boolean satisfied = false;
+			for (long[] con : discon) {
+				if (satisfies(bits, con)) {
+					satisfied = true;
+					break;
+				}
+			}
+			if (!satisfied) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the con satisfied by the disclosed attributes in every discon.
+	 * When several cons of a discon are satisfied, the one requesting the most attributes is chosen,
+	 * and of those the first.
+	 *
+	 * @param disclosed The identifiers of the disclosed attributes.
+	 * @return The index of the satisfied con for every discon, or null when the condiscon is not fulfilled.
+	 */
+	public int[] satisfiedCons(Collection<String> disclosed) {
+		long[] bits = bits(disclosed);
+		int[] result = new int[this.cons.length];
+		for (int i = 0; i < this.cons.length; i++) {
+			int best = -1;
+			for (int j = 0; j < this.cons[i].length; j++) {
+				if ((best < 0 || this.conSizes[i][j] > this.conSizes[i][best]) && satisfies(bits, this.cons[i][j])) {
+					best = j;
+				}
+			}
+			if (best < 0) {
+				return null;
+			}
+			result[i] = best;
+		}
+		return result;
+	}
+
+	/**
+	 * The attributes of the satisfied cons, i.e. the disclosed attributes that were asked for.
+	 *
+	 * @param disclosed The identifiers of the disclosed attributes.
+	 * @return The requested attribute identifiers, or null when the condiscon is not fulfilled.
+	 */
+	public Set<String> requestedAttributes(Collection<String> disclosed) {
+		int[] satisfied = satisfiedCons(disclosed);
+		if (satisfied == null) {
+			return null;
+		}
+
+		long[] requested = new long[this.words];
+		for (int i = 0; i < satisfied.length; i++) {
+			long[] con = this.cons[i][satisfied[i]];
+			for (int w = 0; w < this.words; w++) {
+				requested[w] |= con[w];
+			}
+		}
+
+		Set<String> result = new TreeSet<>();
+		for (int w = 0; w < this.words; w++) {
+			long word = requested[w];
+			while (word != 0) {
+				result.add(this.attributes[(w << 6) + Long.numberOfTrailingZeros(word)]);
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+
+	private long[] bits(Collection<String> disclosed) {
+		long[] bits = new long[this.words];
+		for (String attribute : disclosed) {
+			Integer id = this.attributeIds.get(attribute);
+			if (id != null) {
+				bits[id >>> 6] |= 1L << id;
+			}
+		}
+		return bits;
+	}
+
+	private static boolean satisfies(long[] disclosed, long[] con) {
+		for (int w = 0; w < con.length; w++) {
+			if ((con[w] & ~disclosed[w]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int cardinality(long[] bits) {
+		int cardinality = 0;
+		for (long word : bits) {
+			cardinality += Long.bitCount(word);
+		}
+		return cardinality;
+	}
+}
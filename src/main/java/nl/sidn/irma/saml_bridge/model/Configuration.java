@@ -2,7 +2,10 @@ package nl.sidn.irma.saml_bridge.model;
 
 import lombok.Data;
 import nl.sidn.irma.saml_bridge.exception.InvalidConfigurationException;
+import nl.sidn.irma.saml_bridge.util.HTTPRedirectDeflateDecoder;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,9 +37,15 @@ public class Configuration {
 	/** Path to certificate used to sign SAML responses and assertions */
 	private String samlCertificatePath;
 
-	/** Path to private key used to sign SAML responses and assertions */
+	/** Path to RSA private key used to sign SAML responses and assertions */
 	private String samlPrivateKeyPath;
 
+	/** Path to certificate of an additional ECDSA key, for Service Providers that prefer it. Might be NULL */
+	private String samlEcCertificatePath;
+
+	/** Path to the additional ECDSA private key matching samlEcCertificatePath. Might be NULL */
+	private String samlEcPrivateKeyPath;
+
 	/** Path to directory containing all metadata files */
 	private String samlMetadataPath;
 
@@ -55,9 +64,66 @@ public class Configuration {
 	/** Time how long client requests can be used. **/
 	private int requestTtlInSec = 360;
 
+	/** Difference in seconds allowed between our clock and that of the issuer of a JWT. **/
+	private int jwtClockSkewInSec = 30;
+
+	/** Difference in seconds allowed between our clock and that of the issuer of a SAML request. **/
+	private int samlClockSkewInSec = 30;
+
+	/** Paths of the 256 bit AES keys that may encrypt assert parameters, by key ID, might be NULL. **/
+	private Map<String, String> assertParametersKeyPaths;
+
+	/** ID of the key we encrypt assert parameters with, or NULL to sign them with the JWT private key. **/
+	private String assertParametersKeyId;
+
 	/** Time how long our assertions can be used. **/
 	private int responseTtlInSec = 360;
 
+	/** Maximum size of a DEFLATE compressed SAML request in bytes, after base64 decoding. **/
+	private int samlRequestMaxCompressedBytes = HTTPRedirectDeflateDecoder.DEFAULT_MAX_COMPRESSED_SIZE;
+
+	/** Maximum size of an inflated SAML request in bytes. Larger requests are rejected before parsing. **/
+	private int samlRequestMaxInflatedBytes = HTTPRedirectDeflateDecoder.DEFAULT_MAX_INFLATED_SIZE;
+
+	/** Maximum number of used AuthnRequests remembered to reject replays. When full, new requests are refused. **/
+	private int replayCacheMaxEntries = 100000;
+
+	/** Maximum number of distinct condiscons that are kept parsed. **/
+	private int condisconCacheMaxEntries = 1000;
+
+	/** Time in seconds a signed session request is reused for the same IRMA host and condiscon, 0 to sign every request. **/
+	private int sessionRequestCacheTtlInSec = 60;
+
+	/** Maximum number of distinct signed session requests that are kept. **/
+	private int sessionRequestCacheMaxEntries = 1000;
+
+	/** Maximum number of pooled connections to all IRMA servers together. **/
+	private int irmaMaxConnectionsTotal = 200;
+
+	/** Time in seconds after which idle connections to IRMA servers are closed. **/
+	private int irmaIdleConnectionTimeoutInSec = 60;
+
+	/** How the SAML responses we sign are verified again before they are sent. **/
+	private SelfVerification selfVerification = SelfVerification.ALWAYS;
+
+	/** With SAMPLED self-verification, one in every this many responses is verified. **/
+	private int selfVerificationSampleRate = 100;
+
+	/** Write SAML responses straight from a template, instead of marshalling them with OpenSAML. **/
+	private boolean templateResponses = false;
+
+	/** Number of threads signing SAML responses, or 0 for one per available processor. **/
+	private int signingThreads = 0;
+
+	/** Maximum number of SAML responses waiting to be signed. **/
+	private int signingQueueCapacity = 100;
+
+	/** Time in milliseconds a SAML response may wait to be signed before the request fails. **/
+	private int signingQueueTimeoutInMs = 2000;
+
+	/** Sign the metadata served on /metadata with the SAML key. **/
+	private boolean signMetadata = false;
+
 	/**
 	 * @return The issuerName for this SAML Identity Provider. When unset/null will use host.
 	 */
@@ -77,6 +143,69 @@ public class Configuration {
 		if (this.getDefaultCondiscon() == null) {
 			throw new InvalidConfigurationException("No defaultCondiscon is specified");
 		}
+		if ((this.getSamlEcCertificatePath() == null) != (this.getSamlEcPrivateKeyPath() == null)) {
+			throw new InvalidConfigurationException("samlEcCertificatePath and samlEcPrivateKeyPath must be specified together");
+		}
+		if (this.getSelfVerification() == null) {
+			throw new InvalidConfigurationException("No selfVerification is specified");
+		}
+		if (this.getSelfVerificationSampleRate() < 1) {
+			throw new InvalidConfigurationException("selfVerificationSampleRate must be at least 1");
+		}
+		if (this.getSamlRequestMaxCompressedBytes() < 1) {
+			throw new InvalidConfigurationException("samlRequestMaxCompressedBytes must be at least 1");
+		}
+		if (this.getSamlRequestMaxInflatedBytes() < 1) {
+			throw new InvalidConfigurationException("samlRequestMaxInflatedBytes must be at least 1");
+		}
+		if (this.getSigningThreads() < 0) {
+			throw new InvalidConfigurationException("signingThreads must not be negative");
+		}
+		if (this.getSigningQueueCapacity() < 1) {
+			throw new InvalidConfigurationException("signingQueueCapacity must be at least 1");
+		}
+		if (this.getSigningQueueTimeoutInMs() < 1) {
+			throw new InvalidConfigurationException("signingQueueTimeoutInMs must be at least 1");
+		}
+		if (this.getJwtClockSkewInSec() < 0) {
+			throw new InvalidConfigurationException("jwtClockSkewInSec must not be negative");
+		}
+		if (this.getSamlClockSkewInSec() < 0) {
+			throw new InvalidConfigurationException("samlClockSkewInSec must not be negative");
+		}
+		if (this.getSessionRequestCacheTtlInSec() < 0) {
+			throw new InvalidConfigurationException("sessionRequestCacheTtlInSec must not be negative");
+		}
+		for (IrmaPath irmaPath : this.allIrmaPaths()) {
+			if (irmaPath.getTotalTimeoutInMs() < 1) {
+				throw new InvalidConfigurationException("totalTimeoutInMs must be at least 1 for IRMA host " + irmaPath.getIrmaServiceHost());
+			}
+			if (irmaPath.getAuthMethod() == null) {
+				throw new InvalidConfigurationException("No authMethod is specified for IRMA host " + irmaPath.getIrmaServiceHost());
+			}
+			if (irmaPath.getAuthMethod() != RequestorAuthMethod.PUBLICKEY && irmaPath.getAuthKeyPath() == null) {
+				throw new InvalidConfigurationException("No authKeyPath is specified for IRMA host " + irmaPath.getIrmaServiceHost());
+			}
+		}
+		if (this.getAssertParametersKeyId() != null
+				&& (this.getAssertParametersKeyPaths() == null
+						|| !this.getAssertParametersKeyPaths().containsKey(this.getAssertParametersKeyId()))) {
+			throw new InvalidConfigurationException("assertParametersKeyId is not one of the assertParametersKeyPaths");
+		}
+	}
+
+	/**
+	 * @return The default map and all IRMA paths in the irmaMapping.
+	 */
+	public List<IrmaPath> allIrmaPaths() {
+		List<IrmaPath> irmaPaths = new ArrayList<>();
+		if (this.getDefaultMap() != null) {
+			irmaPaths.add(this.getDefaultMap());
+		}
+		if (this.getIrmaMapping() != null) {
+			irmaPaths.addAll(this.getIrmaMapping().values());
+		}
+		return irmaPaths;
 	}
 
 	public String getProtocol() {
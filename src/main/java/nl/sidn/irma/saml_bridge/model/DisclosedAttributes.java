@@ -0,0 +1,186 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import nl.sidn.irma.saml_bridge.exception.MalformedException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The attributes disclosed in an IRMA session result, kept as a flat list of identifiers and values.
+ *
+ * The disclosed claim holds an array of conjunctions, each an array of attributes with an id, rawvalue
+ * and status, see https://irma.app/docs/api-irma-server/#get-session-token-result.
+ * Only conjunctions of which every attribute is PRESENT, or NULL because it was optional and not disclosed,
+ * are kept. Of those the PRESENT attributes are kept.
+ */
+public final class DisclosedAttributes {
+	private static final String PRESENT = "PRESENT";
+
+	private static final String NULL = "NULL";
+
+	/** The identifiers of the kept attributes. */
+	private String[] ids = new String[8];
+
+	/** The raw values of the kept attributes. */
+	private String[] values = new String[8];
+
+	private int size;
+
+	private DisclosedAttributes() {
+	}
+
+	/**
+	 * Read the disclosed claim with a streaming parser, without building a generic tree of maps first.
+	 *
+	 * @param parser A parser positioned at the start of the disclosed array.
+	 * @return The disclosed attributes.
+	 * @throws IOException When the claim is not an array of arrays of attributes.
+	 */
+	public static DisclosedAttributes read(JsonParser parser) throws IOException {
+		expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+
+		DisclosedAttributes result = new DisclosedAttributes();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			expect(parser, token, JsonToken.START_ARRAY);
+
+			int start = result.size;
+			boolean complete = true;
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				expect(parser, token, JsonToken.START_OBJECT);
+
+				String id = null;
+				String rawValue = null;
+				String status = null;
+				while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+					expect(parser, token, JsonToken.FIELD_NAME);
+					String field = parser.currentName();
+					parser.nextToken();
+					switch (field) {
+						case "id":
+							id = text(parser);
+							break;
+						case "rawvalue":
+							rawValue = text(parser);
+							break;
+						case "status":
+							status = text(parser);
+							break;
+						default:
+							// i.e. the translated value, issuance time and revocation status
+							parser.skipChildren();
+					}
+				}
+				complete &= result.add(id, rawValue, status);
+			}
+
+			if (!complete) {
+				result.size = start;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Convert the disclosed claim when it was already deserialized into a tree of lists and maps.
+	 *
+	 * @param claim The disclosed claim.
+	 * @return The disclosed attributes.
+	 * @throws MalformedException When the claim is not a list of lists of attributes.
+	 */
+	public static DisclosedAttributes fromClaim(Object claim) throws MalformedException {
+		if (claim instanceof DisclosedAttributes) {
+			return (DisclosedAttributes) claim;
+		}
+
+		try {
+			DisclosedAttributes result = new DisclosedAttributes();
+			for (Object con : (List<?>) Objects.requireNonNull(claim)) {
+				int start = result.size;
+				boolean complete = true;
+				for (Object attribute : (List<?>) con) {
+					Map<?, ?> fields = (Map<?, ?>) attribute;
+					complete &= result.add(
+							(String) fields.get("id"),
+							(String) fields.get("rawvalue"),
+							(String) fields.get("status"));
+				}
+
+				if (!complete) {
+					result.size = start;
+				}
+			}
+			return result;
+		} catch (ClassCastException | NullPointerException e) {
+			throw new MalformedException();
+		}
+	}
+
+	/**
+	 * @return The kept attributes by their identifier.
+	 * @throws MalformedException When an attribute was disclosed twice with different values.
+	 */
+	public Map<String, String> toAttributes() throws MalformedException {
+		Map<String, String> attributes = new TreeMap<>();
+		for (int i = 0; i < this.size; i++) {
+			if (attributes.containsKey(this.ids[i]) && !Objects.equals(attributes.get(this.ids[i]), this.values[i])) {
+				// The same attribute type is disclosed in multiple conjunctions, we can not tell which one was meant
+				throw new MalformedException();
+			}
+			attributes.put(this.ids[i], this.values[i]);
+		}
+		return attributes;
+	}
+
+	/**
+	 * @return The number of kept attributes.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Add an attribute of the current conjunction.
+	 *
+	 * @return Whether the conjunction can still be complete.
+	 */
+	private boolean add(String id, String rawValue, String status) {
+		if (NULL.equals(status)) {
+			return true;
+		}
+		if (!PRESENT.equals(status) || id == null) {
+			return false;
+		}
+
+		if (this.size == this.ids.length) {
+			this.ids = Arrays.copyOf(this.ids, this.size * 2);
+			this.values = Arrays.copyOf(this.values, this.size * 2);
+		}
+		this.ids[this.size] = id;
+		this.values[this.size] = rawValue;
+		this.size++;
+		return true;
+	}
+
+	private static String text(JsonParser parser) throws IOException {
+		JsonToken token = parser.currentToken();
+		if (token == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		expect(parser, token, JsonToken.VALUE_STRING);
+		return parser.getText();
+	}
+
+	private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+		if (actual != expected) {
+			throw new JsonParseException(parser, "Expected " + expected + " in disclosed attributes but found " + actual);
+		}
+	}
+}
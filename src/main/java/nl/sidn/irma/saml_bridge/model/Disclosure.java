@@ -5,9 +5,8 @@ import io.jsonwebtoken.Jws;
 import lombok.Data;
 import nl.sidn.irma.saml_bridge.exception.MalformedException;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 /**
@@ -34,42 +33,11 @@ public class Disclosure {
 	 * @throws MalformedException
 	 */
 	public static Disclosure fromJwt(Jws<Claims> jwt) throws MalformedException {
-		ArrayList<ArrayList<Map<String, Object>>> disclosed;
-
-		try {
-			// First allocate a temporary value, due to analysis bug in Eclipse
-			@SuppressWarnings("unchecked")
-			ArrayList<ArrayList<Map<String, Object>>> tmp = (ArrayList<ArrayList<Map<String, Object>>>) jwt.getPayload().get("disclosed");
-			disclosed = tmp;
-
-		} catch (ClassCastException e) {
-			throw new MalformedException();
-		}
-
-		Map<String, String> attributes = new TreeMap<>();
-		for (List<Map<String, Object>> con : disclosed) {
-			boolean allPresent = true;
-			Map<String, String> ourAttributes = new TreeMap<>();
-
-			for (Map<String, Object> attribute : con) {
-				String status = (String) attribute.get("status");
-				// TODO: Optional attributes (with status NULL) cannot be handled.
-				if (!status.equals("PRESENT")) {
-					allPresent = false;
-					break;
-				}
-				ourAttributes.put((String) attribute.get("id"), (String) attribute.get("rawvalue"));
-			}
-
-			if (allPresent) {
-				// TODO: Handle case when multiple conjunctions contain the same attribute type.
-				attributes.putAll(ourAttributes);
-			}
-		}
+		DisclosedAttributes disclosed = DisclosedAttributes.fromClaim(jwt.getPayload().get("disclosed"));
 
 		Disclosure result = new Disclosure();
-		result.attributes = attributes;
-		result.proofStatus= (String) jwt.getPayload().get("proofStatus");
+		result.attributes = disclosed.toAttributes();
+		result.proofStatus = (String) jwt.getPayload().get("proofStatus");
 		result.token = (String) jwt.getPayload().get("token");
 
 		return result;
@@ -80,40 +48,28 @@ public class Disclosure {
 	 * @param condiscon
 	 * @return Compliance or failure.
 	 */
-	public boolean fulfillsCondiscon(String[][][] condiscon) {
-		for (String[][] discon : condiscon) {
-			if (!this.fulfillsDiscon(discon)) {
-				return false;
-			}
-		}
-		return true;
+	public boolean fulfillsCondiscon(Condiscon condiscon) {
+		return condiscon.getMatcher().matches(this.attributes.keySet());
 	}
 
 	/**
-	 * Checks whether our attributes fulfill the specified discon.
-	 * @param discon
-	 * @return Compliance or failure.
+	 * Restrict our attributes to those of the cons in the specified condiscon that they fulfill.
+	 * @param condiscon
+	 * @return A disclosure with only the requested attributes, or null when the condiscon is not fulfilled.
 	 */
-	public boolean fulfillsDiscon(String[][] discon) {
-		for (String[] con : discon) {
-			if (this.fulfillsCon(con)) {
-				return true;
-			}
+	public Disclosure requestedBy(Condiscon condiscon) {
+		Set<String> requested = condiscon.getMatcher().requestedAttributes(this.attributes.keySet());
+		if (requested == null) {
+			return null;
 		}
-		return false;
-	}
 
-	/**
-	 * Checks whether our attributes fulfill the specified con.
-	 * @param con
-	 * @return Compliance or failure.
-	 */
-	public boolean fulfillsCon(String[] con) {
-		for (String id : con) {
-			if (!this.attributes.keySet().contains(id)) {
-				return false;
-			}
-		}
-		return true;
+		Map<String, String> attributes = new TreeMap<>(this.attributes);
+		attributes.keySet().retainAll(requested);
+
+		Disclosure result = new Disclosure();
+		result.attributes = attributes;
+		result.proofStatus = this.proofStatus;
+		result.token = this.token;
+		return result;
 	}
 }
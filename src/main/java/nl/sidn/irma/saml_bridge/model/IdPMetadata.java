@@ -0,0 +1,22 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * The serialized SAML metadata of our Identity Provider, as served on /metadata.
+ */
+@Value
+@Builder
+public class IdPMetadata {
+	/** The UTF-8 encoded XML document, possibly signed. */
+	byte[] document;
+
+	/** Strong entity tag of the document, including its quotes. */
+	String etag;
+
+	/** How long the metadata may be cached, from its cacheDuration. */
+	Duration cacheDuration;
+}
@@ -15,4 +15,31 @@ public class IrmaPath {
 
 	/** The path after the hostname for the IRMA go server i.e. /v1 or similar **/
 	private String postfix;
+
+	/** Timeout in milliseconds for connecting to the IRMA go server when starting a session **/
+	private int connectTimeoutInMs = 2000;
+
+	/** Timeout in milliseconds of inactivity while waiting for the IRMA go server to respond **/
+	private int readTimeoutInMs = 5000;
+
+	/** Timeout in milliseconds for starting a session as a whole, after which the call is cancelled **/
+	private int totalTimeoutInMs = 10000;
+
+	/** Maximum number of pooled connections to the irmaServiceHost **/
+	private int maxConnections = 20;
+
+	/** Time in seconds after which a pooled connection to the irmaServiceHost is closed instead of reused **/
+	private int connectionTtlInSec = 300;
+
+	/** Time in milliseconds a pooled connection may be idle before it is checked to be still open before reuse **/
+	private int validateAfterInactivityInMs = 2000;
+
+	/** Number of connections opened to the irmaServiceHost at startup, so the first sessions skip the TLS handshake **/
+	private int prewarmConnections = 1;
+
+	/** How we authenticate to the IRMA go server as requestor, its auth_method for us **/
+	private RequestorAuthMethod authMethod = RequestorAuthMethod.PUBLICKEY;
+
+	/** Path of the HMAC key or the token for the HMAC and TOKEN authMethod, unused for PUBLICKEY **/
+	private String authKeyPath;
 }
@@ -14,8 +14,11 @@ import lombok.RequiredArgsConstructor;
 @AllArgsConstructor
 @RequiredArgsConstructor
 public class RedirectInstruction {
-	/** The SAML response as a base64 inflated string. */
-	private String samlResponse;
+	/**
+	 * The signed SAML response as UTF-8 encoded XML. Like any byte array it is written to JSON as a
+	 * base64 string, which is encoded while the JSON is written.
+	 */
+	private byte[] samlResponse;
 
 	/** The service URL to redirect the end user to whilst delivering the samlResponse and relayState. */
 	private String serviceUrl;
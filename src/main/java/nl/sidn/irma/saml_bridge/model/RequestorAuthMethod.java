@@ -0,0 +1,14 @@
+package nl.sidn.irma.saml_bridge.model;
+
+/**
+ * How we authenticate as requestor to an IRMA server when starting a session, the auth_method of the
+ * requestor in the configuration of that IRMA server.
+ */
+public enum RequestorAuthMethod {
+	/** The session request is a JWT signed with our JWT private key. */
+	PUBLICKEY,
+	/** The session request is a JWT signed with HS256, using the shared key in authKeyPath. */
+	HMAC,
+	/** The session request is plain JSON, and the token in authKeyPath is sent in the Authorization header. */
+	TOKEN,
+}
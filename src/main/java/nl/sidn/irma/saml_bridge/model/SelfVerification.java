@@ -0,0 +1,18 @@
+package nl.sidn.irma.saml_bridge.model;
+
+/**
+ * How the SAML responses we sign are verified again before they are handed out.
+ */
+public enum SelfVerification {
+	/** Every response is parsed again from its XML and its signature is verified. */
+	ALWAYS,
+	/** One in every selfVerificationSampleRate responses is verified as with ALWAYS, the others are not verified. */
+	SAMPLED,
+	/**
+	 * The signature is verified on the signed object tree, without serializing and parsing it again.
+	 * Responses written from a template have no object tree, and are verified as with ALWAYS.
+	 */
+	IN_MEMORY,
+	/** Responses are not verified. */
+	OFF,
+}
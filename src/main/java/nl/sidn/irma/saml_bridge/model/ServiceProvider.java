@@ -0,0 +1,31 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import lombok.Builder;
+import lombok.Value;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.security.credential.Credential;
+
+import java.util.List;
+
+/**
+ * A SAML Service Provider as listed in one of the metadata files, indexed at load time so that
+ * requests can be verified and answered with a single lookup on its entityID.
+ */
+@Value
+@Builder
+public class ServiceProvider {
+	/** The entityID of the Service Provider, matched against the Issuer of its requests. */
+	String entityId;
+
+	/** Credentials holding the public keys the Service Provider signs its requests with. */
+	List<Credential> signingCredentials;
+
+	/** The SAML 2.0 SP role descriptor from the metadata. */
+	SPSSODescriptor spssoDescriptor;
+
+	/** Location of the first AssertionConsumerService with the HTTP-Redirect binding, may be null. */
+	String redirectAssertionConsumerServiceUrl;
+
+	/** Signature algorithms from the alg:SigningMethod extensions in the metadata, in order of preference. */
+	List<String> signingMethods;
+}
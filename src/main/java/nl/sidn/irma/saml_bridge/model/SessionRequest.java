@@ -0,0 +1,20 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A session request as it is posted to an IRMA server to start a session.
+ */
+@Value
+@Builder
+public class SessionRequest {
+	/** How the body and authorization were made. */
+	RequestorAuthMethod authMethod;
+
+	/** A compact JWT, or the JSON of the session request with TOKEN authentication. */
+	String body;
+
+	/** The value of the Authorization header, NULL unless TOKEN authentication is used. */
+	String authorization;
+}
@@ -0,0 +1,25 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import lombok.Builder;
+import lombok.Value;
+import org.opensaml.security.x509.BasicX509Credential;
+
+/**
+ * A key the bridge signs SAML responses with, together with its certificate and the
+ * signature algorithm that follows from the type of the key.
+ */
+@Value
+@Builder
+public class SigningKey {
+	/** Credential of the certificate and private key, built once for every signature. */
+	BasicX509Credential credential;
+
+	/** Base64 encoded DER form of the certificate, as included in KeyInfo elements. */
+	String certificateBase64;
+
+	/** URI of the XML signature algorithm, as in the SignatureMethod of the signature. */
+	String signatureAlgorithm;
+
+	/** Name of the same algorithm in the Java security API, producing signature values as XML signatures contain them. */
+	String jcaAlgorithm;
+}
@@ -0,0 +1,80 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import nl.sidn.irma.saml_bridge.model.Condiscon;
+import org.springframework.stereotype.Service;
+
+/**
+ * Parses condiscons sent by service providers, and those passed back in the assert parameters.
+ *
+ * Service providers send a small set of recurring condiscons, so the parsed condiscons are cached
+ * by their raw JSON, and interned such that every distinct condiscon is only kept once.
+ */
+@Service
+public class CondisconService {
+	/** Raw condiscons longer than this are not cached, so a few large requests can not take up much memory. */
+	private static final int MAX_CACHED_LENGTH = 4096;
+
+	private final ConfigurationService configurationService;
+
+	private final Cache<String, Condiscon> cache;
+
+	private final Interner<Condiscon> interner = Interners.newWeakInterner();
+
+	private volatile Condiscon defaultCondiscon;
+
+	public CondisconService(
+			ConfigurationService configurationService
+	) {
+		this.configurationService = configurationService;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(configurationService.getConfiguration().getCondisconCacheMaxEntries())
+				.build();
+	}
+
+	/**
+	 * Parse a condiscon from its JSON form.
+	 *
+	 * @param json A JSON array of arrays of arrays of attribute identifiers.
+	 * @return The canonical condiscon.
+	 * @throws JsonProcessingException When the JSON is not a valid condiscon.
+	 */
+	public Condiscon parse(String json) throws JsonProcessingException {
+		Condiscon condiscon = this.cache.getIfPresent(json);
+		if (condiscon == null) {
+			condiscon = this.interner.intern(Condiscon.parse(json));
+			if (json.length() <= MAX_CACHED_LENGTH) {
+				this.cache.put(json, condiscon);
+			}
+		}
+		return condiscon;
+	}
+
+	/**
+	 * Construct a condiscon from an array of discons.
+	 *
+	 * @param condiscon The array of discons.
+	 * @return The canonical condiscon.
+	 * @throws JsonProcessingException When the array contains nulls.
+	 */
+	public Condiscon of(String[][][] condiscon) throws JsonProcessingException {
+		return this.interner.intern(Condiscon.of(condiscon));
+	}
+
+	/**
+	 * @return The condiscon to use when the service provider does not request one.
+	 * @throws JsonProcessingException When the configured condiscon contains nulls.
+	 */
+	public Condiscon getDefaultCondiscon() throws JsonProcessingException {
+		Condiscon result = this.defaultCondiscon;
+		if (result == null) {
+			result = of(this.configurationService.getConfiguration().getDefaultCondiscon());
+			this.defaultCondiscon = result;
+		}
+		return result;
+	}
+}
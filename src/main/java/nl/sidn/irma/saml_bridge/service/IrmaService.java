@@ -2,10 +2,36 @@ package nl.sidn.irma.saml_bridge.service;
 
 import lombok.extern.slf4j.Slf4j;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
-import org.springframework.http.*;
+import nl.sidn.irma.saml_bridge.exception.InvalidConfigurationException;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.model.RequestorAuthMethod;
+import nl.sidn.irma.saml_bridge.model.SessionRequest;
+import nl.sidn.irma.saml_bridge.util.IrmaRoutes;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
@@ -13,39 +39,163 @@ public class IrmaService {
 
     private static final String LOG_MESSAGE = "action=\"request-flow\", warning=\"Error with http status {} - during IRMA start session: {}\"";
 
-    private final RestTemplate restTemplate;
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final ConfigurationService configurationService;
 
+    /**
+     * @param asyncRequestTimeout The timeout of asynchronous requests, every totalTimeoutInMs must be shorter so
+     *                            the user gets our gateway timeout instead of a generic error.
+     * @throws InvalidConfigurationException Thrown when a totalTimeoutInMs is not shorter than asyncRequestTimeout.
+     */
     public IrmaService(
-            RestTemplate restTemplate
-    ) {
-        this.restTemplate = restTemplate;
+            CloseableHttpAsyncClient httpClient,
+            ConfigurationService configurationService,
+            @Value("${spring.mvc.async.request-timeout:30s}") Duration asyncRequestTimeout
+    ) throws InvalidConfigurationException {
+        this.httpClient = httpClient;
+        this.configurationService = configurationService;
+
+        for (IrmaPath irmaPath : configurationService.getConfiguration().allIrmaPaths()) {
+            if (irmaPath.getTotalTimeoutInMs() >= asyncRequestTimeout.toMillis()) {
+                throw new InvalidConfigurationException("totalTimeoutInMs of IRMA host " + irmaPath.getIrmaServiceHost()
+                        + " must be shorter than spring.mvc.async.request-timeout of " + asyncRequestTimeout.toMillis() + "ms");
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() throws URISyntaxException {
+        prewarmConnections();
     }
 
-    public String startSession(String token, String host) throws BridgeException {
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(
-                    host + "/session",
-                    HttpMethod.POST,
-                    new HttpEntity<>(token, getRequestHeader()),
-                    String.class);
-            if (response.getStatusCode().is2xxSuccessful()) {
-                return response.getBody();
+    /**
+     * Open the configured number of connections to every IRMA server, so the first sessions
+     * after startup do not pay for the TCP and TLS handshakes. The connections are returned
+     * to the pool after a HEAD request, whatever its response.
+     *
+     * @return A future that completes when all connections were attempted.
+     * @throws URISyntaxException
+     */
+    public CompletableFuture<Void> prewarmConnections() throws URISyntaxException {
+        List<CompletableFuture<Void>> attempts = new ArrayList<>();
+        IrmaRoutes.of(configurationService.getConfiguration()).forEach((route, irmaPath) -> {
+            String url = route.getTargetHost().toURI() + "/";
+            for (int i = 0; i < Math.min(irmaPath.getPrewarmConnections(), irmaPath.getMaxConnections()); i++) {
+                CompletableFuture<Void> attempt = new CompletableFuture<>();
+                httpClient.execute(SimpleRequestBuilder.head(url).setRequestConfig(getRequestConfig(irmaPath)).build(),
+                        new FutureCallback<>() {
+                            @Override
+                            public void completed(SimpleHttpResponse response) {
+                                attempt.complete(null);
+                            }
+
+                            @Override
+                            public void failed(Exception e) {
+                                log.warn("action=\"prewarm\", warning=\"Could not open connection to IRMA server\", host=\"{}\", error=\"{}\"", url, e.getMessage());
+                                attempt.complete(null);
+                            }
+
+                            @Override
+                            public void cancelled() {
+                                attempt.complete(null);
+                            }
+                        });
+                attempts.add(attempt);
             }
+        });
+        return CompletableFuture.allOf(attempts.toArray(new CompletableFuture[0]));
+    }
 
-        } catch (HttpClientErrorException e) {
-            log.error(LOG_MESSAGE, e.getStatusCode().value(), e.getMessage());
-            throw new BridgeException(e.getStatusCode(), e.getMessage());
-        } catch (Exception e) {
-            log.error(LOG_MESSAGE, HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+    /**
+     * Start an IRMA session without blocking the calling thread.
+     *
+     * The returned future completes with the session data, or exceptionally with a {@link BridgeException}.
+     * The connect and read timeouts of the IRMA path apply to the HTTP exchange, and when the whole exchange
+     * takes longer than its total timeout it is cancelled and the future fails with a gateway timeout.
+     *
+     * @param sessionRequest The session request, a JWT or JSON with its authorization.
+     * @param host The base URL of the IRMA server.
+     * @param irmaPath The IRMA path the timeouts are taken from.
+     * @return The session data of the started session.
+     */
+    public CompletableFuture<String> startSession(SessionRequest sessionRequest, String host, IrmaPath irmaPath) {
+        SimpleRequestBuilder requestBuilder = SimpleRequestBuilder.post(host + "/session")
+                .setRequestConfig(getRequestConfig(irmaPath));
+        if (sessionRequest.getAuthMethod() == RequestorAuthMethod.TOKEN) {
+            requestBuilder.setBody(sessionRequest.getBody(), ContentType.APPLICATION_JSON)
+                    .setHeader(HttpHeaders.AUTHORIZATION, sessionRequest.getAuthorization());
+        } else {
+            requestBuilder.setBody(sessionRequest.getBody(), ContentType.TEXT_PLAIN);
+        }
+        SimpleHttpRequest httpRequest = requestBuilder.build();
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<SimpleHttpResponse> exchange = httpClient.execute(httpRequest, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                try {
+                    result.complete(handleResponse(response));
+                } catch (BridgeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (e instanceof InterruptedIOException) {
+                    log.error(LOG_MESSAGE, HttpStatus.GATEWAY_TIMEOUT, e.getMessage());
+                    result.completeExceptionally(new BridgeException(HttpStatus.GATEWAY_TIMEOUT, "The IRMA server did not respond in time"));
+                } else {
+                    log.error(LOG_MESSAGE, HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+                    result.completeExceptionally(new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Something went wrong when trying to connect with the IRMA server"));
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                result.completeExceptionally(new BridgeException(HttpStatus.GATEWAY_TIMEOUT, "The IRMA server did not respond in time"));
+            }
+        });
+
+        // The timeout is unscheduled as soon as the exchange completes.
+        return result.orTimeout(irmaPath.getTotalTimeoutInMs(), TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(e -> {
+                    if (e instanceof TimeoutException) {
+                        log.error(LOG_MESSAGE, HttpStatus.GATEWAY_TIMEOUT, "Total timeout of " + irmaPath.getTotalTimeoutInMs() + "ms exceeded");
+                        exchange.cancel(true);
+                        return CompletableFuture.failedFuture(new BridgeException(HttpStatus.GATEWAY_TIMEOUT, "The IRMA server did not respond in time"));
+                    }
+                    return CompletableFuture.failedFuture(e);
+                });
+    }
+
+    String handleResponse(SimpleHttpResponse response) throws BridgeException {
+        int code = response.getCode();
+        if (code >= 200 && code < 300) {
+            return response.getBodyText();
+        }
+
+        String status = response.getReasonPhrase() == null ? String.valueOf(code) : code + " " + response.getReasonPhrase();
+        if (code >= 400 && code < 500) {
+            String message = status + ": "
+                    + (response.getBodyText() == null ? "[no body]" : "\"" + response.getBodyText() + "\"");
+            log.error(LOG_MESSAGE, code, message);
+            throw new BridgeException(HttpStatusCode.valueOf(code), message);
+        }
+
+        if (code >= 500) {
+            log.error(LOG_MESSAGE, HttpStatus.INTERNAL_SERVER_ERROR, status);
             throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Something went wrong when trying to connect with the IRMA server");
         }
+
         log.error(LOG_MESSAGE, HttpStatus.INTERNAL_SERVER_ERROR, "Start session was not successful");
         throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Start session was not successful");
     }
 
-    HttpHeaders getRequestHeader() {
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE);
-        return headers;
+    RequestConfig getRequestConfig(IrmaPath irmaPath) {
+        return RequestConfig.custom()
+                .setResponseTimeout(Timeout.ofMilliseconds(irmaPath.getReadTimeoutInMs()))
+                .build();
     }
 }
@@ -2,19 +2,38 @@ package nl.sidn.irma.saml_bridge.service;
 
 import lombok.Getter;
 import nl.sidn.irma.saml_bridge.model.Configuration;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.model.RequestorAuthMethod;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
 import nl.sidn.irma.saml_bridge.util.KeyReader;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.InvalidParameterSpecException;
 import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A service that reads all certificates and keys from disk and keeps them in memory.
@@ -24,6 +43,12 @@ import java.security.spec.RSAPublicKeySpec;
 @Getter
 @Service
 public class KeyService {
+	/** OID of the P-256 curve, secp256r1 */
+	private static final String P256_OID = "1.2.840.10045.3.1.7";
+
+	/** OID of the P-384 curve, secp384r1 */
+	private static final String P384_OID = "1.3.132.0.34";
+
 	/** Private key which we use to sign JWT messages */
 	private RSAPrivateKey jwtPrivateKey;
 
@@ -43,8 +68,32 @@ public class KeyService {
 	/** Certificate used to sign SAML responses and assertions */
 	private X509Certificate samlCertificate;
 
-	/** Private key used to sign SAML responses and assertions */
-	private RSAPrivateKey samlPrivateKey;
+	/** RSA private key used to sign SAML responses and assertions */
+	private PrivateKey samlPrivateKey;
+
+	/** Credential of {@link #samlCertificate} and {@link #samlPrivateKey}, built once for every signature */
+	private BasicX509Credential samlCredential;
+
+	/** Base64 encoded DER form of {@link #samlCertificate}, as included in KeyInfo elements */
+	private String samlCertificateBase64;
+
+	/** {@link #samlCredential} with the signature algorithm for its key, used unless a Service Provider prefers another */
+	private SigningKey samlSigningKey;
+
+	/** The additional ECDSA key, for Service Providers that prefer it, might be NULL */
+	private SigningKey samlEcSigningKey;
+
+	/** All keys we sign SAML responses with, in our order of preference */
+	private List<SigningKey> samlSigningKeys;
+
+	/** AES keys that may encrypt assert parameters, by key ID, might be empty */
+	private Map<String, SecretKey> assertParametersKeys;
+
+	/** HMAC keys of the IRMA paths with the HMAC authMethod, by their authKeyPath, might be empty */
+	private Map<String, SecretKey> requestorHmacKeys;
+
+	/** Tokens of the IRMA paths with the TOKEN authMethod, by their authKeyPath, might be empty */
+	private Map<String, String> requestorTokens;
 
 	private final ConfigurationService configurationService;
 
@@ -75,7 +124,48 @@ public class KeyService {
 		this.jwtPublicKey = derivePublicKey(this.jwtPrivateKey);
 		this.irmaPublicKey = keyReader.getPublic(conf.getIrmaPublicKeyPath());
 		this.samlCertificate = keyReader.getCertificate(conf.getSamlCertificatePath());
-		this.samlPrivateKey = keyReader.getPrivate(conf.getSamlPrivateKeyPath());
+		this.samlPrivateKey = keyReader.getSigningPrivate(conf.getSamlPrivateKeyPath());
+		// The key for Service Providers that do not list a signing method, which all accept RSA.
+		if (!(this.samlPrivateKey instanceof RSAPrivateKey)) {
+			throw new InvalidKeySpecException("samlPrivateKeyPath does not contain an RSA private key");
+		}
+		this.samlSigningKey = createSigningKey(this.samlCertificate, this.samlPrivateKey);
+		this.samlCredential = this.samlSigningKey.getCredential();
+		this.samlCertificateBase64 = this.samlSigningKey.getCertificateBase64();
+
+		List<SigningKey> signingKeys = new ArrayList<>();
+		if (conf.getSamlEcPrivateKeyPath() != null) {
+			PrivateKey ecPrivateKey = keyReader.getSigningPrivate(conf.getSamlEcPrivateKeyPath());
+			if (!(ecPrivateKey instanceof ECPrivateKey)) {
+				throw new InvalidKeySpecException("samlEcPrivateKeyPath does not contain an EC private key");
+			}
+			this.samlEcSigningKey = createSigningKey(
+					keyReader.getCertificate(conf.getSamlEcCertificatePath()), ecPrivateKey);
+			// ECDSA signatures are much cheaper to make, so we prefer them.
+			signingKeys.add(this.samlEcSigningKey);
+		}
+		signingKeys.add(this.samlSigningKey);
+		this.samlSigningKeys = List.copyOf(signingKeys);
+
+		Map<String, SecretKey> assertParametersKeys = new HashMap<>();
+		if (conf.getAssertParametersKeyPaths() != null) {
+			for (Map.Entry<String, String> keyPath : conf.getAssertParametersKeyPaths().entrySet()) {
+				assertParametersKeys.put(keyPath.getKey(), keyReader.getSecret(keyPath.getValue()));
+			}
+		}
+		this.assertParametersKeys = Map.copyOf(assertParametersKeys);
+
+		Map<String, SecretKey> requestorHmacKeys = new HashMap<>();
+		Map<String, String> requestorTokens = new HashMap<>();
+		for (IrmaPath irmaPath : conf.allIrmaPaths()) {
+			if (irmaPath.getAuthMethod() == RequestorAuthMethod.HMAC && !requestorHmacKeys.containsKey(irmaPath.getAuthKeyPath())) {
+				requestorHmacKeys.put(irmaPath.getAuthKeyPath(), keyReader.getHmacSecret(irmaPath.getAuthKeyPath()));
+			} else if (irmaPath.getAuthMethod() == RequestorAuthMethod.TOKEN && !requestorTokens.containsKey(irmaPath.getAuthKeyPath())) {
+				requestorTokens.put(irmaPath.getAuthKeyPath(), keyReader.getToken(irmaPath.getAuthKeyPath()));
+			}
+		}
+		this.requestorHmacKeys = Map.copyOf(requestorHmacKeys);
+		this.requestorTokens = Map.copyOf(requestorTokens);
 
 		String irmaPrivateKeyTest = conf.getTestIrmaPrivateKeyPath();
 		if (irmaPrivateKeyTest != null) {
@@ -83,6 +173,133 @@ public class KeyService {
 		}
 	}
 
+	/**
+	 * @param irmaPath An IRMA path with the HMAC authMethod.
+	 * @return The key to sign session requests for the IRMA server of the path with.
+	 */
+	public SecretKey getRequestorHmacKey(IrmaPath irmaPath) {
+		return this.requestorHmacKeys.get(irmaPath.getAuthKeyPath());
+	}
+
+	/**
+	 * @param irmaPath An IRMA path with the TOKEN authMethod.
+	 * @return The token to authorize session requests for the IRMA server of the path with.
+	 */
+	public String getRequestorToken(IrmaPath irmaPath) {
+		return this.requestorTokens.get(irmaPath.getAuthKeyPath());
+	}
+
+	/**
+	 * Choose the key to sign a SAML response with, following the preference of its Service Provider.
+	 *
+	 * @param signingMethods The signature algorithms the Service Provider lists in its metadata,
+	 *                       in its order of preference. May be NULL or empty.
+	 * @return The key for the first listed algorithm we have a key for, or the RSA {@link #samlSigningKey}.
+	 */
+	public SigningKey selectSigningKey(List<String> signingMethods) {
+		if (signingMethods != null) {
+			for (String signingMethod : signingMethods) {
+				for (SigningKey signingKey : this.samlSigningKeys) {
+					if (signingKey.getSignatureAlgorithm().equals(signingMethod)) {
+						return signingKey;
+					}
+				}
+			}
+		}
+
+		return this.samlSigningKey;
+	}
+
+	/**
+	 * @param signatureAlgorithm The algorithm of a signature we made.
+	 * @return The key we make signatures with that algorithm with, or the RSA {@link #samlSigningKey}.
+	 */
+	public SigningKey findSigningKey(String signatureAlgorithm) {
+		return this.selectSigningKey(signatureAlgorithm == null ? null : List.of(signatureAlgorithm));
+	}
+
+	/**
+	 * Combine a certificate and private key with the signature algorithm for the type of the key:
+	 * RSA-SHA256 for RSA keys, and ECDSA with the hash matching the curve for the P-256 and P-384 curves.
+	 *
+	 * @return The signing key.
+	 * @throws InvalidKeySpecException Thrown for other keys, or when the certificate is not of the private key.
+	 * @throws CertificateException
+	 */
+	private static SigningKey createSigningKey(X509Certificate certificate, PrivateKey privateKey)
+			throws InvalidKeySpecException, CertificateException {
+		SigningKey.SigningKeyBuilder builder = SigningKey.builder()
+				.credential(new BasicX509Credential(certificate, privateKey))
+				.certificateBase64(Base64.getEncoder().encodeToString(certificate.getEncoded()));
+
+		String jcaAlgorithm;
+		if (privateKey instanceof RSAPrivateKey) {
+			builder.signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+			jcaAlgorithm = "SHA256withRSA";
+		} else if (privateKey instanceof ECPrivateKey ecPrivateKey) {
+			// XML signatures contain the plain concatenation of r and s, not their DER encoding.
+			String curve = curveOid(ecPrivateKey);
+			if (P256_OID.equals(curve)) {
+				builder.signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256);
+				jcaAlgorithm = "SHA256withECDSAinP1363Format";
+			} else if (P384_OID.equals(curve)) {
+				builder.signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384);
+				jcaAlgorithm = "SHA384withECDSAinP1363Format";
+			} else {
+				throw new InvalidKeySpecException("SAML signing keys must be on the P-256 or P-384 curve");
+			}
+		} else {
+			throw new InvalidKeySpecException("SAML signing keys must be RSA or EC keys");
+		}
+
+		if (!certificate.getPublicKey().getAlgorithm().equals(privateKey.getAlgorithm())) {
+			throw new InvalidKeySpecException("SAML certificate does not match the type of its private key");
+		}
+		checkKeyPair(certificate, privateKey, jcaAlgorithm);
+
+		return builder.jcaAlgorithm(jcaAlgorithm).build();
+	}
+
+	/**
+	 * @return The OID of the named curve of the key, or NULL when it is not on a curve the JDK knows.
+	 */
+	private static String curveOid(ECPrivateKey privateKey) {
+		try {
+			AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+			parameters.init(privateKey.getParams());
+			return parameters.getParameterSpec(ECGenParameterSpec.class).getName();
+		} catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sign a test value with the private key and verify it with the public key of the certificate, so we
+	 * never publish a certificate in our metadata that our signatures can not be verified with.
+	 *
+	 * @throws InvalidKeySpecException Thrown when the certificate is not of the private key.
+	 */
+	private static void checkKeyPair(X509Certificate certificate, PrivateKey privateKey, String jcaAlgorithm)
+			throws InvalidKeySpecException {
+		byte[] testValue = "irma-saml-bridge key pair check".getBytes(StandardCharsets.UTF_8);
+		try {
+			Signature signer = Signature.getInstance(jcaAlgorithm);
+			signer.initSign(privateKey);
+			signer.update(testValue);
+			byte[] signature = signer.sign();
+
+			Signature verifier = Signature.getInstance(jcaAlgorithm);
+			verifier.initVerify(certificate.getPublicKey());
+			verifier.update(testValue);
+			if (verifier.verify(signature)) {
+				return;
+			}
+		} catch (GeneralSecurityException e) {
+			throw new InvalidKeySpecException("SAML certificate could not be checked against its private key", e);
+		}
+		throw new InvalidKeySpecException("SAML certificate does not belong to its private key");
+	}
+
 	/**
 	 * Derive the RSA public key matching an RSA private key. The private keys read from disk are
 	 * PKCS#8 RSA keys, which are {@link RSAPrivateCrtKey}s carrying the public exponent, so the
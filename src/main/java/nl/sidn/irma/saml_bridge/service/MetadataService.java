@@ -0,0 +1,89 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.sidn.irma.saml_bridge.model.IdPMetadata;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.springframework.stereotype.Service;
+
+import javax.xml.transform.TransformerException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * A service that serializes the SAML metadata of our Identity Provider once, on first use, and serves
+ * the same document from then on.
+ *
+ * Metadata is polled continuously by Service Providers and federation aggregators, while the configuration
+ * and keys it is made of are only loaded at startup. With signMetadata the document is signed once, when
+ * it is serialized.
+ */
+@Slf4j
+@Service
+public class MetadataService {
+	private final ConfigurationService configurationService;
+
+	private final OpenSamlService openSamlService;
+
+	/** The serialized metadata, or NULL until it is first requested. **/
+	private volatile IdPMetadata metadata;
+
+	public MetadataService(
+			ConfigurationService configurationService,
+			OpenSamlService openSamlService) {
+		this.configurationService = configurationService;
+		this.openSamlService = openSamlService;
+	}
+
+	/**
+	 * @return The serialized metadata of our Identity Provider.
+	 * @throws MarshallingException
+	 * @throws TransformerException
+	 * @throws SignatureException Thrown when the metadata should be signed, but could not be.
+	 */
+	public IdPMetadata getMetadata() throws MarshallingException, TransformerException, SignatureException {
+		IdPMetadata metadata = this.metadata;
+		if (metadata != null) {
+			return metadata;
+		}
+
+		synchronized (this) {
+			if (this.metadata == null) {
+				boolean signed = this.configurationService.getConfiguration().isSignMetadata();
+				this.metadata = this.createMetadata(signed);
+				log.info("action=\"metadata.create\", Serialized metadata with etag=\"{}\", signed=\"{}\"",
+						this.metadata.getEtag(), signed);
+			}
+			return this.metadata;
+		}
+	}
+
+	private IdPMetadata createMetadata(boolean signed)
+			throws MarshallingException, TransformerException, SignatureException {
+		EntityDescriptor entityDescriptor = this.openSamlService.createIdPMetadata();
+
+		byte[] document = signed
+				? this.openSamlService.marshallSignedMetadata(entityDescriptor)
+				: this.openSamlService.marshallMetadata(entityDescriptor);
+
+		return IdPMetadata.builder()
+				.document(document)
+				.etag(etag(document))
+				.cacheDuration(entityDescriptor.getCacheDuration())
+				.build();
+	}
+
+	/**
+	 * @return A strong entity tag, derived from the SHA-256 digest of the document.
+	 */
+	private static String etag(byte[] document) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(document);
+			return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
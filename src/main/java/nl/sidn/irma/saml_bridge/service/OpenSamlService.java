@@ -1,6 +1,5 @@
 package nl.sidn.irma.saml_bridge.service;
 
-import com.google.common.io.BaseEncoding;
 import net.shibboleth.shared.xml.ParserPool;
 import net.shibboleth.shared.xml.XMLParserException;
 import nl.sidn.irma.saml_bridge.model.AssertParameters;
@@ -8,35 +7,31 @@ import nl.sidn.irma.saml_bridge.model.Configuration;
 import nl.sidn.irma.saml_bridge.model.Disclosure;
 import nl.sidn.irma.saml_bridge.model.RequestError;
 import nl.sidn.irma.saml_bridge.model.ResultStatus;
-import org.opensaml.core.config.InitializationException;
-import org.opensaml.core.config.InitializationService;
-import org.opensaml.core.xml.XMLObjectBuilder;
-import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
+import nl.sidn.irma.saml_bridge.util.XmlSerializer;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.MarshallerFactory;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.core.xml.schema.XSString;
 import org.opensaml.core.xml.util.XMLObjectSupport;
-import org.opensaml.saml.common.SAMLObjectBuilder;
 import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.ext.saml2alg.DigestMethod;
+import org.opensaml.saml.ext.saml2alg.SigningMethod;
 import org.opensaml.saml.saml2.core.*;
 import org.opensaml.saml.saml2.core.impl.*;
 import org.opensaml.saml.saml2.metadata.*;
+import org.opensaml.saml.saml2.metadata.Extensions;
 import org.opensaml.saml.saml2.metadata.impl.*;
 import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
-import org.opensaml.security.SecurityException;
 import org.opensaml.security.credential.Credential;
 import org.opensaml.security.credential.UsageType;
-import org.opensaml.security.x509.BasicX509Credential;
 import org.opensaml.xmlsec.signature.KeyInfo;
 import org.opensaml.xmlsec.signature.Signature;
 import org.opensaml.xmlsec.signature.X509Certificate;
 import org.opensaml.xmlsec.signature.X509Data;
-import org.opensaml.xmlsec.signature.impl.KeyInfoImpl;
-import org.opensaml.xmlsec.signature.impl.SignatureImpl;
-import org.opensaml.xmlsec.signature.impl.X509CertificateImpl;
-import org.opensaml.xmlsec.signature.impl.X509DataImpl;
 import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureValidator;
@@ -44,24 +39,16 @@ import org.opensaml.xmlsec.signature.support.Signer;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Element;
 
-import javax.xml.XMLConstants;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.security.cert.CertificateEncodingException;
+import java.io.ByteArrayInputStream;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
-import java.util.Base64;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Random;
 
 /**
  * Service that initializes the OpenSAML library and provides the base
@@ -79,85 +66,72 @@ public class OpenSamlService {
 
 	private final ParserPool parserPool;
 
+	private final SamlObjectBuilders builders;
+
+	private final XmlSerializer xmlSerializer;
+
+	private final IdGenerator idGenerator;
+
+	private Clock clock = Clock.systemDefaultZone();
+
 	public OpenSamlService(
 			ConfigurationService configurationService,
 			KeyService keyService,
-			ParserPool parserPool) throws InitializationException {
+			ParserPool parserPool,
+			SamlObjectBuilders builders,
+			XmlSerializer xmlSerializer,
+			IdGenerator idGenerator) {
 		this.configurationService = configurationService;
 		this.keyService = keyService;
 		this.parserPool = parserPool;
 
-		initialize();
+		// OpenSAML is initialized by the builder registry, before it resolves its builders.
+		this.builders = builders;
+		this.xmlSerializer = xmlSerializer;
+		this.idGenerator = idGenerator;
 	}
 
-	/**
-	 * Attempt to initialize OpenSAML.
-	 * It is unclear when this should fail.
-	 * Perhaps when the POM is misconfigured and we failed to properly build.
-	 * 
-	 * @throws InitializationException
-	 */
-	private void initialize() throws InitializationException {
-		InitializationService.initialize();
+	void setClock(Clock clock) {
+		this.clock = clock;
 	}
 
 	/**
-	 * Construct a KeyInfo XML object for our SAML certificate.
+	 * Construct a KeyInfo XML object for one of our SAML certificates.
+	 * The certificate is encoded only once by the {@link KeyService}, so this merely
+	 * assembles three elements.
 	 * 
+	 * @param certificateBase64 The base64 encoded DER form of the certificate.
 	 * @return
-	 * @throws CertificateEncodingException
 	 */
-	private KeyInfo createKeyInfoForCertificate() throws CertificateEncodingException {
-		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-
-		@SuppressWarnings("unchecked")
-		XMLObjectBuilder<KeyInfoImpl> keyInfoBuilder = (XMLObjectBuilder<KeyInfoImpl>) factory
-				.getBuilder(KeyInfo.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		XMLObjectBuilder<X509DataImpl> x509Builder = (XMLObjectBuilder<X509DataImpl>) factory
-				.getBuilder(X509Data.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		XMLObjectBuilder<X509CertificateImpl> certBuilder = (XMLObjectBuilder<X509CertificateImpl>) factory
-				.getBuilder(X509Certificate.DEFAULT_ELEMENT_NAME);
-
-		String value = new String(Base64.getEncoder().encode(this.keyService.getSamlCertificate().getEncoded()));
-		assert certBuilder != null;
-		X509Certificate cert = certBuilder.buildObject(X509Certificate.DEFAULT_ELEMENT_NAME);
-		cert.setValue(value);
-
-		X509DataImpl x509 = x509Builder.buildObject(X509Data.DEFAULT_ELEMENT_NAME);
+	private KeyInfo createKeyInfoForCertificate(String certificateBase64) {
+		X509Certificate cert = this.builders.getX509CertificateBuilder()
+				.buildObject(X509Certificate.DEFAULT_ELEMENT_NAME);
+		cert.setValue(certificateBase64);
+
+		X509Data x509 = this.builders.getX509DataBuilder().buildObject(X509Data.DEFAULT_ELEMENT_NAME);
 		x509.getX509Certificates().add(cert);
 
-		KeyInfo keyInfo = keyInfoBuilder.buildObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+		KeyInfo keyInfo = this.builders.getKeyInfoBuilder().buildObject(KeyInfo.DEFAULT_ELEMENT_NAME);
 		keyInfo.getX509Datas().add(x509);
 
 		return keyInfo;
 	}
 
 	/**
-	 * Construct a generic signature preloaded with our SAML private key and
-	 * certificate.
-	 * Will use SHA256 to construct the signature.
+	 * Construct a generic signature preloaded with one of our SAML private keys and
+	 * its certificate.
+	 * Will use the signature algorithm of the key, with SHA256 or SHA384.
 	 * 
+	 * @param signingKey The key to sign with.
 	 * @return
-	 * @throws CertificateEncodingException
 	 */
-	private Signature createSignature() throws CertificateEncodingException {
-		Credential credential = new BasicX509Credential(
-				this.keyService.getSamlCertificate(),
-				this.keyService.getSamlPrivateKey());
-
-		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+	private Signature createSignature(SigningKey signingKey) {
+		Signature signature = this.builders.getSignatureBuilder().buildObject(Signature.DEFAULT_ELEMENT_NAME);
 
-		@SuppressWarnings("unchecked")
-		XMLObjectBuilder<SignatureImpl> builder = (XMLObjectBuilder<SignatureImpl>) factory
-				.getBuilder(Signature.DEFAULT_ELEMENT_NAME);
-		Signature signature = builder.buildObject(Signature.DEFAULT_ELEMENT_NAME);
-
-		signature.setSigningCredential(credential);
-		signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+		signature.setSigningCredential(signingKey.getCredential());
+		signature.setSignatureAlgorithm(signingKey.getSignatureAlgorithm());
 		signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
-		signature.setKeyInfo(this.createKeyInfoForCertificate());
+		signature.setKeyInfo(this.createKeyInfoForCertificate(signingKey.getCertificateBase64()));
 
 		return signature;
 	}
@@ -166,13 +140,7 @@ public class OpenSamlService {
 	 * Construct a typical Issuer XML object for our Identity Provider string.
 	 */
 	private Issuer createIssuer() {
-		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<IssuerImpl> issuerBuilder = (SAMLObjectBuilder<IssuerImpl>) factory
-				.getBuilder(Issuer.DEFAULT_ELEMENT_NAME);
-
-		IssuerImpl issuer = issuerBuilder.buildObject();
+		Issuer issuer = this.builders.getIssuerBuilder().buildObject();
 		issuer.setValue(this.configurationService.getConfiguration().getIssuerName());
 
 		return issuer;
@@ -191,96 +159,36 @@ public class OpenSamlService {
 	 */
 	public Response createAssertionResponse(AssertParameters assertParameters, Disclosure disclosure,
 			final ResultStatus resultStatus) {
-		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AuthnStatementImpl> authnStatementBuilder = (SAMLObjectBuilder<AuthnStatementImpl>) factory
-				.getBuilder(AuthnStatement.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AttributeStatementImpl> attributeStatementBuilder = (SAMLObjectBuilder<AttributeStatementImpl>) factory
-				.getBuilder(AttributeStatement.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AttributeImpl> attributeBuilder = (SAMLObjectBuilder<AttributeImpl>) factory
-				.getBuilder(Attribute.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		XMLObjectBuilder<XSString> xsStringBuilder = (XMLObjectBuilder<XSString>) factory
-				.getBuilder(XSString.TYPE_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AuthnContextImpl> authnContextBuilder = (SAMLObjectBuilder<AuthnContextImpl>) factory
-				.getBuilder(AuthnContext.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AuthnContextClassRefImpl> authnContextClassRefBuilder = (SAMLObjectBuilder<AuthnContextClassRefImpl>) factory
-				.getBuilder(AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<SubjectImpl> subjectBuilder = (SAMLObjectBuilder<SubjectImpl>) factory
-				.getBuilder(Subject.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<SubjectConfirmationImpl> subjectConfirmationBuilder = (SAMLObjectBuilder<SubjectConfirmationImpl>) factory
-				.getBuilder(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<SubjectConfirmationDataImpl> subjectConfirmationDataBuilder = (SAMLObjectBuilder<SubjectConfirmationDataImpl>) factory
-				.getBuilder(SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AssertionImpl> assertionBuilder = (SAMLObjectBuilder<AssertionImpl>) factory
-				.getBuilder(Assertion.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<StatusImpl> statusBuilder = (SAMLObjectBuilder<StatusImpl>) factory
-				.getBuilder(Status.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<StatusCodeImpl> statusCodeBuilder = (SAMLObjectBuilder<StatusCodeImpl>) factory
-				.getBuilder(StatusCode.DEFAULT_ELEMENT_NAME);
-
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<StatusMessageImpl> statusMessageBuilder = (SAMLObjectBuilder<StatusMessageImpl>) factory
-				.getBuilder(StatusMessage.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<ResponseImpl> responseBuilder = (SAMLObjectBuilder<ResponseImpl>) factory
-				.getBuilder(Response.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<ConditionsImpl> conditionsBuilder = (SAMLObjectBuilder<ConditionsImpl>) factory
-				.getBuilder(Conditions.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AudienceRestrictionImpl> audienceRestrictionBuilder = (SAMLObjectBuilder<AudienceRestrictionImpl>) factory
-				.getBuilder(AudienceRestriction.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AudienceImpl> audienceBuilder = (SAMLObjectBuilder<AudienceImpl>) factory
-				.getBuilder(Audience.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<NameIDImpl> nameIDBuilder = (SAMLObjectBuilder<NameIDImpl>) factory
-				.getBuilder(NameID.DEFAULT_ELEMENT_NAME);
-
-		Instant now = LocalDateTime.now().toInstant(ZoneOffset.UTC);
+		Instant now = LocalDateTime.now(this.clock).toInstant(ZoneOffset.UTC);
 		Instant until = now.plusSeconds(configurationService.getConfiguration().getResponseTtlInSec());
 
-		AuthnContextClassRef authnContextClassRef = authnContextClassRefBuilder.buildObject();
+		AuthnContextClassRef authnContextClassRef = this.builders.getAuthnContextClassRefBuilder().buildObject();
 		authnContextClassRef.setURI("urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport");
 
-		AuthnContextImpl authnContext = authnContextBuilder.buildObject();
+		AuthnContext authnContext = this.builders.getAuthnContextBuilder().buildObject();
 		authnContext.setAuthnContextClassRef(authnContextClassRef);
 
-		AudienceImpl audience = audienceBuilder.buildObject();
-		AudienceRestrictionImpl audienceRestriction = audienceRestrictionBuilder.buildObject();
+		Audience audience = this.builders.getAudienceBuilder().buildObject();
+		AudienceRestriction audienceRestriction = this.builders.getAudienceRestrictionBuilder().buildObject();
 
 		audience.setURI(assertParameters.getIssuer());
 		audienceRestriction.getAudiences().add(audience);
 
-		ConditionsImpl conditions = conditionsBuilder.buildObject();
+		Conditions conditions = this.builders.getConditionsBuilder().buildObject();
 		conditions.setNotBefore(now);
 		conditions.setNotOnOrAfter(until);
 		conditions.getAudienceRestrictions().add(audienceRestriction);
 
-		AuthnStatementImpl authnStatement = authnStatementBuilder.buildObject();
+		AuthnStatement authnStatement = this.builders.getAuthnStatementBuilder().buildObject();
 		authnStatement.setAuthnInstant(now);
 		authnStatement.setAuthnContext(authnContext);
 
-		SubjectImpl subject = subjectBuilder.buildObject();
-		StatusCodeImpl statusCode = statusCodeBuilder.buildObject();
-
-		String id = null;
+		Subject subject = this.builders.getSubjectBuilder().buildObject();
+		StatusCode statusCode = this.builders.getStatusCodeBuilder().buildObject();
 
-		StatusImpl status = statusBuilder.buildObject();
+		Status status = this.builders.getStatusBuilder().buildObject();
 
-		ResponseImpl response = responseBuilder.buildObject();
+		Response response = this.builders.getResponseBuilder().buildObject();
 
 		if (resultStatus == ResultStatus.SUCCESS) {
 			// Set nameID to first attribute, assuming we have such and attribute.
@@ -289,35 +197,34 @@ public class OpenSamlService {
 					.stream()
 					.findFirst();
 			if (firstAttribute.isPresent()) {
-				NameID nameID = nameIDBuilder.buildObject();
+				NameID nameID = this.builders.getNameIDBuilder().buildObject();
 				nameID.setFormat(NameID.TRANSIENT);
 				nameID.setValue(firstAttribute.get().getValue());
 				subject.setNameID(nameID);
 			}
 
-			AttributeStatementImpl attributeStatement = attributeStatementBuilder.buildObject();
+			AttributeStatement attributeStatement = this.builders.getAttributeStatementBuilder().buildObject();
 			for (Map.Entry<String, String> entry : disclosure.getAttributes().entrySet()) {
-				XSString attributeValue = xsStringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
+				XSString attributeValue = this.builders.getXsStringBuilder().buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
 						XSString.TYPE_NAME);
 				attributeValue.setValue(entry.getValue());
 
-				AttributeImpl attribute = attributeBuilder.buildObject();
+				Attribute attribute = this.builders.getAttributeBuilder().buildObject();
 				attribute.setName(entry.getKey());
 				attribute.getAttributeValues().add(attributeValue);
 
 				attributeStatement.getAttributes().add(attribute);
 			}
 
-			AssertionImpl assertion = assertionBuilder.buildObject();
+			Assertion assertion = this.builders.getAssertionBuilder().buildObject();
 			assertion.getAttributeStatements().add(attributeStatement);
 
 			// Our assertion ID refers to the IRMA session.
 			if (disclosure.getToken() != null) {
-				id = disclosure.getToken();
+				assertion.setID(this.idGenerator.fromToken(disclosure.getToken()));
 			} else {
-				id = generateId();
+				assertion.setID(this.idGenerator.generateId());
 			}
-			assertion.setID("_" + BaseEncoding.base16().encode(id.getBytes()));
 
 			assertion.setSubject(subject);
 			assertion.setIssuer(this.createIssuer());
@@ -329,7 +236,7 @@ public class OpenSamlService {
 
 			statusCode.setValue(StatusCode.SUCCESS);
 		} else if (resultStatus == ResultStatus.FAILED) {
-			StatusCodeImpl statusCodeError = statusCodeBuilder.buildObject();
+			StatusCode statusCodeError = this.builders.getStatusCodeBuilder().buildObject();
 
 			statusCodeError.setValue(StatusCode.AUTHN_FAILED);
 
@@ -337,22 +244,20 @@ public class OpenSamlService {
 			statusCode.setStatusCode(statusCodeError);
 
 			// Add errormessage, see IRMA-1184
-			StatusMessageImpl statusMessage = statusMessageBuilder.buildObject();
+			StatusMessage statusMessage = this.builders.getStatusMessageBuilder().buildObject();
 			RequestError requestError = assertParameters.getRequestError();
 			statusMessage.setValue((requestError != null && requestError.getMessage() != null)
 					? requestError.getMessage()
 					: "");
 			status.setStatusMessage(statusMessage);
-
-			id = generateId();
 		}
 
-		SubjectConfirmationDataImpl subjectConfirmationData = subjectConfirmationDataBuilder.buildObject();
+		SubjectConfirmationData subjectConfirmationData = this.builders.getSubjectConfirmationDataBuilder().buildObject();
 		subjectConfirmationData.setRecipient(assertParameters.getServiceUrl());
 		subjectConfirmationData.setInResponseTo(assertParameters.getRequestId());
 		subjectConfirmationData.setNotOnOrAfter(until);
 
-		SubjectConfirmationImpl sc = subjectConfirmationBuilder.buildObject();
+		SubjectConfirmation sc = this.builders.getSubjectConfirmationBuilder().buildObject();
 		// The bearer of this assertion is authenticated for the contained attributes.
 		sc.setMethod(SubjectConfirmation.METHOD_BEARER);
 		sc.setSubjectConfirmationData(subjectConfirmationData);
@@ -360,7 +265,7 @@ public class OpenSamlService {
 
 		status.setStatusCode(statusCode);
 
-		response.setID(id);
+		response.setID(this.idGenerator.generateId());
 		response.setIssuer(this.createIssuer());
 		response.setIssueInstant(now);
 		response.setInResponseTo(assertParameters.getRequestId());
@@ -371,88 +276,84 @@ public class OpenSamlService {
 	}
 
 	/**
-	 * Generate a random identifier
+	 * Marshall a SAML assertion response and sign it with our default SAML key.
 	 * 
-	 * @return A String containing the randomly generated identifier
+	 * @param response
+	 * @return The UTF-8 encoded XML document containing the signed SAML assertion.
+	 * @throws MarshallingException
+	 * @throws TransformerException
+	 * @throws SignatureException
 	 */
-	private String generateId() {
-		byte[] bytes = new byte[20];
-		Random random = new Random();
-		random.nextBytes(bytes);
-		return new String(Base64.getEncoder().encode(bytes));
+	public byte[] marshallResponse(Response response)
+			throws MarshallingException, TransformerException, SignatureException {
+		return this.marshallResponse(response, this.keyService.getSamlSigningKey());
 	}
 
 	/**
 	 * Marshall a SAML assertion response and sign it.
 	 * 
 	 * @param response
-	 * @return A XML text string containing the signed SAML assertion.
+	 * @param signingKey The key to sign with, as selected for the Service Provider by the {@link KeyService}.
+	 * @return The UTF-8 encoded XML document containing the signed SAML assertion.
 	 * @throws MarshallingException
 	 * @throws TransformerException
 	 * @throws SignatureException
-	 * @throws CertificateEncodingException
 	 */
-	public String marshallResponse(Response response)
-			throws MarshallingException, TransformerException, SignatureException, CertificateEncodingException {
+	public byte[] marshallResponse(Response response, SigningKey signingKey)
+			throws MarshallingException, TransformerException, SignatureException {
 		MarshallerFactory factory = XMLObjectProviderRegistrySupport.getMarshallerFactory();
 		ResponseMarshaller marshaller = (ResponseMarshaller) factory.getMarshaller(response);
 
-		Signature signature = this.createSignature();
+		Signature signature = this.createSignature(signingKey);
 		response.setSignature(signature);
 
 		Element element = marshaller.marshall(response);
 		Signer.signObject(signature);
 
-		return this.marshallToString(element);
+		return this.xmlSerializer.serialize(element);
 	}
 
 	/**
 	 * Create a SAML metadata XML object for our Identity Provider.
 	 * 
 	 * @return The SAML metadata XML object.
-	 * @throws SecurityException
-	 * @throws CertificateEncodingException
 	 */
-	public EntityDescriptor createIdPMetadata() throws CertificateEncodingException {
-		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<EntityDescriptorImpl> edBuilder = (SAMLObjectBuilder<EntityDescriptorImpl>) factory
-				.getBuilder(EntityDescriptor.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<IDPSSODescriptorImpl> idpssodBuilder = (SAMLObjectBuilder<IDPSSODescriptorImpl>) factory
-				.getBuilder(IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<KeyDescriptorImpl> keydBuilder = (SAMLObjectBuilder<KeyDescriptorImpl>) factory
-				.getBuilder(KeyDescriptor.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<SingleSignOnServiceImpl> ssosBuilder = (SAMLObjectBuilder<SingleSignOnServiceImpl>) factory
-				.getBuilder(SingleSignOnService.DEFAULT_ELEMENT_NAME);
-
+	public EntityDescriptor createIdPMetadata() {
 		Configuration configuration = this.configurationService.getConfiguration();
 
-		IDPSSODescriptorImpl idpSsoDescriptor = idpssodBuilder.buildObject();
+		IDPSSODescriptor idpSsoDescriptor = this.builders.getIdpSsoDescriptorBuilder().buildObject();
 		idpSsoDescriptor.setWantAuthnRequestsSigned(true);
 
-		// We only include a signing key.
-		KeyInfo keyInfo = this.createKeyInfoForCertificate();
+		// We only include signing keys, and advertise their algorithms in our order of preference.
+		Extensions extensions = this.builders.getMetadataExtensionsBuilder().buildObject();
 
-		KeyDescriptorImpl sigKey = keydBuilder.buildObject();
-		sigKey.setUse(UsageType.SIGNING);
-		sigKey.setKeyInfo(keyInfo);
+		DigestMethod digestMethod = this.builders.getDigestMethodBuilder().buildObject();
+		digestMethod.setAlgorithm(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+		extensions.getUnknownXMLObjects().add(digestMethod);
+
+		for (SigningKey signingKey : this.keyService.getSamlSigningKeys()) {
+			KeyDescriptor sigKey = this.builders.getKeyDescriptorBuilder().buildObject();
+			sigKey.setUse(UsageType.SIGNING);
+			sigKey.setKeyInfo(this.createKeyInfoForCertificate(signingKey.getCertificateBase64()));
+			idpSsoDescriptor.getKeyDescriptors().add(sigKey);
+
+			SigningMethod signingMethod = this.builders.getSigningMethodBuilder().buildObject();
+			signingMethod.setAlgorithm(signingKey.getSignatureAlgorithm());
+			extensions.getUnknownXMLObjects().add(signingMethod);
+		}
 
-		idpSsoDescriptor.getKeyDescriptors().add(sigKey);
 		idpSsoDescriptor.addSupportedProtocol(SAMLConstants.SAML20P_NS);
 
-		SingleSignOnServiceImpl singleSignOnService = ssosBuilder.buildObject();
+		SingleSignOnService singleSignOnService = this.builders.getSingleSignOnServiceBuilder().buildObject();
 		// We only support HTTP redirects.
 		singleSignOnService.setBinding(SAML_BINDINGS_REDIRECT);
 		singleSignOnService.setLocation(configuration.constructUrl("/request"));
 
 		idpSsoDescriptor.getSingleSignOnServices().add(singleSignOnService);
 
-		EntityDescriptorImpl entityDescriptor = edBuilder.buildObject();
+		EntityDescriptor entityDescriptor = this.builders.getEntityDescriptorBuilder().buildObject();
 		entityDescriptor.setEntityID(configuration.getIssuerName());
+		entityDescriptor.setExtensions(extensions);
 		entityDescriptor.getRoleDescriptors().add(idpSsoDescriptor);
 		entityDescriptor.setCacheDuration(Duration.of(30000l, ChronoUnit.MILLIS));
 
@@ -464,77 +365,49 @@ public class OpenSamlService {
 	 * Meant exclusively for testing.
 	 * 
 	 * @return The SAML metadata XML object.
-	 * @throws CertificateEncodingException
 	 */
-	public EntityDescriptor createSPMetadata() throws CertificateEncodingException {
+	public EntityDescriptor createSPMetadata() {
 		Configuration configuration = this.configurationService.getConfiguration();
 
-		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<EntityDescriptorImpl> edBuilder = (SAMLObjectBuilder<EntityDescriptorImpl>) factory
-				.getBuilder(EntityDescriptor.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<SPSSODescriptorImpl> spssodBuilder = (SAMLObjectBuilder<SPSSODescriptorImpl>) factory
-				.getBuilder(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<KeyDescriptorImpl> keydBuilder = (SAMLObjectBuilder<KeyDescriptorImpl>) factory
-				.getBuilder(KeyDescriptor.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<AssertionConsumerServiceImpl> assertionConsumerServiceBuilder = (SAMLObjectBuilder<AssertionConsumerServiceImpl>) factory
-				.getBuilder(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<OrganizationURLImpl> urlBuilder = (SAMLObjectBuilder<OrganizationURLImpl>) factory
-				.getBuilder(OrganizationURL.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<OrganizationNameImpl> nameBuilder = (SAMLObjectBuilder<OrganizationNameImpl>) factory
-				.getBuilder(OrganizationName.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<OrganizationDisplayNameImpl> displayNameBuilder = (SAMLObjectBuilder<OrganizationDisplayNameImpl>) factory
-				.getBuilder(OrganizationDisplayName.DEFAULT_ELEMENT_NAME);
-		@SuppressWarnings("unchecked")
-		SAMLObjectBuilder<OrganizationImpl> organizationBuilder = (SAMLObjectBuilder<OrganizationImpl>) factory
-				.getBuilder(Organization.DEFAULT_ELEMENT_NAME);
-
-		SPSSODescriptorImpl spSsoDescriptor = spssodBuilder.buildObject();
+		SPSSODescriptor spSsoDescriptor = this.builders.getSpSsoDescriptorBuilder().buildObject();
 		spSsoDescriptor.setWantAssertionsSigned(true);
 
 		// We only include a signing key.
-		KeyInfo keyInfo = this.createKeyInfoForCertificate();
+		KeyInfo keyInfo = this.createKeyInfoForCertificate(this.keyService.getSamlCertificateBase64());
 
-		KeyDescriptorImpl sigKey = keydBuilder.buildObject();
+		KeyDescriptor sigKey = this.builders.getKeyDescriptorBuilder().buildObject();
 		sigKey.setUse(UsageType.SIGNING);
 		sigKey.setKeyInfo(keyInfo);
 
 		spSsoDescriptor.getKeyDescriptors().add(sigKey);
 		spSsoDescriptor.addSupportedProtocol(SAMLConstants.SAML20P_NS);
 
-		AssertionConsumerService assertionConsumerService = assertionConsumerServiceBuilder.buildObject();
+		AssertionConsumerService assertionConsumerService = this.builders.getAssertionConsumerServiceBuilder().buildObject();
 		assertionConsumerService.setIndex(0);
 		assertionConsumerService.setBinding(SAML_BINDINGS_REDIRECT);
 		assertionConsumerService.setLocation(configuration.constructUrl("/test/return"));
 		spSsoDescriptor.getAssertionConsumerServices().add(assertionConsumerService);
 
-		OrganizationDisplayNameImpl organizationDisplayName = displayNameBuilder.buildObject();
+		OrganizationDisplayName organizationDisplayName = this.builders.getOrganizationDisplayNameBuilder().buildObject();
 		organizationDisplayName.setValue("SIDN");
 		organizationDisplayName.setXMLLang("en");
 
-		OrganizationNameImpl organizationName = nameBuilder.buildObject();
+		OrganizationName organizationName = this.builders.getOrganizationNameBuilder().buildObject();
 		organizationName.setValue("SIDN");
 		organizationName.setXMLLang("en");
 
-		OrganizationURLImpl organizationUrl = urlBuilder.buildObject();
+		OrganizationURL organizationUrl = this.builders.getOrganizationURLBuilder().buildObject();
 		organizationUrl.setURI(configuration.constructUrl("/test/metadata"));
 		organizationUrl.setXMLLang("en");
 
-		OrganizationImpl organization = organizationBuilder.buildObject();
+		Organization organization = this.builders.getOrganizationBuilder().buildObject();
 		organization.getURLs().add(organizationUrl);
 		organization.getDisplayNames().add(organizationDisplayName);
 		organization.getOrganizationNames().add(organizationName);
 
 		spSsoDescriptor.setOrganization(organization);
 
-		EntityDescriptorImpl entityDescriptor = edBuilder.buildObject();
+		EntityDescriptor entityDescriptor = this.builders.getEntityDescriptorBuilder().buildObject();
 		entityDescriptor.setEntityID(configuration.getIssuerName());
 		entityDescriptor.getRoleDescriptors().add(spSsoDescriptor);
 		entityDescriptor.setCacheDuration(Duration.of(30000l, ChronoUnit.MILLIS));
@@ -547,84 +420,83 @@ public class OpenSamlService {
 	 * This object is not signed.
 	 * 
 	 * @param metadata
-	 * @return A XML string containing the SAML metadata object.
+	 * @return The UTF-8 encoded XML document containing the SAML metadata object.
 	 * @throws MarshallingException
 	 * @throws TransformerException
 	 */
-	public String marshallMetadata(EntityDescriptor metadata) throws MarshallingException, TransformerException {
+	public byte[] marshallMetadata(EntityDescriptor metadata) throws MarshallingException, TransformerException {
 		MarshallerFactory factory = XMLObjectProviderRegistrySupport.getMarshallerFactory();
 		EntityDescriptorMarshaller marshaller = (EntityDescriptorMarshaller) factory.getMarshaller(metadata);
 
-		return this.marshallToString(marshaller.marshall(metadata));
+		return this.xmlSerializer.serialize(marshaller.marshall(metadata));
 	}
 
 	/**
-	 * Marshall a XML object to a string.
+	 * Marshall a SAML metadata object and sign it with our default SAML key.
 	 * 
-	 * @param element
-	 * @return A string containing the XML object.
+	 * @param metadata
+	 * @return The UTF-8 encoded XML document containing the signed SAML metadata object.
+	 * @throws MarshallingException
 	 * @throws TransformerException
+	 * @throws SignatureException
 	 */
-	private String marshallToString(Element element) throws TransformerException {
-		DOMSource domSource = new DOMSource(element);
-		StringWriter writer = new StringWriter();
-		StreamResult result = new StreamResult(writer);
+	public byte[] marshallSignedMetadata(EntityDescriptor metadata)
+			throws MarshallingException, TransformerException, SignatureException {
+		MarshallerFactory factory = XMLObjectProviderRegistrySupport.getMarshallerFactory();
+		EntityDescriptorMarshaller marshaller = (EntityDescriptorMarshaller) factory.getMarshaller(metadata);
 
-		// Prevent XXE attacks when parsing element.
-		TransformerFactory tf = TransformerFactory.newInstance();
-		tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-		tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+		// The signature refers to the metadata by its ID.
+		metadata.setID(this.idGenerator.generateId());
 
-		Transformer transformer = tf.newTransformer();
-		transformer.transform(domSource, result);
+		Signature signature = this.createSignature(this.keyService.getSamlSigningKey());
+		metadata.setSignature(signature);
 
-		return writer.toString();
+		Element element = marshaller.marshall(metadata);
+		Signer.signObject(signature);
+
+		return this.xmlSerializer.serialize(element);
 	}
 
 	/**
-	 * Given a string with a SAML assertion, verify that it is properly formed and
+	 * Given a marshalled SAML assertion, verify that it is properly formed and
 	 * is correctly signed.
 	 * 
-	 * @param response
+	 * @param response The UTF-8 encoded XML document.
 	 * @throws SignatureException     Thrown when the signature is incorrect.
 	 * @throws UnmarshallingException
 	 * @throws XMLParserException
 	 */
-	public void verifyAssertionResponse(String response)
+	public void verifyAssertionResponse(byte[] response)
 			throws SignatureException, XMLParserException, UnmarshallingException {
-		Response result = (Response) XMLObjectSupport.unmarshallFromReader(
-				parserPool, new StringReader(response));
+		Response result = (Response) XMLObjectSupport.unmarshallFromInputStream(
+				parserPool, new ByteArrayInputStream(response));
 
-		Credential credential = new BasicX509Credential(
-				this.keyService.getSamlCertificate());
-
-		SAMLSignatureProfileValidator pv = new SAMLSignatureProfileValidator();
-		pv.validate(result.getSignature());
-		SignatureValidator.validate(result.getSignature(), credential);
+		this.verifySignature(result.getSignature());
 	}
 
 	/**
-	 * Find the appropriate location to return to from a metadata EntityDescriptor.
-	 *
-	 * As we only support the HTTP Redirect SAML2 binding, we search for that one
-	 * only, and reject all others.
-	 *
-	 * @param entityDescriptor The descriptor for the applicable metadata, which can
-	 *                         be retrieved from the SignatureValidationService.
+	 * Given a SAML assertion that was just marshalled and signed, verify its signature
+	 * on the signed DOM that is still attached to it, without serializing and parsing it again.
+	 * Catches signing with the wrong key or algorithm, but not damage done by serialization.
+	 * 
+	 * @param response A response as signed by {@link #marshallResponse(Response)}.
+	 * @throws SignatureException Thrown when the signature is incorrect.
 	 */
-	public String findRedirectAssertionConsumerService(EntityDescriptor entityDescriptor) {
-		SPSSODescriptor spssoDescriptor = entityDescriptor.getSPSSODescriptor("urn:oasis:names:tc:SAML:2.0:protocol");
-
-		if (spssoDescriptor == null) {
-			return null;
+	public void verifySignedResponse(Response response) throws SignatureException {
+		if (response.getDOM() == null) {
+			throw new SignatureException("Response has not been marshalled and signed");
 		}
 
-		for (AssertionConsumerService assertionConsumerService : spssoDescriptor.getAssertionConsumerServices()) {
-			if (assertionConsumerService.getBinding().equals(SAML_BINDINGS_REDIRECT)) {
-				return assertionConsumerService.getLocation();
-			}
-		}
+		this.verifySignature(response.getSignature());
+	}
+
+	private void verifySignature(Signature signature) throws SignatureException {
+		// Verify with the key that makes signatures with the algorithm the signature claims.
+		Credential credential = this.keyService.findSigningKey(signature.getSignatureAlgorithm()).getCredential();
 
-		return null;
+		SAMLSignatureProfileValidator pv = new SAMLSignatureProfileValidator();
+		pv.validate(signature);
+		SignatureValidator.validate(signature, credential);
 	}
+
 }
@@ -1,8 +1,6 @@
 package nl.sidn.irma.saml_bridge.service;
 
 import lombok.extern.slf4j.Slf4j;
-import net.shibboleth.shared.codec.Base64Support;
-import net.shibboleth.shared.codec.EncodingException;
 import net.shibboleth.shared.xml.XMLParserException;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
 import nl.sidn.irma.saml_bridge.model.*;
@@ -14,7 +12,6 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import javax.xml.transform.TransformerException;
-import java.security.cert.CertificateEncodingException;
 
 /**
  * A service that takes care of populating redirect instructions, which are used to send SAML responses back.
@@ -25,10 +22,30 @@ import java.security.cert.CertificateEncodingException;
 public class RedirectInstructionService {
 	private final OpenSamlService openSamlService;
 
+	private final SelfVerificationService selfVerificationService;
+
+	private final TemplateResponseWriter templateResponseWriter;
+
+	private final SigningExecutor signingExecutor;
+
+	private final KeyService keyService;
+
+	private final SignatureValidationService signatureValidationService;
+
 	public RedirectInstructionService(
-			OpenSamlService openSamlService
+			OpenSamlService openSamlService,
+			SelfVerificationService selfVerificationService,
+			TemplateResponseWriter templateResponseWriter,
+			SigningExecutor signingExecutor,
+			KeyService keyService,
+			SignatureValidationService signatureValidationService
 	) {
 		this.openSamlService = openSamlService;
+		this.selfVerificationService = selfVerificationService;
+		this.templateResponseWriter = templateResponseWriter;
+		this.signingExecutor = signingExecutor;
+		this.keyService = keyService;
+		this.signatureValidationService = signatureValidationService;
 	}
 
 	public RedirectInstruction create(AssertParameters assertParameters, ResultStatus status) throws BridgeException {
@@ -43,43 +60,57 @@ public class RedirectInstructionService {
 	 * @throws BridgeException
 	 */
 	public RedirectInstruction create(AssertParameters assertParameters, Disclosure disclosure, ResultStatus status) throws BridgeException {
-		// Create a SAML assertion.
-		Response assertion = this.openSamlService.createAssertionResponse(assertParameters, disclosure, status);
+		// Signing is done on the signing threads, which may refuse when they are too busy.
+		byte[] samlResponse = this.signingExecutor.execute(() -> this.createSignedResponse(assertParameters, disclosure, status));
+
+		// Construct the set of instructions to the React applet.
+		return RedirectInstruction.builder()
+				.samlResponse(samlResponse)
+				.serviceUrl(assertParameters.getServiceUrl())
+				.relayState(assertParameters.getRelayState())
+				.build();
+	}
 
-		// Encode that SAML assertion as a signed XML response.
-		String samlResponse;
+	/**
+	 * @return The UTF-8 encoded XML document containing the signed and verified SAML response.
+	 * @throws BridgeException
+	 */
+	private byte[] createSignedResponse(AssertParameters assertParameters, Disclosure disclosure, ResultStatus status) throws BridgeException {
+		// Sign with the algorithm the Service Provider prefers in its metadata, when we have a key for it.
+		ServiceProvider serviceProvider = this.signatureValidationService.findServiceProvider(assertParameters.getIssuer());
+		SigningKey signingKey = this.keyService.selectSigningKey(
+				serviceProvider != null ? serviceProvider.getSigningMethods() : null);
+
+		// Create a SAML assertion and encode it as a signed XML response, from a template or with OpenSAML.
+		Response assertion = null;
+		byte[] samlResponse;
 		try {
-			samlResponse = this.openSamlService.marshallResponse(assertion);
+			if (this.templateResponseWriter.isEnabled()) {
+				samlResponse = this.templateResponseWriter.write(assertParameters, disclosure, status, signingKey);
+			} else {
+				assertion = this.openSamlService.createAssertionResponse(assertParameters, disclosure, status);
+				samlResponse = this.openSamlService.marshallResponse(assertion, signingKey);
+			}
 		} catch (MarshallingException e) {
 			log.error("action=\"redirectinstruction.create\", error=\"Failed to marshall assertion\"", e);
 			throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to marshall assertion");
 		} catch (TransformerException e) {
 			log.error("action=\"redirectinstruction.create\", error=\"Failed to write assertion\"", e);
 			throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write assertion");
-		} catch (SignatureException | CertificateEncodingException e) {
+		} catch (SignatureException e) {
 			// Something was misconfigured with the private key for signing.
 			log.error("action=\"redirectinstruction.create\", error=\"Failed to write signature\"", e);
 			throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write signature");
 		}
 
-		// For debugging we always validate our own signature, but continue when it is invalid.
+		// Validate our own signature, as often and as thoroughly as configured.
 		try {
-			this.openSamlService.verifyAssertionResponse(samlResponse);
+			this.selfVerificationService.verify(assertion, samlResponse);
 		} catch (SignatureException | XMLParserException | UnmarshallingException e) {
 			log.error("action=\"redirectinstruction.create\", error=\"Failed to validate signature or format of our assertion\"", e);
 			throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to validate signature or format of our assertion");
 		}
 
-		// Construct the set of instructions to the React applet.
-		try {
-			return RedirectInstruction.builder()
-					.samlResponse(Base64Support.encode(samlResponse.getBytes(), false))
-					.serviceUrl(assertParameters.getServiceUrl())
-					.relayState(assertParameters.getRelayState())
-					.build();
-		} catch (EncodingException e) {
-			throw new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed with encoding issue: " + e.getMessage());
-		}
-
+		return samlResponse;
 	}
 }
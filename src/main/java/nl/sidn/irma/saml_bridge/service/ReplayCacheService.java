@@ -0,0 +1,243 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers which AuthnRequests have been used, so a signed redirect can not be replayed
+ * while its IssueInstant is still within the request TTL.
+ *
+ * Requests are keyed on their issuer and ID, and spread over independently locked stripes,
+ * so concurrent requests hardly ever contend. Every stripe expires its entries with a timing wheel
+ * of one second slots spanning the TTL: only the slots that passed since the previous
+ * access are visited, instead of scanning all entries.
+ *
+ * The number of entries is capped. When the cache is full no new requests are accepted,
+ * since they could not be protected against replays.
+ */
+@Slf4j
+@Service
+public class ReplayCacheService {
+
+	/** The outcome of registering a request. */
+	public enum Result {
+		/** The request was not seen before, and is remembered now. */
+		ACCEPTED,
+		/** The request was seen before within the TTL. */
+		REPLAYED,
+		/** The request is new, but the cache has no room to remember it. */
+		FULL
+	}
+
+	private static final int STRIPES = 64;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final long ttlInSec;
+
+	private final long clockSkewInSec;
+
+	private final int maxEntries;
+
+	private final Counter replayedCounter;
+
+	private final Counter fullCounter;
+
+	private Clock clock = Clock.systemUTC();
+
+	public ReplayCacheService(
+			ConfigurationService configurationService,
+			MeterRegistry meterRegistry) {
+		this.ttlInSec = configurationService.getConfiguration().getRequestTtlInSec();
+		this.clockSkewInSec = configurationService.getConfiguration().getSamlClockSkewInSec();
+		this.maxEntries = configurationService.getConfiguration().getReplayCacheMaxEntries();
+
+		long now = currentSecond();
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new Stripe((int) (this.ttlInSec + this.clockSkewInSec) + 2, now);
+		}
+
+		Gauge.builder("saml.replay.cache.entries", this, ReplayCacheService::size)
+				.description("AuthnRequests remembered to detect replays")
+				.register(meterRegistry);
+		Gauge.builder("saml.replay.cache.capacity", () -> this.maxEntries)
+				.description("Maximum number of AuthnRequests remembered to detect replays")
+				.register(meterRegistry);
+		this.replayedCounter = Counter.builder("saml.replay.cache.rejections")
+				.description("AuthnRequests rejected by the replay cache")
+				.tag("reason", "replayed")
+				.register(meterRegistry);
+		this.fullCounter = Counter.builder("saml.replay.cache.rejections")
+				.description("AuthnRequests rejected by the replay cache")
+				.tag("reason", "full")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Register the use of an AuthnRequest.
+	 * It is remembered until the TTL has passed for both its IssueInstant and the current time,
+	 * but no longer than the TTL and the allowed clock skew from now, as requests issued further in the
+	 * future are rejected anyway.
+	 *
+	 * @param issuer The issuer of the request.
+	 * @param requestId The ID of the request.
+	 * @param issueInstant The IssueInstant of the request.
+	 * @return Whether the request may be handled.
+	 */
+	public Result register(String issuer, String requestId, Instant issueInstant) {
+		Key key = new Key(issuer, requestId);
+		long now = currentSecond();
+		long expiresAt = Math.min(Math.max(now, issueInstant.getEpochSecond()) + this.ttlInSec,
+				now + this.ttlInSec + this.clockSkewInSec);
+
+		Stripe stripe = this.stripes[Math.floorMod(key.hashCode(), STRIPES)];
+		Result result = stripe.register(key, now, expiresAt);
+
+		if (result == Result.FULL) {
+			// Entries in idle stripes only expire when touched, make sure they do not hold up the space.
+			expire(now);
+			result = stripe.register(key, now, expiresAt);
+		}
+
+		if (result == Result.REPLAYED) {
+			this.replayedCounter.increment();
+			log.warn("action=\"replay-cache\", warning=\"AuthnRequest replayed\", issuer=\"{}\", id=\"{}\"", issuer, requestId);
+		} else if (result == Result.FULL) {
+			this.fullCounter.increment();
+			log.error("action=\"replay-cache\", error=\"Replay cache is full\", maxEntries=\"{}\"", this.maxEntries);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of requests currently remembered, after expiring the ones that passed their TTL.
+	 */
+	public int size() {
+		expire(currentSecond());
+		return this.size.get();
+	}
+
+	private void expire(long now) {
+		for (Stripe stripe : this.stripes) {
+			stripe.expire(now);
+		}
+	}
+
+	void setClock(Clock clock) {
+		this.clock = clock;
+		long now = currentSecond();
+		for (Stripe stripe : this.stripes) {
+			stripe.currentSecond = now;
+		}
+	}
+
+	private long currentSecond() {
+		return this.clock.millis() / 1000;
+	}
+
+	private record Key(String issuer, String requestId) {
+	}
+
+	/**
+	 * A lock-protected part of the cache, with its own timing wheel.
+	 * Slot i of the wheel holds the keys expiring in a second s with s % slots == i.
+	 * Keys expiring beyond the span of the wheel are put back when their slot comes by too early.
+	 */
+	private final class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Map<Key, Long> expiries = new HashMap<>();
+
+		private final List<List<Key>> wheel;
+
+		private long currentSecond;
+
+		Stripe(int slots, long now) {
+			this.wheel = new ArrayList<>(slots);
+			for (int i = 0; i < slots; i++) {
+				this.wheel.add(new ArrayList<>());
+			}
+			this.currentSecond = now;
+		}
+
+		Result register(Key key, long now, long expiresAt) {
+			this.lock.lock();
+			try {
+				advance(now);
+
+				if (this.expiries.containsKey(key)) {
+					return Result.REPLAYED;
+				}
+
+				if (size.incrementAndGet() > maxEntries) {
+					size.decrementAndGet();
+					return Result.FULL;
+				}
+
+				this.expiries.put(key, expiresAt);
+				slotFor(Math.min(expiresAt, now + this.wheel.size() - 1)).add(key);
+				return Result.ACCEPTED;
+			} finally {
+				this.lock.unlock();
+			}
+		}
+
+		void expire(long now) {
+			this.lock.lock();
+			try {
+				advance(now);
+			} finally {
+				this.lock.unlock();
+			}
+		}
+
+		/**
+		 * Turn the wheel to the current second, removing the keys in every slot that passed.
+		 * Each slot is visited at most once per turn, however long the stripe was idle.
+		 */
+		private void advance(long now) {
+			if (now <= this.currentSecond) {
+				return;
+			}
+
+			long from = Math.max(this.currentSecond + 1, now - this.wheel.size() + 1);
+			for (long second = from; second <= now; second++) {
+				List<Key> slot = slotFor(second);
+				if (slot.isEmpty()) {
+					continue;
+				}
+
+				List<Key> keys = new ArrayList<>(slot);
+				slot.clear();
+				for (Key key : keys) {
+					long expiresAt = this.expiries.get(key);
+					if (expiresAt <= now) {
+						this.expiries.remove(key);
+						size.decrementAndGet();
+					} else {
+						slotFor(Math.min(expiresAt, now + this.wheel.size() - 1)).add(key);
+					}
+				}
+			}
+			this.currentSecond = now;
+		}
+
+		private List<Key> slotFor(long second) {
+			return this.wheel.get((int) Math.floorMod(second, (long) this.wheel.size()));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.xml.XMLParserException;
+import nl.sidn.irma.saml_bridge.model.SelfVerification;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A service that verifies the SAML responses we sign before they are sent, as a safety net against
+ * signing with the wrong key or producing malformed XML.
+ *
+ * How thoroughly, and how often, is configured with selfVerification. Every verified, failed and
+ * skipped response is counted, tagged with the configured mode.
+ */
+@Slf4j
+@Service
+public class SelfVerificationService {
+	private final OpenSamlService openSamlService;
+
+	private final SelfVerification mode;
+
+	private final int sampleRate;
+
+	private final AtomicLong responses = new AtomicLong();
+
+	private final Counter verifiedCounter;
+
+	private final Counter failedCounter;
+
+	private final Counter skippedCounter;
+
+	public SelfVerificationService(
+			ConfigurationService configurationService,
+			OpenSamlService openSamlService,
+			MeterRegistry meterRegistry) {
+		this.openSamlService = openSamlService;
+		this.mode = configurationService.getConfiguration().getSelfVerification();
+		this.sampleRate = configurationService.getConfiguration().getSelfVerificationSampleRate();
+
+		this.verifiedCounter = counter(meterRegistry, "verified");
+		this.failedCounter = counter(meterRegistry, "failed");
+		this.skippedCounter = counter(meterRegistry, "skipped");
+	}
+
+	/**
+	 * Verify a response that was just marshalled and signed, according to the configured mode.
+	 *
+	 * @param response The signed response, or null when it was written by the {@link TemplateResponseWriter}.
+	 * @param marshalled The response as marshalled by {@link OpenSamlService#marshallResponse(Response)},
+	 *                   or as written by the {@link TemplateResponseWriter}.
+	 * @throws SignatureException Thrown when the signature is incorrect.
+	 * @throws XMLParserException
+	 * @throws UnmarshallingException
+	 */
+	public void verify(Response response, byte[] marshalled)
+			throws SignatureException, XMLParserException, UnmarshallingException {
+		try {
+			switch (this.mode) {
+				case ALWAYS:
+					this.openSamlService.verifyAssertionResponse(marshalled);
+					break;
+				case SAMPLED:
+					if (this.responses.getAndIncrement() % this.sampleRate != 0) {
+						this.skippedCounter.increment();
+						return;
+					}
+					this.openSamlService.verifyAssertionResponse(marshalled);
+					break;
+				case IN_MEMORY:
+					// A response written from a template has no signed DOM, so it is parsed again.
+					if (response == null) {
+						this.openSamlService.verifyAssertionResponse(marshalled);
+					} else {
+						this.openSamlService.verifySignedResponse(response);
+					}
+					break;
+				case OFF:
+				default:
+					this.skippedCounter.increment();
+					return;
+			}
+		} catch (SignatureException | XMLParserException | UnmarshallingException | RuntimeException e) {
+			this.failedCounter.increment();
+			throw e;
+		}
+		this.verifiedCounter.increment();
+	}
+
+	private Counter counter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("saml.self.verifications")
+				.description("SAML responses verified after signing them")
+				.tag("mode", this.mode.name().toLowerCase())
+				.tag("result", result)
+				.register(meterRegistry);
+	}
+}
@@ -0,0 +1,125 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import nl.sidn.irma.saml_bridge.model.Condiscon;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.model.RequestorAuthMethod;
+import nl.sidn.irma.saml_bridge.model.SessionRequest;
+import nl.sidn.irma.saml_bridge.util.JwtUtil;
+import org.springframework.stereotype.Service;
+
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the session requests with which the IRMA sessions are started, authenticated with the
+ * authMethod of the IRMA path: signed with our JWT private key, signed with a shared HMAC key,
+ * or as plain JSON with a token.
+ *
+ * A session request only depends on the IRMA host, the condiscon and the authentication, and most logins
+ * come from a few service providers requesting the same condiscon. The session requests are therefore
+ * cached for a short time, well within the age of requestor JWTs the IRMA server accepts (max_request_age,
+ * 300 seconds by default).
+ */
+@Service
+public class SessionRequestService {
+	private static final String SUBJECT = "verification_request";
+
+	private static final String CLAIM = "sprequest";
+
+	private final KeyService keyService;
+
+	private final JwtUtil jwtUtil;
+
+	private final ObjectMapper objectMapper;
+
+	/** NULL when sessionRequestCacheTtlInSec is 0. **/
+	private final Cache<Key, SessionRequest> cache;
+
+	public SessionRequestService(
+			ConfigurationService configurationService,
+			KeyService keyService,
+			JwtUtil jwtUtil,
+			ObjectMapper objectMapper
+	) {
+		this.keyService = keyService;
+		this.jwtUtil = jwtUtil;
+		this.objectMapper = objectMapper;
+
+		int ttlInSec = configurationService.getConfiguration().getSessionRequestCacheTtlInSec();
+		this.cache = ttlInSec == 0 ? null : CacheBuilder.newBuilder()
+				.maximumSize(configurationService.getConfiguration().getSessionRequestCacheMaxEntries())
+				.expireAfterWrite(ttlInSec, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * @param host The IRMA host shown to the user, with {spName} resolved.
+	 * @param postfix The postfix of the IRMA server, with {spName} resolved.
+	 * @param condiscon The condiscon to disclose.
+	 * @param irmaPath The IRMA path of the IRMA server, of which the authMethod is used.
+	 * @return A disclosure session request.
+	 * @throws JsonProcessingException Thrown when the session request could not be written as JSON.
+	 */
+	public SessionRequest getSessionRequest(String host, String postfix, Condiscon condiscon, IrmaPath irmaPath)
+			throws JsonProcessingException {
+		if (this.cache == null) {
+			return this.createSessionRequest(host, condiscon, irmaPath);
+		}
+
+		Key key = new Key(host, postfix, condiscon, irmaPath.getAuthMethod(), irmaPath.getAuthKeyPath());
+		try {
+			return this.cache.get(key, () -> this.createSessionRequest(host, condiscon, irmaPath));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JsonProcessingException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private SessionRequest createSessionRequest(String host, Condiscon condiscon, IrmaPath irmaPath)
+			throws JsonProcessingException {
+		TreeMap<String, Object> content = new TreeMap<>();
+		content.put("@context", "https://irma.app/ld/request/disclosure/v2");
+		content.put("disclose", condiscon.getDiscons());
+		content.put("host", host);
+
+		TreeMap<String, Object> sprequest = new TreeMap<>();
+		sprequest.put("request", content);
+		sprequest.put("validity", 30); // Seconds that JWT session result is valid
+		// sprequest.put("timeout", 240); // Seconds that JWT session is valid before it
+		// times out
+
+		SessionRequest.SessionRequestBuilder builder = SessionRequest.builder()
+				.authMethod(irmaPath.getAuthMethod());
+		switch (irmaPath.getAuthMethod()) {
+			case HMAC:
+				// Sign with the key we share with the IRMA server
+				return builder
+						.body(this.jwtUtil.createHmacJwtToken(SUBJECT, CLAIM, sprequest,
+								this.keyService.getRequestorHmacKey(irmaPath)))
+						.build();
+			case TOKEN:
+				// The IRMA server trusts the request because of the token
+				return builder
+						.body(this.objectMapper.writeValueAsString(sprequest))
+						.authorization(this.keyService.getRequestorToken(irmaPath))
+						.build();
+			default:
+				// Sign with our private key
+				return builder
+						.body(this.jwtUtil.createJwtToken(SUBJECT, CLAIM, sprequest))
+						.build();
+		}
+	}
+
+	/** Condiscons are compared by their canonical JSON. **/
+	private record Key(String host, String postfix, Condiscon condiscon,
+			RequestorAuthMethod authMethod, String authKeyPath) {
+	}
+}
@@ -1,52 +1,59 @@
 package nl.sidn.irma.saml_bridge.service;
 
+import lombok.extern.slf4j.Slf4j;
 import net.shibboleth.shared.component.ComponentInitializationException;
-import net.shibboleth.shared.primitive.NonnullSupplier;
 import net.shibboleth.shared.resolver.CriteriaSet;
 import net.shibboleth.shared.resolver.ResolverException;
 import net.shibboleth.shared.xml.ParserPool;
-import nl.sidn.irma.saml_bridge.util.SignatureSecurityHandler;
-import org.opensaml.core.criterion.EntityIdCriterion;
-import org.opensaml.messaging.context.MessageContext;
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import nl.sidn.irma.saml_bridge.util.RedirectSignatureVerifier;
+import org.opensaml.core.xml.XMLObject;
 import org.opensaml.messaging.handler.MessageHandlerException;
-import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
-import org.opensaml.saml.common.messaging.context.SAMLProtocolContext;
 import org.opensaml.saml.common.xml.SAMLConstants;
-import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
+import org.opensaml.saml.ext.saml2alg.SigningMethod;
 import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
-import org.opensaml.saml.metadata.resolver.impl.PredicateRoleDescriptorResolver;
+import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.opensaml.saml.saml2.metadata.KeyDescriptor;
 import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
-import org.opensaml.saml.security.impl.MetadataCredentialResolver;
-import org.opensaml.xmlsec.SignatureValidationParameters;
-import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
 import org.opensaml.xmlsec.keyinfo.impl.BasicProviderKeyInfoCredentialResolver;
 import org.opensaml.xmlsec.keyinfo.impl.KeyInfoProvider;
 import org.opensaml.xmlsec.keyinfo.impl.provider.DEREncodedKeyValueProvider;
 import org.opensaml.xmlsec.keyinfo.impl.provider.DSAKeyValueProvider;
 import org.opensaml.xmlsec.keyinfo.impl.provider.InlineX509DataProvider;
 import org.opensaml.xmlsec.keyinfo.impl.provider.RSAKeyValueProvider;
-import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PreDestroy;
-import jakarta.servlet.http.HttpServletRequest;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.StreamSupport;
 
 /**
  * Service that reads in all metadata files, from the directory as indicated in
  * the configuration file,
- * and initializes an OpenSAML Signature Trust Engine set to use the public keys
+ * and verifies the signatures of SAML requests with the public keys
  * listed in those metadata files.
  * 
  * Uses the EntityID in the metadata file and the Issuer-field from a SAML
  * Authnrequest to figure out which public
  * key is used. The public key may be in DER, DSA, RSA or X509-formats.
+ * 
+ * All Service Providers are indexed on their EntityID when the metadata is loaded,
+ * so the signing keys of an issuer are resolved with a single lookup
+ * instead of walking the metadata resolvers for every request.
  */
+@Slf4j
 @Service
 @DependsOn("OpenSamlService")
 public class SignatureValidationService {
@@ -55,13 +62,14 @@ public class SignatureValidationService {
 
 	private final ParserPool parserPool;
 
-	// The signature trust engine that is used to select the proper key/metadata.
-	private ExplicitKeySignatureTrustEngine signatureTrustEngine;
+	// The verifier of HTTP-Redirect simple signatures, shared by all requests.
+	private RedirectSignatureVerifier signatureVerifier;
 
 	// The filesystem resolvers that are currently active.
 	private ArrayList<FilesystemMetadataResolver> resolvers = new ArrayList<>();
 
-	private ChainingMetadataResolver metadataResolver;
+	// All Service Providers from the metadata files, by EntityID.
+	private Map<String, ServiceProvider> serviceProviders;
 
 	public SignatureValidationService(
 			ConfigurationService configurationService,
@@ -72,9 +80,9 @@ public class SignatureValidationService {
 	}
 
 	/**
-	 * Initialize the signature validation service by loading the metadatafiles, and
-	 * initializing
-	 * the underlying signature trust engine.
+	 * Initialize the signature validation service by loading the metadatafiles,
+	 * indexing the Service Providers in them, and initializing
+	 * the underlying signature verifier.
 	 * 
 	 * @throws ResolverException
 	 * @throws ComponentInitializationException
@@ -93,11 +101,6 @@ public class SignatureValidationService {
 			this.resolvers.add(fs);
 		}
 
-		this.metadataResolver = new ChainingMetadataResolver();
-		this.metadataResolver.setId("chaining-metadataresolver");
-		this.metadataResolver.setResolvers(this.resolvers);
-		this.metadataResolver.initialize();
-
 		ArrayList<KeyInfoProvider> kips = new ArrayList<>();
 		kips.add(new DEREncodedKeyValueProvider());
 		kips.add(new DSAKeyValueProvider());
@@ -106,17 +109,98 @@ public class SignatureValidationService {
 
 		BasicProviderKeyInfoCredentialResolver kicr = new BasicProviderKeyInfoCredentialResolver(kips);
 
-		PredicateRoleDescriptorResolver rd = new PredicateRoleDescriptorResolver(this.metadataResolver);
-		rd.initialize();
+		this.serviceProviders = indexServiceProviders(kicr);
+
+		this.signatureVerifier = new RedirectSignatureVerifier(this.serviceProviders::get);
+	}
+
+	/**
+	 * Index the SAML 2.0 Service Providers of all loaded metadata files on their EntityID.
+	 * When an EntityID occurs in multiple files, the first file wins, as it would when chaining the resolvers.
+	 * 
+	 * @param kicr Resolver used to extract the public keys from the KeyInfo of the key descriptors.
+	 * @return An immutable map from EntityID to Service Provider.
+	 * @throws ResolverException
+	 */
+	private Map<String, ServiceProvider> indexServiceProviders(KeyInfoCredentialResolver kicr) throws ResolverException {
+		Map<String, ServiceProvider> index = new HashMap<>();
 
-		MetadataCredentialResolver resolver = new MetadataCredentialResolver();
-		resolver.setKeyInfoCredentialResolver(kicr);
-		resolver.setRoleDescriptorResolver(rd);
-		resolver.initialize();
+		for (FilesystemMetadataResolver resolver : this.resolvers) {
+			for (EntityDescriptor entityDescriptor : resolver) {
+				SPSSODescriptor spssoDescriptor = entityDescriptor.getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+				if (spssoDescriptor == null || index.containsKey(entityDescriptor.getEntityID())) {
+					continue;
+				}
+
+				List<Credential> signingCredentials = new ArrayList<>();
+				for (KeyDescriptor keyDescriptor : spssoDescriptor.getKeyDescriptors()) {
+					UsageType use = keyDescriptor.getUse();
+					if (keyDescriptor.getKeyInfo() == null
+							|| (use != null && use != UsageType.SIGNING && use != UsageType.UNSPECIFIED)) {
+						continue;
+					}
+
+					for (Credential credential : kicr.resolve(new CriteriaSet(new KeyInfoCriterion(keyDescriptor.getKeyInfo())))) {
+						if (credential.getPublicKey() != null) {
+							BasicCredential signingCredential = new BasicCredential(credential.getPublicKey());
+							signingCredential.setEntityId(entityDescriptor.getEntityID());
+							signingCredential.setUsageType(UsageType.SIGNING);
+							signingCredentials.add(signingCredential);
+						}
+					}
+				}
+
+				index.put(entityDescriptor.getEntityID(), ServiceProvider.builder()
+						.entityId(entityDescriptor.getEntityID())
+						.signingCredentials(List.copyOf(signingCredentials))
+						.spssoDescriptor(spssoDescriptor)
+						.redirectAssertionConsumerServiceUrl(findRedirectAssertionConsumerService(spssoDescriptor))
+						.signingMethods(findSigningMethods(entityDescriptor, spssoDescriptor))
+						.build());
+			}
+		}
+
+		log.info("action=\"initialize\", Indexed {} service providers from path=\"{}\"",
+				index.size(), this.configurationService.getConfiguration().getSamlMetadataPath());
+		return Map.copyOf(index);
+	}
+
+	/**
+	 * @param spssoDescriptor The SP role descriptor of a Service Provider.
+	 * @return The location of the first AssertionConsumerService with the HTTP-Redirect binding, or null.
+	 */
+	private static String findRedirectAssertionConsumerService(SPSSODescriptor spssoDescriptor) {
+		for (AssertionConsumerService assertionConsumerService : spssoDescriptor.getAssertionConsumerServices()) {
+			if (SAMLConstants.SAML2_REDIRECT_BINDING_URI.equals(assertionConsumerService.getBinding())) {
+				return assertionConsumerService.getLocation();
+			}
+		}
 
-		this.signatureTrustEngine = new ExplicitKeySignatureTrustEngine(
-				resolver,
-				kicr);
+		return null;
+	}
+
+	/**
+	 * Collect the signature algorithms a Service Provider supports, as listed by the SAML V2.0 Metadata
+	 * Profile for Algorithm Support in the extensions of its SP role descriptor and of its entity descriptor.
+	 *
+	 * @return The algorithms in the order they are listed, the role descriptor first. Empty when none are listed.
+	 */
+	private static List<String> findSigningMethods(EntityDescriptor entityDescriptor, SPSSODescriptor spssoDescriptor) {
+		List<String> signingMethods = new ArrayList<>();
+		for (Extensions extensions : new Extensions[] {spssoDescriptor.getExtensions(), entityDescriptor.getExtensions()}) {
+			if (extensions == null) {
+				continue;
+			}
+
+			for (XMLObject object : extensions.getUnknownXMLObjects(SigningMethod.DEFAULT_ELEMENT_NAME)) {
+				String algorithm = ((SigningMethod) object).getAlgorithm();
+				if (algorithm != null && !signingMethods.contains(algorithm)) {
+					signingMethods.add(algorithm);
+				}
+			}
+		}
+
+		return List.copyOf(signingMethods);
 	}
 
 	/**
@@ -131,53 +215,22 @@ public class SignatureValidationService {
 	}
 
 	/**
-	 * Check the signature on the SAML2 HTTP message.
-	 * 
-	 * Suppress warning due to message context invocation when type parameter is not
-	 * known upstream.
+	 * @param entityId The EntityID of a Service Provider.
+	 * @return The indexed Service Provider, or null if it is not in any of the metadata files.
+	 */
+	public ServiceProvider findServiceProvider(String entityId) {
+		return entityId == null ? null : this.serviceProviders.get(entityId);
+	}
+
+	/**
+	 * Check the simple signature of a SAML2 HTTP-Redirect message against the signing keys of its issuer.
 	 * 
-	 * @param request
-	 * @param messageContext
-	 * @throws ComponentInitializationException
+	 * @param queryString The raw query string of the request.
+	 * @param issuer The Issuer of the decoded message.
+	 * @return The Service Provider that signed the message.
 	 * @throws MessageHandlerException
-	 * @throws ResolverException
 	 */
-	public EntityDescriptor verifySignature(HttpServletRequest request, MessageContext messageContext)
-			throws ComponentInitializationException, MessageHandlerException, ResolverException {
-		SignatureValidationParameters sigValParams = new SignatureValidationParameters();
-		sigValParams.setSignatureTrustEngine(signatureTrustEngine);
-
-		SignatureSecurityHandler signatureHandler = new SignatureSecurityHandler();
-		signatureHandler.setHttpServletRequestSupplier(NonnullSupplier.of(request));
-		signatureHandler.initialize();
-
-		Objects.requireNonNull(messageContext.getSubcontext(SAMLPeerEntityContext.class, true))
-				.setRole(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
-		Objects.requireNonNull(messageContext.getSubcontext(SAMLProtocolContext.class, true))
-				.setProtocol(SAMLConstants.SAML20P_NS);
-		Objects.requireNonNull(messageContext.getSubcontext(SecurityParametersContext.class, true))
-				.setSignatureValidationParameters(sigValParams);
-
-		signatureHandler.invoke(messageContext);
-
-		SAMLPeerEntityContext samlPeerEntityContext = messageContext.getSubcontext(SAMLPeerEntityContext.class);
-
-		// Unfortunately the SignatureHandler lets messages with no signature or
-		// malformed signatures pass.
-		// Double-check that the handler has vouched for this message.
-		assert samlPeerEntityContext != null;
-		if (!samlPeerEntityContext.isAuthenticated()) {
-			throw new MessageHandlerException("Message not authenticated");
-		}
-
-		String entityId = samlPeerEntityContext.getEntityId();
-		CriteriaSet criteriaSet = new CriteriaSet();
-		assert entityId != null;
-		criteriaSet.add(new EntityIdCriterion(entityId));
-		Iterable<EntityDescriptor> descriptorIterable = metadataResolver.resolve(criteriaSet);
-		if (StreamSupport.stream(descriptorIterable.spliterator(), false).findAny().isPresent()) {
-			return descriptorIterable.iterator().next();
-		}
-		throw new MessageHandlerException("Message somehow not related to a metadata file");
+	public ServiceProvider verifySignature(String queryString, String issuer) throws MessageHandlerException {
+		return this.signatureVerifier.verify(queryString, issuer);
 	}
 }
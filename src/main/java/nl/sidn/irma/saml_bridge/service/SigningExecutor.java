@@ -0,0 +1,173 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nl.sidn.irma.saml_bridge.exception.BridgeException;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A service that signs SAML responses on a dedicated pool of threads, so that bursts of assertions
+ * cannot take the CPU from the request threads handling /request.
+ *
+ * The pool has signingThreads threads and a queue of signingQueueCapacity. A response that cannot be
+ * queued, or that waited longer than signingQueueTimeoutInMs before signing started, fails fast with
+ * 503 Service Unavailable. Once signing has started the caller waits for it to complete.
+ */
+@Slf4j
+@Service
+public class SigningExecutor {
+	private static final int QUEUED = 0;
+	private static final int STARTED = 1;
+	private static final int ABANDONED = 2;
+
+	private final ThreadPoolExecutor executor;
+
+	private final long queueTimeoutInMs;
+
+	private final Timer queueWaitTimer;
+
+	private final Timer signingTimer;
+
+	private final Counter fullCounter;
+
+	private final Counter timeoutCounter;
+
+	/**
+	 * Work to be done on a signing thread.
+	 */
+	@FunctionalInterface
+	public interface SigningTask<T> {
+		T run() throws BridgeException;
+	}
+
+	public SigningExecutor(
+			ConfigurationService configurationService,
+			MeterRegistry meterRegistry) {
+		Configuration configuration = configurationService.getConfiguration();
+		int threads = configuration.getSigningThreads() > 0
+				? configuration.getSigningThreads()
+				: Runtime.getRuntime().availableProcessors();
+		this.queueTimeoutInMs = configuration.getSigningQueueTimeoutInMs();
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(configuration.getSigningQueueCapacity()),
+				runnable -> {
+					Thread thread = new Thread(runnable, "saml-signing-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+
+		Gauge.builder("saml.signing.queue.depth", this.executor, executor -> executor.getQueue().size())
+				.description("SAML responses waiting to be signed")
+				.register(meterRegistry);
+		Gauge.builder("saml.signing.threads", this.executor, ThreadPoolExecutor::getMaximumPoolSize)
+				.description("Threads signing SAML responses")
+				.register(meterRegistry);
+		this.queueWaitTimer = Timer.builder("saml.signing.queue.wait")
+				.description("Time SAML responses waited before they were signed")
+				.register(meterRegistry);
+		this.signingTimer = Timer.builder("saml.signing.duration")
+				.description("Time taken to create and sign SAML responses")
+				.register(meterRegistry);
+		this.fullCounter = Counter.builder("saml.signing.rejections")
+				.description("SAML responses not signed because the signing queue was busy")
+				.tag("reason", "full")
+				.register(meterRegistry);
+		this.timeoutCounter = Counter.builder("saml.signing.rejections")
+				.description("SAML responses not signed because the signing queue was busy")
+				.tag("reason", "timeout")
+				.register(meterRegistry);
+
+		log.info("action=\"initialize\", Signing SAML responses with threads=\"{}\", queueCapacity=\"{}\"",
+				threads, configuration.getSigningQueueCapacity());
+	}
+
+	/**
+	 * Run a task on a signing thread and wait for its result.
+	 *
+	 * @param task The task, which creates and signs a SAML response.
+	 * @return The result of the task.
+	 * @throws BridgeException Thrown by the task, or with status 503 when the signing queue is busy.
+	 */
+	public <T> T execute(SigningTask<T> task) throws BridgeException {
+		AtomicInteger state = new AtomicInteger(QUEUED);
+		long queuedAt = System.nanoTime();
+
+		FutureTask<T> future = new FutureTask<>(() -> {
+			// Do not sign for a caller that already gave up.
+			if (!state.compareAndSet(QUEUED, STARTED)) {
+				return null;
+			}
+			long startedAt = System.nanoTime();
+			this.queueWaitTimer.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+			try {
+				return task.run();
+			} finally {
+				this.signingTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+			}
+		});
+
+		try {
+			this.executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			this.fullCounter.increment();
+			log.warn("action=\"signing.execute\", warning=\"Signing queue is full\"");
+			throw new BridgeException(HttpStatus.SERVICE_UNAVAILABLE, "Too many responses are being signed, try again later");
+		}
+
+		try {
+			try {
+				return future.get(this.queueTimeoutInMs, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				if (state.compareAndSet(QUEUED, ABANDONED)) {
+					// Free its place in the queue.
+					this.executor.remove(future);
+					this.timeoutCounter.increment();
+					log.warn("action=\"signing.execute\", warning=\"Signing did not start within the queue timeout\"");
+					throw new BridgeException(HttpStatus.SERVICE_UNAVAILABLE, "Too many responses are being signed, try again later");
+				}
+				// Signing has started, so it will complete shortly.
+				return future.get();
+			}
+		} catch (InterruptedException e) {
+			if (state.compareAndSet(QUEUED, ABANDONED)) {
+				this.executor.remove(future);
+			}
+			Thread.currentThread().interrupt();
+			throw new BridgeException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted while waiting for the signature");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof BridgeException bridgeException) {
+				throw bridgeException;
+			}
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Signing failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stop the signing threads.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+}
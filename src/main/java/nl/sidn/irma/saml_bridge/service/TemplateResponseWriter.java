@@ -0,0 +1,532 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import net.shibboleth.shared.xml.DOMTypeSupport;
+import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import nl.sidn.irma.saml_bridge.model.RequestError;
+import nl.sidn.irma.saml_bridge.model.ResultStatus;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes signed SAML responses straight from a template, as an alternative to building, marshalling,
+ * signing and serializing an OpenSAML object tree with {@link OpenSamlService}, which remains the
+ * reference implementation.
+ *
+ * The response is written in its exclusive canonical form, with the namespace prefixes OpenSAML uses.
+ * Canonicalizing it changes nothing, so the bytes written are the bytes covered by its enveloped
+ * signature, and they are digested while they are written. Only the Signature, which is excluded from
+ * its own digest, is inserted after the Issuer once the response is complete.
+ */
+@Service
+public class TemplateResponseWriter {
+	/** Buffers that grew beyond this size, i.e. for an exceptionally large disclosure, are not kept. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+	/** Written bytes are digested in chunks of this size, or at the end of the response. */
+	private static final int DIGEST_CHUNK_SIZE = 4 * 1024;
+
+	private static final String XSD_NS = "http://www.w3.org/2001/XMLSchema";
+
+	private static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
+
+	private static final String EC_NS = "http://www.w3.org/2001/10/xml-exc-c14n#";
+
+	private static final String AUTHN_CONTEXT_CLASS_REF = "urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport";
+
+	private static final byte[] XML_DECLARATION = ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+
+	private static final byte[] RESPONSE_START = ascii("<saml2p:Response xmlns:saml2p=\"" + SAMLConstants.SAML20P_NS + "\"");
+	private static final byte[] DESTINATION = ascii(" Destination=\"");
+	private static final byte[] ID = ascii(" ID=\"");
+	private static final byte[] IN_RESPONSE_TO = ascii(" InResponseTo=\"");
+	private static final byte[] ISSUE_INSTANT = ascii(" IssueInstant=\"");
+	private static final byte[] VERSION = ascii(" Version=\"2.0\">");
+	private static final byte[] QUOTE = ascii("\"");
+	private static final byte[] RESPONSE_END = ascii("</saml2p:Response>");
+
+	private static final byte[] ISSUER_START = ascii("<saml2:Issuer xmlns:saml2=\"" + SAMLConstants.SAML20_NS + "\">");
+	private static final byte[] NESTED_ISSUER_START = ascii("<saml2:Issuer>");
+	private static final byte[] ISSUER_END = ascii("</saml2:Issuer>");
+
+	private static final byte[] STATUS_SUCCESS = ascii("<saml2p:Status>"
+			+ "<saml2p:StatusCode Value=\"" + StatusCode.SUCCESS + "\"></saml2p:StatusCode>"
+			+ "</saml2p:Status>");
+	private static final byte[] STATUS_FAILED_START = ascii("<saml2p:Status>"
+			+ "<saml2p:StatusCode Value=\"" + StatusCode.RESPONDER + "\">"
+			+ "<saml2p:StatusCode Value=\"" + StatusCode.AUTHN_FAILED + "\"></saml2p:StatusCode>"
+			+ "</saml2p:StatusCode>"
+			+ "<saml2p:StatusMessage>");
+	private static final byte[] STATUS_FAILED_END = ascii("</saml2p:StatusMessage></saml2p:Status>");
+
+	private static final byte[] ASSERTION_START = ascii("<saml2:Assertion xmlns:saml2=\"" + SAMLConstants.SAML20_NS + "\" ID=\"");
+	private static final byte[] ASSERTION_END = ascii("</saml2:Assertion>");
+	private static final byte[] SUBJECT_START = ascii("<saml2:Subject>");
+	private static final byte[] NAME_ID_START = ascii("<saml2:NameID Format=\"" + NameID.TRANSIENT + "\">");
+	private static final byte[] NAME_ID_END = ascii("</saml2:NameID>");
+	private static final byte[] SUBJECT_CONFIRMATION_START = ascii("<saml2:SubjectConfirmation Method=\""
+			+ SubjectConfirmation.METHOD_BEARER + "\"><saml2:SubjectConfirmationData");
+	private static final byte[] NOT_BEFORE = ascii(" NotBefore=\"");
+	private static final byte[] NOT_ON_OR_AFTER = ascii(" NotOnOrAfter=\"");
+	private static final byte[] RECIPIENT = ascii(" Recipient=\"");
+	private static final byte[] SUBJECT_CONFIRMATION_END = ascii(">"
+			+ "</saml2:SubjectConfirmationData></saml2:SubjectConfirmation></saml2:Subject>");
+	private static final byte[] CONDITIONS_START = ascii("<saml2:Conditions");
+	private static final byte[] AUDIENCE_START = ascii("><saml2:AudienceRestriction><saml2:Audience>");
+	private static final byte[] CONDITIONS_END = ascii("</saml2:Audience></saml2:AudienceRestriction></saml2:Conditions>");
+	private static final byte[] ATTRIBUTE_STATEMENT_START = ascii("<saml2:AttributeStatement>");
+	private static final byte[] ATTRIBUTE_START = ascii("<saml2:Attribute Name=\"");
+	private static final byte[] ATTRIBUTE_VALUE_START = ascii("\"><saml2:AttributeValue xmlns:xsd=\"" + XSD_NS
+			+ "\" xmlns:xsi=\"" + XSI_NS + "\" xsi:type=\"xsd:string\">");
+	private static final byte[] ATTRIBUTE_END = ascii("</saml2:AttributeValue></saml2:Attribute>");
+	private static final byte[] ATTRIBUTE_STATEMENT_END = ascii("</saml2:AttributeStatement>");
+	private static final byte[] AUTHN_STATEMENT_START = ascii("<saml2:AuthnStatement AuthnInstant=\"");
+	private static final byte[] AUTHN_STATEMENT_END = ascii("\"><saml2:AuthnContext><saml2:AuthnContextClassRef>"
+			+ AUTHN_CONTEXT_CLASS_REF + "</saml2:AuthnContextClassRef></saml2:AuthnContext></saml2:AuthnStatement>");
+
+	private static final byte[] SIGNATURE_START = ascii("<ds:Signature xmlns:ds=\"" + SignatureConstants.XMLSIG_NS + "\">");
+	private static final byte[] SIGNED_INFO_START = ascii("<ds:SignedInfo xmlns:ds=\"" + SignatureConstants.XMLSIG_NS + "\">"
+			+ "<ds:CanonicalizationMethod Algorithm=\"" + SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS + "\"></ds:CanonicalizationMethod>"
+			+ "<ds:SignatureMethod Algorithm=\"");
+	private static final byte[] SIGNED_INFO_REFERENCE = ascii("\"></ds:SignatureMethod>"
+			+ "<ds:Reference URI=\"#");
+	private static final byte[] SIGNED_INFO_DIGEST = ascii("\"><ds:Transforms>"
+			+ "<ds:Transform Algorithm=\"" + SignatureConstants.TRANSFORM_ENVELOPED_SIGNATURE + "\"></ds:Transform>"
+			+ "<ds:Transform Algorithm=\"" + SignatureConstants.TRANSFORM_C14N_EXCL_OMIT_COMMENTS + "\">"
+			+ "<ec:InclusiveNamespaces xmlns:ec=\"" + EC_NS + "\" PrefixList=\"xsd\"></ec:InclusiveNamespaces>"
+			+ "</ds:Transform></ds:Transforms>"
+			+ "<ds:DigestMethod Algorithm=\"" + SignatureConstants.ALGO_ID_DIGEST_SHA256 + "\"></ds:DigestMethod>"
+			+ "<ds:DigestValue>");
+	private static final byte[] SIGNED_INFO_END = ascii("</ds:DigestValue></ds:Reference></ds:SignedInfo>");
+	private static final byte[] SIGNATURE_VALUE_START = ascii("<ds:SignatureValue>");
+	private static final byte[] SIGNATURE_VALUE_END = ascii("</ds:SignatureValue>");
+	private static final byte[] SIGNATURE_END = ascii("</ds:Signature>");
+
+	private final boolean enabled;
+
+	private final int responseTtlInSec;
+
+	private final KeyService keyService;
+
+	private final IdGenerator idGenerator;
+
+	/** The canonical Issuer of the response. **/
+	private final byte[] issuer;
+
+	/** The canonical Issuer of the assertion, which inherits the saml2 namespace. **/
+	private final byte[] nestedIssuer;
+
+	/** The canonical KeyInfo with the certificate of each of our signing keys. **/
+	private final Map<SigningKey, byte[]> keyInfos = new ConcurrentHashMap<>();
+
+	private final ThreadLocal<Buffer> responseBuffers = ThreadLocal.withInitial(() -> new Buffer(sha256()));
+
+	private final ThreadLocal<Buffer> signatureBuffers = ThreadLocal.withInitial(() -> new Buffer(null));
+
+	/** Signature engines by their algorithm. **/
+	private final ThreadLocal<Map<String, java.security.Signature>> signers = ThreadLocal.withInitial(HashMap::new);
+
+	private Clock clock = Clock.systemDefaultZone();
+
+	public TemplateResponseWriter(ConfigurationService configurationService, KeyService keyService,
+			IdGenerator idGenerator) throws MarshallingException {
+		this.enabled = configurationService.getConfiguration().isTemplateResponses();
+		this.responseTtlInSec = configurationService.getConfiguration().getResponseTtlInSec();
+		this.keyService = keyService;
+		this.idGenerator = idGenerator;
+
+		String issuerName = configurationService.getConfiguration().getIssuerName();
+		this.issuer = fragment(ISSUER_START, issuerName, ISSUER_END);
+		this.nestedIssuer = fragment(NESTED_ISSUER_START, issuerName, ISSUER_END);
+		for (SigningKey signingKey : keyService.getSamlSigningKeys()) {
+			this.keyInfos.put(signingKey, keyInfo(signingKey));
+		}
+	}
+
+	/**
+	 * @return Whether responses should be written by this writer, as configured with templateResponses.
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Write a SAML assertion response and sign it with our default SAML key.
+	 *
+	 * @see #write(AssertParameters, Disclosure, ResultStatus, SigningKey)
+	 */
+	public byte[] write(AssertParameters assertParameters, Disclosure disclosure, final ResultStatus resultStatus)
+			throws MarshallingException, SignatureException {
+		return this.write(assertParameters, disclosure, resultStatus, this.keyService.getSamlSigningKey());
+	}
+
+	/**
+	 * Write and sign a SAML assertion response, equal to the one {@link OpenSamlService} creates and
+	 * marshalls for the same arguments apart from its random identifiers.
+	 *
+	 * @param assertParameters The assertion parameters including the intended recipient for our assertion.
+	 * @param disclosure       The disclosure as done by IRMA. May be NULL when status is not SUCCESS.
+	 * @param resultStatus     The status of the result.
+	 * @param signingKey       The key to sign with, as selected for the Service Provider by the {@link KeyService}.
+	 * @return The UTF-8 encoded XML document containing the signed SAML assertion.
+	 * @throws MarshallingException Thrown when a value contains characters that cannot occur in XML.
+	 * @throws SignatureException
+	 */
+	public byte[] write(AssertParameters assertParameters, Disclosure disclosure, final ResultStatus resultStatus,
+			SigningKey signingKey) throws MarshallingException, SignatureException {
+		// The same instants as OpenSamlService#createAssertionResponse, formatted the way OpenSAML does.
+		Instant now = LocalDateTime.now(this.clock).toInstant(ZoneOffset.UTC);
+		String issueInstant = DOMTypeSupport.instantToString(now);
+		String notOnOrAfter = DOMTypeSupport.instantToString(now.plusSeconds(this.responseTtlInSec));
+
+		String id = this.idGenerator.generateId();
+
+		Buffer response = this.responseBuffers.get();
+		response.reset();
+
+		// Attributes in canonical order, i.e. sorted by name.
+		response.write(RESPONSE_START);
+		if (assertParameters.getServiceUrl() != null) {
+			response.write(DESTINATION);
+			response.writeAttributeValue(assertParameters.getServiceUrl());
+			response.write(QUOTE);
+		}
+		response.write(ID);
+		response.writeAttributeValue(id);
+		response.write(QUOTE);
+		if (assertParameters.getRequestId() != null) {
+			response.write(IN_RESPONSE_TO);
+			response.writeAttributeValue(assertParameters.getRequestId());
+			response.write(QUOTE);
+		}
+		response.write(ISSUE_INSTANT);
+		response.writeAttributeValue(issueInstant);
+		response.write(QUOTE);
+		response.write(VERSION);
+		response.write(this.issuer);
+
+		int signatureOffset = response.size();
+
+		if (resultStatus == ResultStatus.SUCCESS) {
+			response.write(STATUS_SUCCESS);
+			this.writeAssertion(response, assertParameters, disclosure, issueInstant, notOnOrAfter);
+		} else if (resultStatus == ResultStatus.FAILED) {
+			// Add errormessage, see IRMA-1184
+			RequestError requestError = assertParameters.getRequestError();
+			response.write(STATUS_FAILED_START);
+			if (requestError != null && requestError.getMessage() != null) {
+				response.writeText(requestError.getMessage());
+			}
+			response.write(STATUS_FAILED_END);
+		}
+		response.write(RESPONSE_END);
+
+		byte[] signature = this.writeSignature(id, response.digest(), signingKey);
+
+		byte[] result = new byte[XML_DECLARATION.length + response.size() + signature.length];
+		System.arraycopy(XML_DECLARATION, 0, result, 0, XML_DECLARATION.length);
+		response.copyTo(0, result, XML_DECLARATION.length, signatureOffset);
+		System.arraycopy(signature, 0, result, XML_DECLARATION.length + signatureOffset, signature.length);
+		response.copyTo(signatureOffset, result, XML_DECLARATION.length + signatureOffset + signature.length,
+				response.size() - signatureOffset);
+
+		if (response.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+			this.responseBuffers.remove();
+		}
+		return result;
+	}
+
+	private void writeAssertion(Buffer response, AssertParameters assertParameters, Disclosure disclosure,
+			String issueInstant, String notOnOrAfter) throws MarshallingException {
+		// Our assertion ID refers to the IRMA session.
+		response.write(ASSERTION_START);
+		if (disclosure.getToken() != null) {
+			response.writeAttributeValue(this.idGenerator.fromToken(disclosure.getToken()));
+		} else {
+			response.writeAttributeValue(this.idGenerator.generateId());
+		}
+		response.write(QUOTE);
+		response.write(ISSUE_INSTANT);
+		response.writeAttributeValue(issueInstant);
+		response.write(QUOTE);
+		response.write(VERSION);
+		response.write(this.nestedIssuer);
+
+		// Set nameID to first attribute, assuming we have such and attribute.
+		response.write(SUBJECT_START);
+		for (Map.Entry<String, String> entry : disclosure.getAttributes().entrySet()) {
+			response.write(NAME_ID_START);
+			response.writeText(entry.getValue());
+			response.write(NAME_ID_END);
+			break;
+		}
+		response.write(SUBJECT_CONFIRMATION_START);
+		if (assertParameters.getRequestId() != null) {
+			response.write(IN_RESPONSE_TO);
+			response.writeAttributeValue(assertParameters.getRequestId());
+			response.write(QUOTE);
+		}
+		response.write(NOT_ON_OR_AFTER);
+		response.writeAttributeValue(notOnOrAfter);
+		response.write(QUOTE);
+		if (assertParameters.getServiceUrl() != null) {
+			response.write(RECIPIENT);
+			response.writeAttributeValue(assertParameters.getServiceUrl());
+			response.write(QUOTE);
+		}
+		response.write(SUBJECT_CONFIRMATION_END);
+
+		response.write(CONDITIONS_START);
+		response.write(NOT_BEFORE);
+		response.writeAttributeValue(issueInstant);
+		response.write(QUOTE);
+		response.write(NOT_ON_OR_AFTER);
+		response.writeAttributeValue(notOnOrAfter);
+		response.write(QUOTE);
+		response.write(AUDIENCE_START);
+		response.writeText(assertParameters.getIssuer());
+		response.write(CONDITIONS_END);
+
+		// OpenSAML keeps the statements in the order they were added: attributes first.
+		response.write(ATTRIBUTE_STATEMENT_START);
+		for (Map.Entry<String, String> entry : disclosure.getAttributes().entrySet()) {
+			response.write(ATTRIBUTE_START);
+			response.writeAttributeValue(entry.getKey());
+			response.write(ATTRIBUTE_VALUE_START);
+			response.writeText(entry.getValue());
+			response.write(ATTRIBUTE_END);
+		}
+		response.write(ATTRIBUTE_STATEMENT_END);
+
+		response.write(AUTHN_STATEMENT_START);
+		response.writeAttributeValue(issueInstant);
+		response.write(AUTHN_STATEMENT_END);
+
+		response.write(ASSERTION_END);
+	}
+
+	/**
+	 * Write the Signature over a response, given the digest of its canonical form.
+	 *
+	 * @return The Signature element.
+	 * @throws SignatureException
+	 * @throws MarshallingException
+	 */
+	private byte[] writeSignature(String id, byte[] digest, SigningKey signingKey)
+			throws SignatureException, MarshallingException {
+		Buffer signature = this.signatureBuffers.get();
+		signature.reset();
+
+		// The SignedInfo is written in its canonical form as well, so it is signed as written.
+		signature.write(SIGNATURE_START);
+		signature.write(SIGNED_INFO_START);
+		signature.writeAttributeValue(signingKey.getSignatureAlgorithm());
+		signature.write(SIGNED_INFO_REFERENCE);
+		signature.writeAttributeValue(id);
+		signature.write(SIGNED_INFO_DIGEST);
+		signature.write(ascii(Base64.getEncoder().encodeToString(digest)));
+		signature.write(SIGNED_INFO_END);
+
+		byte[] signatureValue;
+		try {
+			java.security.Signature signer = this.signers.get().get(signingKey.getJcaAlgorithm());
+			if (signer == null) {
+				signer = java.security.Signature.getInstance(signingKey.getJcaAlgorithm());
+				this.signers.get().put(signingKey.getJcaAlgorithm(), signer);
+			}
+			signer.initSign(signingKey.getCredential().getPrivateKey());
+			signer.update(signature.bytes, SIGNATURE_START.length, signature.size() - SIGNATURE_START.length);
+			signatureValue = signer.sign();
+		} catch (GeneralSecurityException e) {
+			throw new SignatureException("Failed to sign the response", e);
+		}
+
+		signature.write(SIGNATURE_VALUE_START);
+		signature.write(ascii(Base64.getEncoder().encodeToString(signatureValue)));
+		signature.write(SIGNATURE_VALUE_END);
+		signature.write(this.keyInfos.computeIfAbsent(signingKey, TemplateResponseWriter::keyInfo));
+		signature.write(SIGNATURE_END);
+
+		return Arrays.copyOf(signature.bytes, signature.size());
+	}
+
+	private static byte[] fragment(byte[] start, String value, byte[] end) throws MarshallingException {
+		Buffer buffer = new Buffer(null);
+		buffer.write(start);
+		buffer.writeText(value);
+		buffer.write(end);
+		return Arrays.copyOf(buffer.bytes, buffer.size());
+	}
+
+	private static byte[] keyInfo(SigningKey signingKey) {
+		return ascii("<ds:KeyInfo><ds:X509Data><ds:X509Certificate>" + signingKey.getCertificateBase64()
+				+ "</ds:X509Certificate></ds:X509Data></ds:KeyInfo>");
+	}
+
+	private static byte[] ascii(String markup) {
+		return markup.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * An output buffer that writes text as UTF-8, escaped as in canonical XML, and optionally digests
+	 * everything written to it.
+	 */
+	private static final class Buffer {
+		private final MessageDigest digest;
+
+		private byte[] bytes = new byte[8 * 1024];
+
+		private int size;
+
+		private int digested;
+
+		Buffer(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		void reset() {
+			this.size = 0;
+			this.digested = 0;
+			if (this.digest != null) {
+				this.digest.reset();
+			}
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		int capacity() {
+			return this.bytes.length;
+		}
+
+		void copyTo(int offset, byte[] target, int targetOffset, int length) {
+			System.arraycopy(this.bytes, offset, target, targetOffset, length);
+		}
+
+		/**
+		 * @return The digest of everything written since the last reset.
+		 */
+		byte[] digest() {
+			this.digest.update(this.bytes, this.digested, this.size - this.digested);
+			this.digested = this.size;
+			return this.digest.digest();
+		}
+
+		void write(byte[] markup) {
+			this.ensureCapacity(markup.length);
+			System.arraycopy(markup, 0, this.bytes, this.size, markup.length);
+			this.size += markup.length;
+			this.digestChunk();
+		}
+
+		void writeText(String text) throws MarshallingException {
+			this.writeEscaped(text, false);
+		}
+
+		void writeAttributeValue(String value) throws MarshallingException {
+			this.writeEscaped(value, true);
+		}
+
+		private void writeEscaped(String value, boolean attribute) throws MarshallingException {
+			if (value == null) {
+				return;
+			}
+			// Every char takes at most three bytes, or a six byte character reference.
+			this.ensureCapacity(value.length() * 6);
+
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '&') {
+					this.writeAscii("&amp;");
+				} else if (c == '<') {
+					this.writeAscii("&lt;");
+				} else if (c == '>' && !attribute) {
+					this.writeAscii("&gt;");
+				} else if (c == '"' && attribute) {
+					this.writeAscii("&quot;");
+				} else if (c == '\t' && attribute) {
+					this.writeAscii("&#x9;");
+				} else if (c == '\n' && attribute) {
+					this.writeAscii("&#xA;");
+				} else if (c == '\r') {
+					this.writeAscii("&#xD;");
+				} else if ((c < 0x20 && c != '\t' && c != '\n') || c == 0xFFFE || c == 0xFFFF) {
+					throw new MarshallingException("Value contains a character that cannot occur in XML");
+				} else if (c < 0x80) {
+					this.bytes[this.size++] = (byte) c;
+				} else if (c < 0x800) {
+					this.bytes[this.size++] = (byte) (0xC0 | (c >> 6));
+					this.bytes[this.size++] = (byte) (0x80 | (c & 0x3F));
+				} else if (!Character.isSurrogate(c)) {
+					this.bytes[this.size++] = (byte) (0xE0 | (c >> 12));
+					this.bytes[this.size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					this.bytes[this.size++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					this.bytes[this.size++] = (byte) (0xF0 | (codePoint >> 18));
+					this.bytes[this.size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					this.bytes[this.size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					this.bytes[this.size++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else {
+					throw new MarshallingException("Value contains an unpaired surrogate");
+				}
+			}
+			this.digestChunk();
+		}
+
+		private void writeAscii(String escaped) {
+			for (int i = 0; i < escaped.length(); i++) {
+				this.bytes[this.size++] = (byte) escaped.charAt(i);
+			}
+		}
+
+		private void ensureCapacity(int length) {
+			if (this.size + length > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + length));
+			}
+		}
+
+		private void digestChunk() {
+			if (this.digest != null && this.size - this.digested >= DIGEST_CHUNK_SIZE) {
+				this.digest.update(this.bytes, this.digested, this.size - this.digested);
+				this.digested = this.size;
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.io.AbstractDeserializer;
+import nl.sidn.irma.saml_bridge.model.DisclosedAttributes;
+
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Deserializes the JSON headers and payloads of JWTs with a streaming parser.
+ *
+ * The disclosed claim of IRMA session results is read straight into {@link DisclosedAttributes},
+ * instead of into a tree of lists and maps that is only thrown away after extracting the attributes.
+ * All other members are deserialized into the usual maps, lists, strings and numbers.
+ * Duplicate members are rejected, anywhere in the header or payload, as they were by org.json.
+ */
+public class ClaimsDeserializer extends AbstractDeserializer<Map<String, ?>> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION);
+
+    @Override
+    protected Map<String, ?> doDeserialize(Reader reader) throws Exception {
+        try (JsonParser parser = OBJECT_MAPPER.createParser(reader)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("disclosed".equals(name) && token == JsonToken.START_ARRAY) {
+                    result.put(name, DisclosedAttributes.read(parser));
+                } else {
+                    result.put(name, OBJECT_MAPPER.readValue(parser, Object.class));
+                }
+            }
+
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Unexpected content after JSON object");
+            }
+            return result;
+        }
+    }
+}
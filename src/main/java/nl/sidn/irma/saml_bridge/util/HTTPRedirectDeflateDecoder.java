@@ -25,15 +25,15 @@ package nl.sidn.irma.saml_bridge.util;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import jakarta.servlet.http.HttpServletRequest;
 
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
-import net.shibboleth.shared.codec.Base64Support;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.primitive.StringSupport;
 import net.shibboleth.shared.xml.ParserPool;
@@ -61,9 +61,41 @@ import com.google.common.base.Strings;
  * SAML 2.0 HTTP Redirect decoder using the DEFLATE encoding method.
  * 
  * This decoder only supports DEFLATE compression.
+ * 
+ * Unlike the OpenSAML original, the message is base64 decoded and inflated in a single streaming
+ * pass using a thread-confined {@link Inflater} and buffers, and both the compressed and the
+ * inflated size are capped, so deflate bombs are rejected before the XML parser sees them.
  */
 public class HTTPRedirectDeflateDecoder implements SAMLMessageDecoder {
 
+    /** Default maximum size of the compressed (base64 decoded) message in bytes. */
+    public static final int DEFAULT_MAX_COMPRESSED_SIZE = 16 * 1024;
+
+    /** Default maximum size of the inflated message in bytes. */
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 128 * 1024;
+
+    /** Size of the chunks of base64 decoded input that are handed to the inflater. */
+    private static final int CHUNK_SIZE = 1024;
+
+    /** Initial size of the inflate buffer, grown up to the maximum inflated size when needed. */
+    private static final int INITIAL_INFLATE_BUFFER_SIZE = 8 * 1024;
+
+    /** Inflater and buffers, confined to the request thread and reused across messages. */
+    private static final ThreadLocal<InflateBuffers> INFLATE_BUFFERS = ThreadLocal.withInitial(InflateBuffers::new);
+
+    /** Values of the base64 characters, accepting both the standard and the URL-safe alphabet. */
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = i;
+        }
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+
     /** Class logger. */
     @Nonnull
     private final Logger log = LoggerFactory.getLogger(HTTPRedirectDeflateDecoder.class);
@@ -93,6 +125,12 @@ public class HTTPRedirectDeflateDecoder implements SAMLMessageDecoder {
     /** Whether the decoder is destroyed */
     private boolean isDestroyed;
 
+    /** Maximum size of the compressed message in bytes. */
+    private int maxCompressedSize = DEFAULT_MAX_COMPRESSED_SIZE;
+
+    /** Maximum size of the inflated message in bytes. */
+    private int maxInflatedSize = DEFAULT_MAX_INFLATED_SIZE;
+
     /**
      * Constructor.
      */
@@ -148,6 +186,42 @@ public class HTTPRedirectDeflateDecoder implements SAMLMessageDecoder {
         httpServletRequest = request;
     }
 
+    /**
+     * Get the maximum size of the compressed (base64 decoded) message in bytes.
+     * 
+     * @return the maximum compressed size
+     */
+    public int getMaxCompressedSize() {
+        return maxCompressedSize;
+    }
+
+    /**
+     * Set the maximum size of the compressed (base64 decoded) message in bytes.
+     * 
+     * @param size the maximum compressed size
+     */
+    public void setMaxCompressedSize(final int size) {
+        maxCompressedSize = size;
+    }
+
+    /**
+     * Get the maximum size of the inflated message in bytes.
+     * 
+     * @return the maximum inflated size
+     */
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    /**
+     * Set the maximum size of the inflated message in bytes.
+     * 
+     * @param size the maximum inflated size
+     */
+    public void setMaxInflatedSize(final int size) {
+        maxInflatedSize = size;
+    }
+
     /** {@inheritDoc} */
     public void decode() throws MessageDecodingException {
         final MessageContext msgContext = new MessageContext();
@@ -214,24 +288,133 @@ public class HTTPRedirectDeflateDecoder implements SAMLMessageDecoder {
     /**
      * Base64 decodes the SAML message and then decompresses the message.
      * 
-     * @param message Base64 encoded, DEFALTE compressed, SAML message
+     * Decoding and inflating happen in one pass over the encoded message. The returned stream is
+     * backed by a buffer that is reused for the next message decoded on the same thread, so it
+     * must be consumed before then.
+     * 
+     * @param message Base64 encoded, DEFLATE compressed, SAML message
      * 
      * @return the SAML message
      * 
-     * @throws MessageDecodingException thrown if the message can not be decoded
+     * @throws MessageDecodingException thrown if the message can not be decoded, or exceeds the
+     *                                  maximum compressed or inflated size
      */
     protected InputStream decodeMessage(final String message) throws MessageDecodingException {
         log.debug("Base64 decoding and inflating SAML message");
 
+        // Every 4 base64 characters hold 3 bytes, so oversized messages are rejected before decoding.
+        if ((long) message.length() * 3 / 4 > maxCompressedSize + 2L) {
+            log.error("SAML message of {} base64 characters exceeds the maximum compressed size of {} bytes",
+                    message.length(), maxCompressedSize);
+            throw new MessageDecodingException("SAML message exceeds the maximum compressed size");
+        }
+
+        final InflateBuffers buffers = INFLATE_BUFFERS.get();
+        final Inflater inflater = buffers.inflater;
+        inflater.reset();
+
         try {
-            final byte[] decodedBytes = Base64Support.decode(message);
-            return new NoWrapAutoEndInflaterInputStream(new ByteArrayInputStream(decodedBytes));
+            final byte[] chunk = buffers.chunk;
+            int chunkLength = 0;
+            int compressedLength = 0;
+            int inflatedLength = 0;
+            int bits = 0;
+            int bitCount = 0;
+            boolean padding = false;
+
+            for (int i = 0; i < message.length() && !inflater.finished(); i++) {
+                final char c = message.charAt(i);
+                if (c == '\r' || c == '\n' || c == ' ' || c == '\t') {
+                    continue;
+                }
+                if (c == '=') {
+                    padding = true;
+                    continue;
+                }
+                final int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+                if (value < 0 || padding) {
+                    throw new MessageDecodingException("SAML message is not valid base64");
+                }
+
+                bits = (bits << 6) | value;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    chunk[chunkLength++] = (byte) (bits >> bitCount);
+                    bits &= (1 << bitCount) - 1;
+                }
+
+                if (chunkLength == chunk.length) {
+                    compressedLength += chunkLength;
+                    inflatedLength = inflate(buffers, chunkLength, inflatedLength);
+                    chunkLength = 0;
+                }
+            }
+
+            if (chunkLength > 0 && !inflater.finished()) {
+                compressedLength += chunkLength;
+                inflatedLength = inflate(buffers, chunkLength, inflatedLength);
+            }
+
+            if (compressedLength > maxCompressedSize) {
+                throw new MessageDecodingException("SAML message exceeds the maximum compressed size");
+            }
+            if (!inflater.finished()) {
+                throw new MessageDecodingException("SAML message ends before the end of the DEFLATE stream");
+            }
+
+            return new ByteArrayInputStream(buffers.inflated, 0, inflatedLength);
+        } catch (final MessageDecodingException e) {
+            log.error("Unable to Base64 decode and inflate SAML message: {}", e.getMessage());
+            throw e;
         } catch (final Exception e) {
             log.error("Unable to Base64 decode and inflate SAML message: {}", e.getMessage());
             throw new MessageDecodingException("Unable to Base64 decode and inflate SAML message", e);
         }
     }
 
+    /**
+     * Inflate a chunk of compressed input into the inflate buffer, growing it up to the maximum
+     * inflated size.
+     * 
+     * @param buffers the thread-confined inflater and buffers
+     * @param chunkLength the number of compressed bytes in the chunk buffer
+     * @param inflatedLength the number of bytes inflated so far
+     * 
+     * @return the number of bytes inflated after this chunk
+     * 
+     * @throws DataFormatException thrown if the input is not a valid DEFLATE stream
+     * @throws MessageDecodingException thrown if the message exceeds the maximum inflated size
+     */
+    private int inflate(final InflateBuffers buffers, final int chunkLength, int inflatedLength)
+            throws DataFormatException, MessageDecodingException {
+        final Inflater inflater = buffers.inflater;
+        inflater.setInput(buffers.chunk, 0, chunkLength);
+
+        // Room for one byte more than the maximum, to tell a message of exactly the maximum size apart.
+        final int capacity = maxInflatedSize + 1;
+        while (!inflater.finished()) {
+            if (inflatedLength == buffers.inflated.length) {
+                buffers.inflated = Arrays.copyOf(buffers.inflated, (int) Math.min((long) inflatedLength * 2, capacity));
+            }
+
+            final int inflated = inflater.inflate(buffers.inflated, inflatedLength,
+                    Math.min(buffers.inflated.length, capacity) - inflatedLength);
+            inflatedLength += inflated;
+            if (inflatedLength > maxInflatedSize) {
+                throw new MessageDecodingException("SAML message exceeds the maximum inflated size");
+            }
+            if (inflated == 0) {
+                if (inflater.needsDictionary()) {
+                    throw new DataFormatException("DEFLATE stream requires a preset dictionary");
+                }
+                // The chunk is consumed, continue with the next one.
+                break;
+            }
+        }
+        return inflatedLength;
+    }
+
     /**
      * Populate the context which carries information specific to this binding.
      * 
@@ -247,30 +430,18 @@ public class HTTPRedirectDeflateDecoder implements SAMLMessageDecoder {
     }
 
     /**
-     * A subclass of {@link InflaterInputStream} which defaults in a no-wrap
-     * {@link Inflater} instance and
-     * closes it when the stream is closed.
+     * The {@link Inflater} and buffers used to decode messages on a single thread.
      */
-    private class NoWrapAutoEndInflaterInputStream extends InflaterInputStream {
-
-        /**
-         * Creates a new input stream with a default no-wrap decompressor and buffer
-         * size.
-         *
-         * @param is the input stream
-         */
-        public NoWrapAutoEndInflaterInputStream(final InputStream is) {
-            super(is, new Inflater(true));
-        }
+    private static final class InflateBuffers {
 
-        /** {@inheritDoc} */
-        public void close() throws IOException {
-            if (inf != null) {
-                inf.end();
-            }
-            super.close();
-        }
+        /** No-wrap inflater, reset before every message. */
+        private final Inflater inflater = new Inflater(true);
+
+        /** Base64 decoded input handed to the inflater. */
+        private final byte[] chunk = new byte[CHUNK_SIZE];
 
+        /** Inflated message. */
+        private byte[] inflated = new byte[INITIAL_INFLATE_BUFFER_SIZE];
     }
 
     @Override
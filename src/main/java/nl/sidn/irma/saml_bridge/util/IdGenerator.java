@@ -0,0 +1,91 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * Generates the identifiers of the SAML messages and assertions the bridge issues.
+ *
+ * Identifiers are an underscore followed by hex digits, so they are valid xs:ID values (NCNames).
+ * Random identifiers carry 128 bits from a {@link SecureRandom}. Every thread has its own SecureRandom
+ * and draws from it in batches, so most identifiers take their bytes from a pool without calling into it.
+ */
+@Service
+public class IdGenerator {
+	/** Number of random bytes in an identifier. **/
+	static final int ID_BYTES = 16;
+
+	/** Number of random bytes drawn from the SecureRandom at once. **/
+	private static final int POOL_SIZE = ID_BYTES * 64;
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private final ThreadLocal<Pool> pools = ThreadLocal.withInitial(Pool::new);
+
+	/**
+	 * @return A new random identifier.
+	 */
+	public String generateId() {
+		Pool pool = this.pools.get();
+		if (pool.position == POOL_SIZE) {
+			pool.random.nextBytes(pool.bytes);
+			pool.position = 0;
+		}
+
+		char[] id = new char[1 + 2 * ID_BYTES];
+		id[0] = '_';
+		for (int i = 0; i < ID_BYTES; i++) {
+			byte b = pool.bytes[pool.position];
+			// Do not leave used bytes behind in the pool.
+			pool.bytes[pool.position++] = 0;
+			id[1 + 2 * i] = HEX_DIGITS[(b >> 4) & 0xF];
+			id[2 + 2 * i] = HEX_DIGITS[b & 0xF];
+		}
+		return new String(id);
+	}
+
+	/**
+	 * Derive the identifier of an assertion from the IRMA session it was disclosed in, as the
+	 * hex encoding of the UTF-8 bytes of its token.
+	 *
+	 * @param token The IRMA session token.
+	 * @return The identifier referring to the session.
+	 */
+	public String fromToken(String token) {
+		char[] id = new char[1 + 2 * token.length()];
+		id[0] = '_';
+		for (int i = 0; i < token.length(); i++) {
+			char c = token.charAt(i);
+			if (c >= 0x80) {
+				// IRMA tokens are alphanumeric, but encode anything else the way it always was.
+				return fromBytes(token.getBytes(StandardCharsets.UTF_8));
+			}
+			id[1 + 2 * i] = HEX_DIGITS[c >> 4];
+			id[2 + 2 * i] = HEX_DIGITS[c & 0xF];
+		}
+		return new String(id);
+	}
+
+	private static String fromBytes(byte[] bytes) {
+		char[] id = new char[1 + 2 * bytes.length];
+		id[0] = '_';
+		for (int i = 0; i < bytes.length; i++) {
+			id[1 + 2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			id[2 + 2 * i] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(id);
+	}
+
+	/**
+	 * Random bytes of one thread, and the position of the next unused byte.
+	 */
+	private static final class Pool {
+		private final SecureRandom random = new SecureRandom();
+
+		private final byte[] bytes = new byte[POOL_SIZE];
+
+		private int position = POOL_SIZE;
+	}
+}
@@ -0,0 +1,57 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.DefaultSchemePortResolver;
+import org.apache.hc.client5.http.routing.RoutingSupport;
+import org.apache.hc.core5.http.HttpHost;
+
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps the IRMA servers in the configuration onto the routes of the HTTP client, so connection
+ * pool settings can be applied per IRMA server.
+ */
+public final class IrmaRoutes {
+
+    private IrmaRoutes() {
+    }
+
+    /**
+     * All distinct IRMA servers sessions are started at, with the IRMA path whose pool settings apply to them.
+     * When several paths use the same irmaServiceHost, the default map wins, and otherwise the first mapping.
+     *
+     * @param config The configuration.
+     * @return The route to every IRMA server, in configuration order.
+     * @throws URISyntaxException
+     */
+    public static Map<HttpRoute, IrmaPath> of(Configuration config) throws URISyntaxException {
+        Map<HttpRoute, IrmaPath> routes = new LinkedHashMap<>();
+        if (config.getDefaultMap() != null) {
+            routes.put(route(config.getProtocol() + config.getDefaultMap().getIrmaServiceHost()), config.getDefaultMap());
+        }
+        if (config.getIrmaMapping() != null) {
+            for (IrmaPath irmaPath : config.getIrmaMapping().values()) {
+                routes.putIfAbsent(route(config.getProtocol() + irmaPath.getIrmaServiceHost()), irmaPath);
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * The route the client takes to a URL, normalized the way the client's route planner does:
+     * the default port is made explicit and https routes are secure. Pool settings set on any other
+     * route would end up on a pool no connection is ever leased from.
+     *
+     * @param url A URL with a scheme and host, and optionally a port.
+     * @return The direct route to the host of the URL.
+     * @throws URISyntaxException
+     */
+    public static HttpRoute route(String url) throws URISyntaxException {
+        HttpHost target = RoutingSupport.normalize(HttpHost.create(url), DefaultSchemePortResolver.INSTANCE);
+        return new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+    }
+}
@@ -1,36 +1,174 @@
 package nl.sidn.irma.saml_bridge.util;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Header;
+import io.jsonwebtoken.JweHeader;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwt;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MissingClaimException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import nl.sidn.irma.saml_bridge.model.Configuration;
 import nl.sidn.irma.saml_bridge.service.ConfigurationService;
 import nl.sidn.irma.saml_bridge.service.KeyService;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.SecretKey;
+import java.security.Key;
 import java.security.PublicKey;
 import java.time.Instant;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class JwtUtil {
+    private static final ClaimsDeserializer CLAIMS_DESERIALIZER = new ClaimsDeserializer();
+
+    private static final String ASSERT_PARAMETERS_SUBJECT = "assert_parameters";
+
+    private static final String ASSERT_PARAMETERS_CLAIM = "aparams";
+
     private final ConfigurationService configurationService;
 
     private final KeyService keyService;
 
+    private final long clockSkewInSec;
+
+    private final long maxAgeInSec;
+
+    /**
+     * Parsers are immutable and thread safe, so one is built for every key we verify with.
+     * These are only the keys of the KeyService, so this map does not grow.
+     */
+    private final Map<PublicKey, JwtParser> parsers = new ConcurrentHashMap<>();
+
+    /** Parser of both signed and encrypted assert parameters, finding the key by the header of the token. */
+    private final JwtParser assertParametersParser;
+
     public JwtUtil(
             ConfigurationService configurationService,
             KeyService keyService
     ) {
         this.configurationService = configurationService;
         this.keyService = keyService;
+
+        Configuration configuration = configurationService.getConfiguration();
+        this.clockSkewInSec = configuration.getJwtClockSkewInSec();
+        this.maxAgeInSec = configuration.getRequestTtlInSec();
+
+        this.assertParametersParser = Jwts.parser()
+                .keyLocator(this::locateAssertParametersKey)
+                .clockSkewSeconds(this.clockSkewInSec)
+                .json(CLAIMS_DESERIALIZER)
+                .build();
     }
 
+    /**
+     * Verify a signed JWT and check that it was issued within the last requestTtlInSec seconds,
+     * allowing for jwtClockSkewInSec of difference between our clock and that of its issuer.
+     *
+     * @param key The key the JWT should be signed with.
+     * @param claims The compact JWT.
+     * @return The verified JWT.
+     * @throws io.jsonwebtoken.JwtException Thrown when the JWT is invalid, expired or lacks an issued at time.
+     */
     public Jws<Claims> getClaims(PublicKey key, String claims) {
+        Jws<Claims> jws = this.parsers.computeIfAbsent(key, this::createParser)
+                .parseSignedClaims(claims);
+        checkIssuedAt(jws.getHeader(), jws.getPayload());
+        return jws;
+    }
+
+    /**
+     * Create the token carrying the assert parameters from /request to /assert. It is encrypted with
+     * AES-GCM when an assertParametersKeyId is configured, and otherwise signed with our JWT private key.
+     *
+     * @param assertParameters The assert parameters, as in {@link nl.sidn.irma.saml_bridge.model.AssertParameters#toTreeMap()}.
+     * @return The compact JWE or JWS.
+     */
+    public String createAssertParametersToken(Map<String, Object> assertParameters) {
+        Configuration configuration = this.configurationService.getConfiguration();
+        String keyId = configuration.getAssertParametersKeyId();
+        if (keyId == null) {
+            return this.createJwtToken(ASSERT_PARAMETERS_SUBJECT, ASSERT_PARAMETERS_CLAIM, assertParameters);
+        }
+
+        return Jwts.builder()
+                .header().keyId(keyId).and()
+                .issuedAt(Date.from(Instant.now()))
+                .issuer(configuration.getIssuerName())
+                .subject(ASSERT_PARAMETERS_SUBJECT)
+                .claim(ASSERT_PARAMETERS_CLAIM, assertParameters)
+                .encryptWith(this.keyService.getAssertParametersKeys().get(keyId), Jwts.ENC.A256GCM)
+                .compact();
+    }
+
+    /**
+     * Verify a token created by {@link #createAssertParametersToken(Map)}. Signed tokens are always accepted,
+     * and encrypted tokens when we have the key with their key ID, so that the mode and keys can be changed
+     * without failing the sessions in progress.
+     *
+     * @param token The compact JWE or JWS.
+     * @return The claims of the token, of which the aparams claim holds the assert parameters.
+     * @throws io.jsonwebtoken.JwtException Thrown when the token is invalid, expired or lacks an issued at time.
+     */
+    public Claims getAssertParameters(String token) {
+        Jwt<?, ?> jwt = this.assertParametersParser.parse(token);
+        if (!(jwt.getPayload() instanceof Claims claims)) {
+            throw new UnsupportedJwtException("Assert parameters token has no claims");
+        }
+        checkIssuedAt(jwt.getHeader(), claims);
+        return claims;
+    }
+
+    /**
+     * Expiration and not before, when present, are checked by the parser. Our own tokens only have an issued at time,
+     * which must be within the last requestTtlInSec seconds.
+     */
+    private void checkIssuedAt(Header header, Claims claims) {
+        Date issuedAt = claims.getIssuedAt();
+        if (issuedAt == null) {
+            throw new MissingClaimException(header, claims, Claims.ISSUED_AT, null,
+                    "JWT has no issued at time");
+        }
+
+        Instant now = Instant.now();
+        if (issuedAt.toInstant().isBefore(now.minusSeconds(this.maxAgeInSec + this.clockSkewInSec))) {
+            throw new ExpiredJwtException(header, claims,
+                    "JWT was issued more than " + this.maxAgeInSec + " seconds ago");
+        }
+        if (issuedAt.toInstant().isAfter(now.plusSeconds(this.clockSkewInSec))) {
+            throw new PrematureJwtException(header, claims,
+                    "JWT was issued in the future");
+        }
+    }
+
+    private JwtParser createParser(PublicKey key) {
         return Jwts.parser()
                 .verifyWith(key)
-                .build()
-                .parseSignedClaims(claims);
+                .clockSkewSeconds(this.clockSkewInSec)
+                .json(CLAIMS_DESERIALIZER)
+                .build();
+    }
+
+    /**
+     * @return Our JWT public key for signed assert parameters, or the AES key with the key ID of encrypted ones.
+     */
+    private Key locateAssertParametersKey(Header header) {
+        if (header instanceof JweHeader jweHeader) {
+            SecretKey key = jweHeader.getKeyId() != null
+                    ? this.keyService.getAssertParametersKeys().get(jweHeader.getKeyId())
+                    : null;
+            if (key == null) {
+                throw new UnsupportedJwtException("No assert parameters key with ID " + jweHeader.getKeyId());
+            }
+            return key;
+        }
+        return this.keyService.getJwtPublicKey();
     }
 
     public String createJwtToken(String subject, String claimName, Object claim) {
@@ -43,6 +181,22 @@ public class JwtUtil {
                 .compact();
     }
 
+    /**
+     * Like {@link #createJwtToken(String, String, Object)}, but signed with HS256 using a shared key.
+     *
+     * @param key The HMAC key of at least 256 bits.
+     * @return The compact JWS.
+     */
+    public String createHmacJwtToken(String subject, String claimName, Object claim, SecretKey key) {
+        return Jwts.builder()
+                .issuedAt(Date.from(Instant.now()))
+                .issuer(this.configurationService.getConfiguration().getIssuerName())
+                .subject(subject)
+                .claim(claimName, claim)
+                .signWith(key, Jwts.SIG.HS256)
+                .compact();
+    }
+
     public String createTestIrmaJwtTokenWithClaims(String issuer, String subject, Map<String, Object> claims) {
         return Jwts.builder()
                 .issuedAt(Date.from(Instant.now()))
@@ -3,11 +3,14 @@ package nl.sidn.irma.saml_bridge.util;
 import org.opensaml.security.x509.X509Support;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
@@ -41,6 +44,78 @@ public class KeyReader {
 		return (RSAPrivateKey) kf.generatePrivate(spec);
 	}
 
+	/**
+	 * Read a RSA or EC private key in PKCS8 DER format from disk.
+	 *
+	 * @param path
+	 * @return A properly read RSAPrivateKey or ECPrivateKey.
+	 * @throws IOException
+	 * @throws InvalidKeySpecException Thrown when the file holds neither a RSA nor an EC key.
+	 * @throws NoSuchAlgorithmException
+	 */
+	public PrivateKey getSigningPrivate(String path)
+			throws IOException, InvalidKeySpecException, NoSuchAlgorithmException {
+		byte[] keyBytes = Files.readAllBytes(Paths.get(path));
+
+		PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
+		try {
+			return KeyFactory.getInstance("RSA").generatePrivate(spec);
+		} catch (InvalidKeySpecException e) {
+			return KeyFactory.getInstance("EC").generatePrivate(spec);
+		}
+	}
+
+	/**
+	 * Read a 256 bit AES key, as 32 raw bytes, from disk.
+	 *
+	 * @param path
+	 * @return A properly read AES SecretKey.
+	 * @throws IOException
+	 * @throws InvalidKeySpecException Thrown when the file does not hold exactly 32 bytes.
+	 */
+	public SecretKey getSecret(String path) throws IOException, InvalidKeySpecException {
+		byte[] keyBytes = Files.readAllBytes(Paths.get(path));
+		if (keyBytes.length != 32) {
+			throw new InvalidKeySpecException("Expected a 256 bit AES key in " + path);
+		}
+
+		return new SecretKeySpec(keyBytes, "AES");
+	}
+
+	/**
+	 * Read a HMAC-SHA256 key of at least 256 bits, as raw bytes, from disk.
+	 *
+	 * @param path
+	 * @return A properly read HMAC SecretKey.
+	 * @throws IOException
+	 * @throws InvalidKeySpecException Thrown when the file holds less than 32 bytes.
+	 */
+	public SecretKey getHmacSecret(String path) throws IOException, InvalidKeySpecException {
+		byte[] keyBytes = Files.readAllBytes(Paths.get(path));
+		if (keyBytes.length < 32) {
+			throw new InvalidKeySpecException("Expected a HMAC key of at least 256 bits in " + path);
+		}
+
+		return new SecretKeySpec(keyBytes, "HmacSHA256");
+	}
+
+	/**
+	 * Read a token from disk, ignoring surrounding whitespace.
+	 *
+	 * @param path
+	 * @return The token.
+	 * @throws IOException
+	 * @throws InvalidKeySpecException Thrown when the file is empty.
+	 */
+	public String getToken(String path) throws IOException, InvalidKeySpecException {
+		String token = Files.readString(Paths.get(path)).strip();
+		if (token.isEmpty()) {
+			throw new InvalidKeySpecException("Expected a token in " + path);
+		}
+
+		return token;
+	}
+
 	/**
 	 * Read a RSA public key in PKCS8 DER format from disk.
 	 * 
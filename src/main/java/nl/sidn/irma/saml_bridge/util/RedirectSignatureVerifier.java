@@ -0,0 +1,148 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.codec.Base64Support;
+import net.shibboleth.shared.codec.DecodingException;
+import net.shibboleth.shared.net.URISupport;
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.crypto.XMLSigningUtil;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Verifies the simple signature of a SAML 2.0 HTTP-Redirect binding message against the signing keys of its issuer.
+ *
+ * The message is accepted when the Signature over the raw, still URL-encoded, SAMLRequest or SAMLResponse, RelayState
+ * and SigAlg parameters verifies with the SigAlg algorithm and one of the signing credentials of the Service Provider
+ * of the Issuer. Messages without a Signature or SigAlg, of an unknown Issuer or that no credential verifies are
+ * rejected. Instances are immutable and thread-safe, so a single instance is shared by all requests.
+ */
+@Slf4j
+public class RedirectSignatureVerifier {
+
+    private final Function<String, ServiceProvider> serviceProviders;
+
+    /**
+     * @param serviceProviders Looks up the Service Provider of an entityID, returning null when it is unknown.
+     */
+    public RedirectSignatureVerifier(Function<String, ServiceProvider> serviceProviders) {
+        this.serviceProviders = serviceProviders;
+    }
+
+    /**
+     * Verify the signature of an HTTP-Redirect message.
+     *
+     * @param queryString The raw, not URL-decoded, query string of the request.
+     * @param issuer The Issuer of the decoded SAML message.
+     * @return The Service Provider that signed the message.
+     * @throws MessageHandlerException Thrown when the message is not signed, or not signed by the issuer.
+     */
+    public ServiceProvider verify(String queryString, String issuer) throws MessageHandlerException {
+        byte[] signature = decodeSignature(getParameter(queryString, "Signature"));
+        if (signature == null || signature.length == 0) {
+            throw new MessageHandlerException("Message not authenticated");
+        }
+
+        String algorithmURI = getParameter(queryString, "SigAlg");
+        if (algorithmURI == null || algorithmURI.isEmpty()) {
+            throw new MessageHandlerException("Message not authenticated");
+        }
+
+        byte[] signedContent = buildSignedContent(queryString);
+
+        if (issuer == null || issuer.isEmpty()) {
+            throw new MessageHandlerException("No message issuer available, cannot attempt simple signature validation");
+        }
+
+        ServiceProvider serviceProvider = this.serviceProviders.apply(issuer);
+        if (serviceProvider != null) {
+            for (Credential credential : serviceProvider.getSigningCredentials()) {
+                try {
+                    if (XMLSigningUtil.verifyWithURI(credential, algorithmURI, signature, signedContent)) {
+                        return serviceProvider;
+                    }
+                } catch (SecurityException e) {
+                    // Unknown algorithms or keys not matching the algorithm do not verify, like in the trust engine.
+                    log.debug("action=\"redirectsignature.verify\", debug=\"Could not verify with credential\", error=\"{}\"", e.getMessage());
+                }
+            }
+        }
+
+        log.debug("action=\"redirectsignature.verify\", debug=\"Validation of request simple signature failed\", issuer=\"{}\"", issuer);
+        throw new MessageHandlerException("Validation of request simple signature failed for derived issuer");
+    }
+
+    /**
+     * Build the content that was signed from the raw query string parameters, as prescribed by the
+     * HTTP-Redirect binding: SAMLRequest or SAMLResponse, the optional RelayState and SigAlg, still URL-encoded.
+     */
+    private static byte[] buildSignedContent(String queryString) throws MessageHandlerException {
+        StringBuilder builder = new StringBuilder(queryString.length());
+
+        // One of these two is mandatory
+        if (!appendParameter(builder, queryString, "SAMLRequest")
+                && !appendParameter(builder, queryString, "SAMLResponse")) {
+            throw new MessageHandlerException("Extract of SAMLRequest or SAMLResponse from query string failed");
+        }
+        appendParameter(builder, queryString, "RelayState");
+        appendParameter(builder, queryString, "SigAlg");
+
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean appendParameter(StringBuilder builder, String queryString, String name) {
+        String rawParameter = URISupport.getRawQueryStringParameter(queryString, name);
+        if (rawParameter == null) {
+            return false;
+        }
+        if (builder.length() > 0) {
+            builder.append('&');
+        }
+        builder.append(rawParameter);
+        return true;
+    }
+
+    /**
+     * @return The URL-decoded value of the first query string parameter with the given name, or null.
+     */
+    private static String getParameter(String queryString, String name) {
+        if (queryString == null) {
+            return null;
+        }
+
+        int start = 0;
+        while (start <= queryString.length()) {
+            int end = queryString.indexOf('&', start);
+            if (end == -1) {
+                end = queryString.length();
+            }
+            if (queryString.startsWith(name, start)) {
+                int valueStart = start + name.length();
+                if (valueStart == end) {
+                    return "";
+                }
+                if (queryString.charAt(valueStart) == '=') {
+                    return URLDecoder.decode(queryString.substring(valueStart + 1, end), StandardCharsets.UTF_8);
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static byte[] decodeSignature(String signature) throws MessageHandlerException {
+        if (signature == null || signature.isEmpty()) {
+            return null;
+        }
+        try {
+            return Base64Support.decode(signature);
+        } catch (DecodingException e) {
+            throw new MessageHandlerException("Signature could not be base64 decoded", e);
+        }
+    }
+}
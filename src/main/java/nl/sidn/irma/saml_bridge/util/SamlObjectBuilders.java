@@ -0,0 +1,222 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import lombok.Getter;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.schema.impl.XSStringBuilder;
+import org.opensaml.saml.common.SAMLObjectBuilder;
+import org.opensaml.saml.ext.saml2alg.DigestMethod;
+import org.opensaml.saml.ext.saml2alg.SigningMethod;
+import org.opensaml.saml.ext.reqattr.RequestedAttributes;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Extensions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.NameIDPolicy;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.StatusMessage;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml.saml2.metadata.Organization;
+import org.opensaml.saml.saml2.metadata.OrganizationDisplayName;
+import org.opensaml.saml.saml2.metadata.OrganizationName;
+import org.opensaml.saml.saml2.metadata.OrganizationURL;
+import org.opensaml.saml.saml2.metadata.RequestedAttribute;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.SingleSignOnService;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.X509Certificate;
+import org.opensaml.xmlsec.signature.X509Data;
+import org.springframework.stereotype.Service;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The OpenSAML builders of every SAML object this daemon constructs.
+ *
+ * OpenSAML is initialized first, after which all builders are resolved once from its registry.
+ * Builders are stateless, so they can be shared by all threads, and building an object no longer
+ * needs a registry lookup and an unchecked cast.
+ */
+@Getter
+@Service
+public class SamlObjectBuilders {
+	// Assertion responses
+	private final SAMLObjectBuilder<Response> responseBuilder;
+
+	private final SAMLObjectBuilder<Status> statusBuilder;
+
+	private final SAMLObjectBuilder<StatusCode> statusCodeBuilder;
+
+	private final SAMLObjectBuilder<StatusMessage> statusMessageBuilder;
+
+	private final SAMLObjectBuilder<Issuer> issuerBuilder;
+
+	private final SAMLObjectBuilder<Assertion> assertionBuilder;
+
+	private final SAMLObjectBuilder<Subject> subjectBuilder;
+
+	private final SAMLObjectBuilder<SubjectConfirmation> subjectConfirmationBuilder;
+
+	private final SAMLObjectBuilder<SubjectConfirmationData> subjectConfirmationDataBuilder;
+
+	private final SAMLObjectBuilder<NameID> nameIDBuilder;
+
+	private final SAMLObjectBuilder<Conditions> conditionsBuilder;
+
+	private final SAMLObjectBuilder<AudienceRestriction> audienceRestrictionBuilder;
+
+	private final SAMLObjectBuilder<Audience> audienceBuilder;
+
+	private final SAMLObjectBuilder<AuthnStatement> authnStatementBuilder;
+
+	private final SAMLObjectBuilder<AuthnContext> authnContextBuilder;
+
+	private final SAMLObjectBuilder<AuthnContextClassRef> authnContextClassRefBuilder;
+
+	private final SAMLObjectBuilder<AttributeStatement> attributeStatementBuilder;
+
+	private final SAMLObjectBuilder<Attribute> attributeBuilder;
+
+	/** Builds attribute values, i.e. with AttributeValue as element name and XSString as type */
+	private final XSStringBuilder xsStringBuilder;
+
+	// Signatures
+	private final XMLObjectBuilder<Signature> signatureBuilder;
+
+	private final XMLObjectBuilder<KeyInfo> keyInfoBuilder;
+
+	private final XMLObjectBuilder<X509Data> x509DataBuilder;
+
+	private final XMLObjectBuilder<X509Certificate> x509CertificateBuilder;
+
+	// Metadata
+	private final SAMLObjectBuilder<EntityDescriptor> entityDescriptorBuilder;
+
+	private final SAMLObjectBuilder<IDPSSODescriptor> idpSsoDescriptorBuilder;
+
+	private final SAMLObjectBuilder<SPSSODescriptor> spSsoDescriptorBuilder;
+
+	private final SAMLObjectBuilder<KeyDescriptor> keyDescriptorBuilder;
+
+	private final SAMLObjectBuilder<SingleSignOnService> singleSignOnServiceBuilder;
+
+	private final SAMLObjectBuilder<AssertionConsumerService> assertionConsumerServiceBuilder;
+
+	private final SAMLObjectBuilder<Organization> organizationBuilder;
+
+	private final SAMLObjectBuilder<OrganizationName> organizationNameBuilder;
+
+	private final SAMLObjectBuilder<OrganizationDisplayName> organizationDisplayNameBuilder;
+
+	private final SAMLObjectBuilder<OrganizationURL> organizationURLBuilder;
+
+	private final SAMLObjectBuilder<org.opensaml.saml.saml2.metadata.Extensions> metadataExtensionsBuilder;
+
+	private final SAMLObjectBuilder<DigestMethod> digestMethodBuilder;
+
+	private final SAMLObjectBuilder<SigningMethod> signingMethodBuilder;
+
+	// Authentication requests, as sent by the test Service Provider
+	private final SAMLObjectBuilder<AuthnRequest> authnRequestBuilder;
+
+	private final SAMLObjectBuilder<NameIDPolicy> nameIDPolicyBuilder;
+
+	private final SAMLObjectBuilder<Extensions> extensionsBuilder;
+
+	private final SAMLObjectBuilder<RequestedAttributes> requestedAttributesBuilder;
+
+	private final SAMLObjectBuilder<RequestedAttribute> requestedAttributeBuilder;
+
+	/**
+	 * Initialize OpenSAML and resolve all builders.
+	 * Will fail when OpenSAML can not be initialized, or misses a builder.
+	 *
+	 * @throws InitializationException
+	 */
+	public SamlObjectBuilders() throws InitializationException {
+		InitializationService.initialize();
+
+		XMLObjectBuilderFactory factory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+
+		this.responseBuilder = builder(factory, Response.DEFAULT_ELEMENT_NAME);
+		this.statusBuilder = builder(factory, Status.DEFAULT_ELEMENT_NAME);
+		this.statusCodeBuilder = builder(factory, StatusCode.DEFAULT_ELEMENT_NAME);
+		this.statusMessageBuilder = builder(factory, StatusMessage.DEFAULT_ELEMENT_NAME);
+		this.issuerBuilder = builder(factory, Issuer.DEFAULT_ELEMENT_NAME);
+		this.assertionBuilder = builder(factory, Assertion.DEFAULT_ELEMENT_NAME);
+		this.subjectBuilder = builder(factory, Subject.DEFAULT_ELEMENT_NAME);
+		this.subjectConfirmationBuilder = builder(factory, SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+		this.subjectConfirmationDataBuilder = builder(factory, SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
+		this.nameIDBuilder = builder(factory, NameID.DEFAULT_ELEMENT_NAME);
+		this.conditionsBuilder = builder(factory, Conditions.DEFAULT_ELEMENT_NAME);
+		this.audienceRestrictionBuilder = builder(factory, AudienceRestriction.DEFAULT_ELEMENT_NAME);
+		this.audienceBuilder = builder(factory, Audience.DEFAULT_ELEMENT_NAME);
+		this.authnStatementBuilder = builder(factory, AuthnStatement.DEFAULT_ELEMENT_NAME);
+		this.authnContextBuilder = builder(factory, AuthnContext.DEFAULT_ELEMENT_NAME);
+		this.authnContextClassRefBuilder = builder(factory, AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+		this.attributeStatementBuilder = builder(factory, AttributeStatement.DEFAULT_ELEMENT_NAME);
+		this.attributeBuilder = builder(factory, Attribute.DEFAULT_ELEMENT_NAME);
+		this.xsStringBuilder = builder(factory, XSString.TYPE_NAME);
+
+		this.signatureBuilder = builder(factory, Signature.DEFAULT_ELEMENT_NAME);
+		this.keyInfoBuilder = builder(factory, KeyInfo.DEFAULT_ELEMENT_NAME);
+		this.x509DataBuilder = builder(factory, X509Data.DEFAULT_ELEMENT_NAME);
+		this.x509CertificateBuilder = builder(factory, X509Certificate.DEFAULT_ELEMENT_NAME);
+
+		this.entityDescriptorBuilder = builder(factory, EntityDescriptor.DEFAULT_ELEMENT_NAME);
+		this.idpSsoDescriptorBuilder = builder(factory, IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
+		this.spSsoDescriptorBuilder = builder(factory, SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+		this.keyDescriptorBuilder = builder(factory, KeyDescriptor.DEFAULT_ELEMENT_NAME);
+		this.singleSignOnServiceBuilder = builder(factory, SingleSignOnService.DEFAULT_ELEMENT_NAME);
+		this.assertionConsumerServiceBuilder = builder(factory, AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+		this.organizationBuilder = builder(factory, Organization.DEFAULT_ELEMENT_NAME);
+		this.organizationNameBuilder = builder(factory, OrganizationName.DEFAULT_ELEMENT_NAME);
+		this.organizationDisplayNameBuilder = builder(factory, OrganizationDisplayName.DEFAULT_ELEMENT_NAME);
+		this.organizationURLBuilder = builder(factory, OrganizationURL.DEFAULT_ELEMENT_NAME);
+		this.metadataExtensionsBuilder = builder(factory, org.opensaml.saml.saml2.metadata.Extensions.DEFAULT_ELEMENT_NAME);
+		this.digestMethodBuilder = builder(factory, DigestMethod.DEFAULT_ELEMENT_NAME);
+		this.signingMethodBuilder = builder(factory, SigningMethod.DEFAULT_ELEMENT_NAME);
+
+		this.authnRequestBuilder = builder(factory, AuthnRequest.DEFAULT_ELEMENT_NAME);
+		this.nameIDPolicyBuilder = builder(factory, NameIDPolicy.DEFAULT_ELEMENT_NAME);
+		this.extensionsBuilder = builder(factory, Extensions.DEFAULT_ELEMENT_NAME);
+		this.requestedAttributesBuilder = builder(factory, RequestedAttributes.DEFAULT_ELEMENT_NAME);
+		this.requestedAttributeBuilder = builder(factory, RequestedAttribute.DEFAULT_ELEMENT_NAME);
+	}
+
+	/**
+	 * Resolve a builder from the registry.
+	 * This is the only place where the registry's untyped builders are cast.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <B extends XMLObjectBuilder<?>> B builder(XMLObjectBuilderFactory factory, QName name)
+			throws InitializationException {
+		XMLObjectBuilder<?> builder = factory.getBuilder(name);
+		if (builder == null) {
+			throw new InitializationException("No OpenSAML builder registered for " + name);
+		}
+		return (B) builder;
+	}
+}
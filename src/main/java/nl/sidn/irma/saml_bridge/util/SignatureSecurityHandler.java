@@ -1,8 +0,0 @@
-package nl.sidn.irma.saml_bridge.util;
-
-/**
- * Shorthand for SAML2HTTPRedirectDeflateSignatureSecurityHandler.
- * Used to override certain methods, but remains to be defined and used.
- */
-public class SignatureSecurityHandler extends SAML2HTTPRedirectDeflateSignatureSecurityHandler {
-}
@@ -0,0 +1,94 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes DOM trees, i.e. marshalled SAML responses and metadata, to UTF-8 encoded XML.
+ *
+ * The transformer factory is looked up and hardened once. Transformers are not thread safe, so every
+ * thread keeps its own transformer and output buffer and reuses them for every document it serializes.
+ */
+@Service
+public class XmlSerializer {
+	/** Buffers that grew beyond this size, i.e. for an exceptionally large document, are not kept. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+	private final TransformerFactory transformerFactory;
+
+	private final ThreadLocal<Transformer> transformers = new ThreadLocal<>();
+
+	private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+	public XmlSerializer() throws TransformerConfigurationException {
+		TransformerFactory tf = TransformerFactory.newInstance();
+
+		// Prevent XXE attacks when serializing elements.
+		tf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+		tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+
+		this.transformerFactory = tf;
+	}
+
+	/**
+	 * Serialize a DOM node, including an XML declaration.
+	 *
+	 * @param node
+	 * @return The UTF-8 encoded XML document.
+	 * @throws TransformerException
+	 */
+	public byte[] serialize(Node node) throws TransformerException {
+		Transformer transformer = this.transformer();
+		Buffer buffer = this.buffers.get();
+		buffer.reset();
+
+		try {
+			transformer.transform(new DOMSource(node), new StreamResult(buffer));
+		} catch (TransformerException | RuntimeException e) {
+			// Do not reuse a transformer that was interrupted halfway through a document.
+			this.transformers.remove();
+			throw e;
+		}
+
+		byte[] result = buffer.toByteArray();
+		if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+			this.buffers.remove();
+		}
+		return result;
+	}
+
+	private Transformer transformer() throws TransformerConfigurationException {
+		Transformer transformer = this.transformers.get();
+		if (transformer == null) {
+			transformer = this.transformerFactory.newTransformer();
+			transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+			this.transformers.set(transformer);
+		}
+		return transformer;
+	}
+
+	/**
+	 * An output buffer that exposes its capacity.
+	 */
+	private static final class Buffer extends ByteArrayOutputStream {
+		Buffer() {
+			super(8 * 1024);
+		}
+
+		int capacity() {
+			return this.buf.length;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package nl.sidn.irma.saml_bridge;
 
 import nl.sidn.irma.saml_bridge.model.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -14,7 +15,7 @@ public class Fixtures {
         RedirectInstruction redirectInstruction = RedirectInstruction.builder()
                 .relayState("relayState")
                 .serviceUrl("http://dummy")
-                .samlResponse("SAML Response")
+                .samlResponse("SAML Response".getBytes(StandardCharsets.UTF_8))
                 .build();
 
         Stream.of(configuratie).forEach(c -> c.accept(redirectInstruction));
@@ -20,7 +20,6 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
-import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.HashMap;
 import java.util.Map;
@@ -29,7 +28,6 @@ import java.util.TreeMap;
 import static nl.sidn.irma.saml_bridge.Fixtures.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -56,10 +54,11 @@ class AssertControllerTest {
     @Autowired
     ObjectMapper objectMapperTest;
 
+    RSAPublicKey irmaPublicKey = mock(RSAPublicKey.class);
+
     @BeforeEach
     void init() {
-        when(keyService.getIrmaPublicKey()).thenReturn(mock(RSAPublicKey.class));
-        when(keyService.getJwtPublicKey()).thenReturn(mock(RSAPublicKey.class));
+        when(keyService.getIrmaPublicKey()).thenReturn(irmaPublicKey);
     }
 
     @Test
@@ -82,9 +81,7 @@ class AssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        stubTokens(assertRequestMock, claims);
 
         when(redirectInstructionService.create(any(AssertParameters.class), any(Disclosure.class), any(ResultStatus.class))).thenReturn(redirectInstructionMock);
         MvcResult mvcResult = mockMvc.perform(post(BASE_URL)
@@ -95,6 +92,8 @@ class AssertControllerTest {
                 .andReturn();
 
         assertEquals(objectMapperTest.writeValueAsString(redirectInstructionMock), mvcResult.getResponse().getContentAsString());
+        assertEquals("{\"samlResponse\":\"U0FNTCBSZXNwb25zZQ==\",\"serviceUrl\":\"http://dummy\",\"relayState\":\"relayState\"}",
+                mvcResult.getResponse().getContentAsString());
 
     }
 
@@ -118,9 +117,7 @@ class AssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        stubTokens(assertRequestMock, claims);
 
         when(redirectInstructionService.create(any(AssertParameters.class), any(Disclosure.class), any(ResultStatus.class))).thenReturn(redirectInstructionMock);
         MvcResult mvcResult = mockMvc.perform(post(BASE_URL)
@@ -152,9 +149,7 @@ class AssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        stubTokens(assertRequestMock, claims);
         MvcResult mvcResult = mockMvc.perform(post(BASE_URL)
                         .contentType(MediaType.APPLICATION_JSON_VALUE)
                         .content(objectMapperTest.writeValueAsString(assertRequestMock))
@@ -183,9 +178,7 @@ class AssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        stubTokens(assertRequestMock, claims);
         MvcResult mvcResult = mockMvc.perform(post(BASE_URL)
                         .contentType(MediaType.APPLICATION_JSON_VALUE)
                         .content(objectMapperTest.writeValueAsString(assertRequestMock))
@@ -214,9 +207,7 @@ class AssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        stubTokens(assertRequestMock, claims);
 
         MvcResult mvcResult = mockMvc.perform(post(BASE_URL)
                         .contentType(MediaType.APPLICATION_JSON_VALUE)
@@ -246,9 +237,7 @@ class AssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        stubTokens(assertRequestMock, claims);
         when(redirectInstructionService.create(any(AssertParameters.class), any(Disclosure.class), any(ResultStatus.class))).thenThrow(new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "error"));
         MvcResult mvcResult = mockMvc.perform(post(BASE_URL)
                         .contentType(MediaType.APPLICATION_JSON_VALUE)
@@ -260,4 +249,13 @@ class AssertControllerTest {
         assertEquals("error", mvcResult.getResponse().getContentAsString());
     }
 
+    /**
+     * Decode the IRMA session result and the assert parameters of the request to the same claims.
+     */
+    private void stubTokens(AssertRequest assertRequest, Claims claims) {
+        Jws<Claims> irmaResult = mock(Jws.class);
+        when(irmaResult.getPayload()).thenReturn(claims);
+        when(jwtUtil.getClaims(irmaPublicKey, assertRequest.getToken())).thenReturn(irmaResult);
+        when(jwtUtil.getAssertParameters(assertRequest.getParameters())).thenReturn(claims);
+    }
 }
\ No newline at end of file
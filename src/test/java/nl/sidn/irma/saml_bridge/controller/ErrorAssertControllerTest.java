@@ -2,7 +2,6 @@ package nl.sidn.irma.saml_bridge.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.Jwts;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
 import nl.sidn.irma.saml_bridge.model.*;
@@ -20,8 +19,6 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
-import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -31,7 +28,6 @@ import static nl.sidn.irma.saml_bridge.Fixtures.redirectInstruction;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -59,7 +55,6 @@ class ErrorAssertControllerTest {
 
     @BeforeEach
     void init() {
-        when(keyService.getJwtPublicKey()).thenReturn(mock(RSAPublicKey.class));
         Map<String, Object> params = new TreeMap<>();
         params.put("sp_name", "sp_name");
         params.put("request_id", "request_id");
@@ -72,9 +67,7 @@ class ErrorAssertControllerTest {
         claimsMap.put("aparams", params);
 
         Claims claims = Jwts.claims().add(claimsMap).build();
-        Jws<Claims> claimsJws = mock(Jws.class);
-        when(claimsJws.getPayload()).thenReturn(claims);
-        when(jwtUtil.getClaims(any(PublicKey.class), anyString())).thenReturn(claimsJws);
+        when(jwtUtil.getAssertParameters(anyString())).thenReturn(claims);
     }
 
     @Test
@@ -1,9 +1,11 @@
 package nl.sidn.irma.saml_bridge.controller;
 
+import nl.sidn.irma.saml_bridge.model.SigningKey;
 import nl.sidn.irma.saml_bridge.service.KeyService;
 import nl.sidn.irma.saml_bridge.service.OpenSamlService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -11,13 +13,16 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
-import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
-import static org.mockito.Mockito.mock;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -36,10 +41,12 @@ class MetadataControllerTest {
     KeyService keyService;
 
     @BeforeEach
-    void init() throws CertificateEncodingException {
-        X509Certificate cert = mock(X509Certificate.class);
-        when(keyService.getSamlCertificate()).thenReturn(cert);
-        when(cert.getEncoded()).thenReturn("test".getBytes());
+    void init() {
+        when(keyService.getSamlCertificateBase64()).thenReturn(Base64.getEncoder().encodeToString("test".getBytes()));
+        when(keyService.getSamlSigningKeys()).thenReturn(List.of(SigningKey.builder()
+                .certificateBase64(Base64.getEncoder().encodeToString("test".getBytes()))
+                .signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256)
+                .build()));
     }
 
     @Test
@@ -52,12 +59,59 @@ class MetadataControllerTest {
     }
 
     @Test
-    void metadataTestThrowCertificateEncodingException() throws Exception {
-        when(keyService.getSamlCertificate().getEncoded()).thenThrow(mock(CertificateEncodingException.class));
+    void metadataContainsEncodedCertificateTest() throws Exception {
         MvcResult mvcResult = mockMvc.perform(get(BASE_URL))
-                .andExpect(status().isInternalServerError())
+                .andExpect(status().isOk())
                 .andReturn();
 
-        assertNotEquals("error", mvcResult.getResponse().getContentAsString());
+        assertTrue(mvcResult.getResponse().getContentAsString().contains(keyService.getSamlCertificateBase64()));
+    }
+
+    @Test
+    void metadataContainsSigningMethodTest() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get(BASE_URL))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertTrue(mvcResult.getResponse().getContentAsString().contains(
+                "SigningMethod Algorithm=\"" + SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256 + "\""));
+    }
+
+    @Test
+    void metadataCacheHeadersTest() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get(BASE_URL))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=30, public"))
+                .andReturn();
+
+        String etag = mvcResult.getResponse().getHeader("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""));
+
+        MvcResult secondResult = mockMvc.perform(get(BASE_URL))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals(etag, secondResult.getResponse().getHeader("ETag"));
+        assertEquals(mvcResult.getResponse().getContentAsString(), secondResult.getResponse().getContentAsString());
+    }
+
+    @Test
+    void metadataNotModifiedTest() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get(BASE_URL))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String etag = mvcResult.getResponse().getHeader("ETag");
+
+        MvcResult notModifiedResult = mockMvc.perform(get(BASE_URL).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andReturn();
+
+        assertEquals("", notModifiedResult.getResponse().getContentAsString());
+
+        mockMvc.perform(get(BASE_URL).header("If-None-Match", "\"other\""))
+                .andExpect(status().isOk());
     }
-}
\ No newline at end of file
+}
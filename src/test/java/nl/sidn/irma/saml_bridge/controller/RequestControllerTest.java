@@ -0,0 +1,104 @@
+package nl.sidn.irma.saml_bridge.controller;
+
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import nl.sidn.irma.saml_bridge.service.ReplayCacheService;
+import nl.sidn.irma.saml_bridge.service.SignatureValidationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class RequestControllerTest {
+
+    private static final String BASE_URL = "/request";
+
+    private static final String ISSUER = "http://localhost:8080/sp";
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @MockitoBean
+    SignatureValidationService signatureValidationService;
+
+    @MockitoBean
+    ReplayCacheService replayCacheService;
+
+    @BeforeEach
+    void init() throws Exception {
+        when(signatureValidationService.verifySignature(any(), eq(ISSUER)))
+                .thenReturn(ServiceProvider.builder().entityId(ISSUER).build());
+        when(replayCacheService.register(anyString(), anyString(), any(Instant.class)))
+                .thenReturn(ReplayCacheService.Result.REPLAYED);
+    }
+
+    @Test
+    void futureIssueInstantIsRejectedTest() throws Exception {
+        MvcResult result = perform(Instant.now().plusSeconds(3600));
+
+        assertEquals("SAML request is issued in the future", result.getRequest().getAttribute("error"));
+        verify(replayCacheService, never()).register(anyString(), anyString(), any(Instant.class));
+    }
+
+    @Test
+    void issueInstantWithinClockSkewIsAcceptedTest() throws Exception {
+        // samlClockSkewInSec is 30 by default, the request continues to the replay cache.
+        Instant issueInstant = Instant.now().plusSeconds(10).truncatedTo(ChronoUnit.SECONDS);
+        MvcResult result = perform(issueInstant);
+
+        assertEquals("SAML request has already been used", result.getRequest().getAttribute("error"));
+        verify(replayCacheService).register(ISSUER, "_test", issueInstant);
+    }
+
+    MvcResult perform(Instant issueInstant) throws Exception {
+        String authnRequest = "<samlp:AuthnRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
+                + "xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+                + "ID=\"_test\" Version=\"2.0\" IssueInstant=\"" + issueInstant + "\">"
+                + "<saml:Issuer>" + ISSUER + "</saml:Issuer>"
+                + "</samlp:AuthnRequest>";
+
+        MvcResult result = mockMvc.perform(get(BASE_URL).queryParam("SAMLRequest", encode(authnRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest())
+                .andReturn();
+    }
+
+    static String encode(String message) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(message.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+}
@@ -0,0 +1,104 @@
+package nl.sidn.irma.saml_bridge.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static nl.sidn.irma.saml_bridge.Fixtures.assertParameters;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AssertParametersTest {
+
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    void roundTripTest() throws Exception {
+        AssertParameters assertParameters = assertParameters(a -> a.setCondiscon("[[[\"irma-demo.gemeente.personalData.fullname\"]]]"));
+
+        assertEquals(assertParameters, AssertParameters.fromClaims(claims(assertParameters.toTreeMap())));
+    }
+
+    @Test
+    void roundTripWithRequestErrorTest() throws Exception {
+        AssertParameters assertParameters = assertParameters(a -> a.setRequestError(RequestError.builder()
+                .statusCode(400)
+                .message("The user cancelled.")
+                .build()));
+
+        assertEquals(assertParameters, AssertParameters.fromClaims(claims(assertParameters.toTreeMap())));
+    }
+
+    @Test
+    void roundTripWithoutFieldsTest() throws Exception {
+        AssertParameters assertParameters = AssertParameters.builder()
+                .requestError(RequestError.builder().statusCode(500).build())
+                .build();
+
+        Map<String, Object> map = assertParameters.toTreeMap();
+
+        assertEquals(Map.of("v", 2, "err", Map.of("c", 500)), map);
+        assertEquals(assertParameters, AssertParameters.fromClaims(claims(map)));
+    }
+
+    @Test
+    void version1Test() throws Exception {
+        AssertParameters assertParameters = assertParameters(a -> a.setRequestError(RequestError.builder()
+                .statusCode(400)
+                .message("The user cancelled.")
+                .build()));
+
+        assertEquals(assertParameters, AssertParameters.fromClaims(claims(version1(assertParameters))));
+        assertParameters.setRequestError(null);
+        assertEquals(assertParameters, AssertParameters.fromClaims(claims(version1(assertParameters))));
+    }
+
+    @Test
+    void unsupportedVersionTest() {
+        Map<String, Object> map = assertParameters().toTreeMap();
+        map.put("v", 3);
+
+        assertThrows(JsonProcessingException.class, () -> AssertParameters.fromClaims(claims(map)));
+    }
+
+    @Test
+    void smallerThanVersion1Test() throws Exception {
+        AssertParameters assertParameters = assertParameters();
+
+        String compact = OBJECT_MAPPER.writeValueAsString(assertParameters.toTreeMap());
+        String legacy = OBJECT_MAPPER.writeValueAsString(version1(assertParameters));
+
+        assertTrue(compact.length() < legacy.length(), compact.length() + " < " + legacy.length());
+        assertFalse(compact.contains("null"));
+    }
+
+    /**
+     * @return The claims as they are read from a JWT, i.e. after they were written as JSON.
+     */
+    static Claims claims(Map<String, Object> aparams) throws JsonProcessingException {
+        Map<?, ?> json = OBJECT_MAPPER.readValue(OBJECT_MAPPER.writeValueAsString(aparams), Map.class);
+        return Jwts.claims().add("aparams", json).build();
+    }
+
+    /**
+     * @return The mapping as written before the compact version 2.
+     */
+    static Map<String, Object> version1(AssertParameters assertParameters) throws JsonProcessingException {
+        Map<String, Object> map = new TreeMap<>();
+        map.put("sp_name", assertParameters.getSpName());
+        map.put("request_id", assertParameters.getRequestId());
+        map.put("service_url", assertParameters.getServiceUrl());
+        map.put("issuer", assertParameters.getIssuer());
+        map.put("condiscon", assertParameters.getCondiscon());
+        map.put("relay_state", assertParameters.getRelayState());
+        map.put("request_error", OBJECT_MAPPER.writeValueAsString(assertParameters.getRequestError()));
+        return map;
+    }
+}
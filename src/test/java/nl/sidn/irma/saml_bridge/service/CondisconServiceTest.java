@@ -0,0 +1,159 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import nl.sidn.irma.saml_bridge.model.Condiscon;
+import nl.sidn.irma.saml_bridge.model.CondisconMatcher;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CondisconServiceTest {
+
+    static final String CONDISCON = "[[[\"irma-demo.gemeente.personalData.fullname\"]],"
+            + "[[\"irma-demo.MijnOverheid.ageLower.over18\"],[\"irma-demo.MijnOverheid.ageLower.over21\"]]]";
+
+    Configuration configuration;
+
+    CondisconService condisconService;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new Configuration();
+        configuration.setDefaultCondiscon(new String[][][] {{{"irma-demo.gemeente.personalData.fullname"}}});
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.getConfiguration()).thenReturn(configuration);
+        condisconService = new CondisconService(configurationService);
+    }
+
+    @Test
+    void parseTest() throws Exception {
+        Condiscon condiscon = condisconService.parse(CONDISCON);
+
+        assertEquals(List.of(
+                List.of(List.of("irma-demo.gemeente.personalData.fullname")),
+                List.of(List.of("irma-demo.MijnOverheid.ageLower.over18"), List.of("irma-demo.MijnOverheid.ageLower.over21"))),
+                condiscon.getDiscons());
+        assertEquals(CONDISCON, condiscon.getJson());
+    }
+
+    @Test
+    void parseReturnsCanonicalInstanceTest() throws Exception {
+        Condiscon condiscon = condisconService.parse(CONDISCON);
+
+        assertSame(condiscon, condisconService.parse(CONDISCON));
+        // Formatting does not matter
+        assertSame(condiscon, condisconService.parse(CONDISCON.replace(",", " ,\n ")));
+        assertSame(condiscon, condisconService.of(new String[][][] {
+                {{"irma-demo.gemeente.personalData.fullname"}},
+                {{"irma-demo.MijnOverheid.ageLower.over18"}, {"irma-demo.MijnOverheid.ageLower.over21"}}}));
+        // The JSON form is passed back in the assert parameters
+        assertSame(condiscon, condisconService.parse(condiscon.getJson()));
+    }
+
+    @Test
+    void parseInvalidTest() {
+        assertThrows(JsonProcessingException.class, () -> condisconService.parse("condiscon"));
+        assertThrows(JsonProcessingException.class, () -> condisconService.parse("urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified"));
+        assertThrows(JsonProcessingException.class, () -> condisconService.parse("null"));
+        assertThrows(JsonProcessingException.class, () -> condisconService.parse("[[null]]"));
+        assertThrows(JsonProcessingException.class, () -> condisconService.parse("[[[\"a\", null]]]"));
+    }
+
+    @Test
+    void condisconIsImmutableTest() throws Exception {
+        String[][][] discons = {{{"irma-demo.gemeente.personalData.fullname"}}};
+        Condiscon condiscon = condisconService.of(discons);
+        discons[0][0][0] = "irma-demo.MijnOverheid.ageLower.over18";
+
+        assertEquals("[[[\"irma-demo.gemeente.personalData.fullname\"]]]", condiscon.getJson());
+        assertThrows(UnsupportedOperationException.class, () -> condiscon.getDiscons().get(0).get(0).add("other"));
+    }
+
+    @Test
+    void defaultCondisconTest() throws Exception {
+        Condiscon condiscon = condisconService.getDefaultCondiscon();
+
+        assertEquals("[[[\"irma-demo.gemeente.personalData.fullname\"]]]", condiscon.getJson());
+        assertSame(condiscon, condisconService.getDefaultCondiscon());
+        assertSame(condiscon, condisconService.parse(condiscon.getJson()));
+    }
+
+    @Test
+    void fulfillsCondisconTest() throws Exception {
+        Condiscon condiscon = condisconService.parse(CONDISCON);
+
+        assertTrue(disclosure("irma-demo.gemeente.personalData.fullname", "irma-demo.MijnOverheid.ageLower.over21")
+                .fulfillsCondiscon(condiscon));
+        assertFalse(disclosure("irma-demo.gemeente.personalData.fullname").fulfillsCondiscon(condiscon));
+        assertFalse(disclosure("irma-demo.MijnOverheid.ageLower.over18").fulfillsCondiscon(condiscon));
+    }
+
+    @Test
+    void satisfiedConsTest() throws Exception {
+        CondisconMatcher matcher = condisconService.parse("[[[\"a\"],[\"a\",\"b\"],[\"c\"]],[[],[\"d\"]]]").getMatcher();
+
+        // The con requesting the most attributes is chosen
+        assertArrayEquals(new int[] {1, 1}, matcher.satisfiedCons(List.of("a", "b", "c", "d")));
+        assertArrayEquals(new int[] {0, 0}, matcher.satisfiedCons(List.of("a", "c")));
+        assertArrayEquals(new int[] {2, 0}, matcher.satisfiedCons(List.of("c", "other")));
+        assertNull(matcher.satisfiedCons(List.of("b", "d")));
+    }
+
+    @Test
+    void matchesManyAttributesTest() throws Exception {
+        String[][] discon = new String[150][];
+        List<String> even = new ArrayList<>();
+        for (int i = 0; i < discon.length; i++) {
+            discon[i] = new String[] {"irma-demo.attribute" + i, "irma-demo.attribute" + (i + 1)};
+        }
+        for (int i = 0; i <= discon.length; i += 2) {
+            even.add("irma-demo.attribute" + i);
+        }
+        CondisconMatcher matcher = condisconService.of(new String[][][] {discon}).getMatcher();
+
+        assertTrue(matcher.matches(List.of("irma-demo.attribute127", "irma-demo.attribute128")));
+        assertArrayEquals(new int[] {127}, matcher.satisfiedCons(List.of("irma-demo.attribute127", "irma-demo.attribute128")));
+        assertFalse(matcher.matches(List.of("irma-demo.attribute63", "irma-demo.attribute65")));
+        assertFalse(matcher.matches(even));
+        assertTrue(matcher.matches(List.of("irma-demo.attribute149", "irma-demo.attribute150")));
+    }
+
+    @Test
+    void requestedByTest() throws Exception {
+        Condiscon condiscon = condisconService.parse(CONDISCON);
+
+        Disclosure requested = disclosure("irma-demo.gemeente.personalData.fullname",
+                "irma-demo.MijnOverheid.ageLower.over21", "irma-demo.gemeente.personalData.bsn").requestedBy(condiscon);
+
+        assertEquals(Set.of("irma-demo.gemeente.personalData.fullname", "irma-demo.MijnOverheid.ageLower.over21"),
+                requested.getAttributes().keySet());
+        assertEquals("VALID", requested.getProofStatus());
+        assertNull(disclosure("irma-demo.gemeente.personalData.fullname").requestedBy(condiscon));
+    }
+
+    static Disclosure disclosure(String... attributes) {
+        Disclosure disclosure = new Disclosure();
+        disclosure.setAttributes(new TreeMap<>());
+        for (String attribute : attributes) {
+            disclosure.getAttributes().put(attribute, "value");
+        }
+        disclosure.setProofStatus("VALID");
+        return disclosure;
+    }
+}
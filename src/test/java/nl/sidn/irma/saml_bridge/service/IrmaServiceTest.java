@@ -1,69 +1,288 @@
 package nl.sidn.irma.saml_bridge.service;
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidn.irma.saml_bridge.config.IrmaHttpClientConfig;
 import nl.sidn.irma.saml_bridge.exception.BridgeException;
+import nl.sidn.irma.saml_bridge.exception.InvalidConfigurationException;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.model.RequestorAuthMethod;
+import nl.sidn.irma.saml_bridge.model.SessionRequest;
+import nl.sidn.irma.saml_bridge.util.IrmaRoutes;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.test.context.junit.jupiter.SpringExtension;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.mockito.ArgumentMatchers.*;
-import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
-@ExtendWith(SpringExtension.class)
 class IrmaServiceTest {
 
-    @Mock
-    RestTemplate mockRestTemplate;
+    static final SessionRequest SESSION_REQUEST = SessionRequest.builder()
+            .authMethod(RequestorAuthMethod.PUBLICKEY)
+            .body("accessToken")
+            .build();
+
+    HttpServer server;
+
+    Configuration configuration;
+
+    ConfigurationService configurationService;
+
+    PoolingAsyncClientConnectionManager connectionManager;
+
+    CloseableHttpAsyncClient httpClient;
 
-    @InjectMocks
     IrmaService irmaService;
 
+    AtomicReference<String> receivedBody = new AtomicReference<>();
+
+    AtomicReference<Headers> receivedHeaders = new AtomicReference<>();
+
+    AtomicInteger prewarmRequests = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            prewarmRequests.incrementAndGet();
+            sleep(200);
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+
+        IrmaPath defaultMap = irmaPath();
+        defaultMap.setIrmaServiceHost("127.0.0.1:" + server.getAddress().getPort());
+        defaultMap.setMaxConnections(3);
+        defaultMap.setPrewarmConnections(2);
+        configuration = new Configuration();
+        configuration.setHttpsUsed(false);
+        configuration.setDefaultMap(defaultMap);
+        configurationService = mock(ConfigurationService.class);
+        when(configurationService.getConfiguration()).thenReturn(configuration);
+
+        IrmaHttpClientConfig irmaHttpClientConfig = new IrmaHttpClientConfig();
+        connectionManager = irmaHttpClientConfig.irmaConnectionManager(configurationService);
+        httpClient = irmaHttpClientConfig.httpAsyncClient(connectionManager, configurationService);
+        irmaService = new IrmaService(httpClient, configurationService, Duration.ofSeconds(30));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.stop(0);
+        httpClient.close();
+    }
+
     @Test
-    void startSessionTest() throws BridgeException {
-        String irmaResponse = "{}";
-        ResponseEntity<String> response = new ResponseEntity<>(irmaResponse, HttpStatus.OK);
-        when(mockRestTemplate.exchange(anyString(), any(), any(), eq(String.class))).thenReturn(response);
-        String data = irmaService.startSession("accessToken", "http://dummy");
-        verify(mockRestTemplate, times(1)).exchange(anyString(), any(), any(), eq(String.class));
-        assertEquals(irmaResponse, data);
+    void startSessionTest() throws Exception {
+        respond(200, "{}", 0);
+        String data = irmaService.startSession(SESSION_REQUEST, url(), irmaPath()).get(5, TimeUnit.SECONDS);
+        assertEquals("{}", data);
+        assertEquals("accessToken", receivedBody.get());
+        assertTrue(receivedHeaders.get().getFirst("Content-Type").startsWith("text/plain"));
+        assertNull(receivedHeaders.get().getFirst("Authorization"));
     }
 
     @Test
-    void startSessionTestNoResponseBody() throws BridgeException {
-        ResponseEntity<String> response = new ResponseEntity<>(HttpStatus.NO_CONTENT);
-        when(mockRestTemplate.exchange(anyString(), any(), any(), eq(String.class))).thenReturn(response);
-        irmaService.startSession("accessToken", "http://dummy");
-        verify(mockRestTemplate, times(1)).exchange(anyString(), any(), any(), eq(String.class));
+    void startSessionWithTokenTest() throws Exception {
+        respond(200, "{}", 0);
+        SessionRequest sessionRequest = SessionRequest.builder()
+                .authMethod(RequestorAuthMethod.TOKEN)
+                .body("{\"request\":{}}")
+                .authorization("requestorToken")
+                .build();
+
+        assertEquals("{}", irmaService.startSession(sessionRequest, url(), irmaPath()).get(5, TimeUnit.SECONDS));
+        assertEquals("{\"request\":{}}", receivedBody.get());
+        assertTrue(receivedHeaders.get().getFirst("Content-Type").startsWith("application/json"));
+        assertEquals("requestorToken", receivedHeaders.get().getFirst("Authorization"));
     }
 
     @Test
-    void startSessionTestWithStatusCodeIsNot2xx() {
-        ResponseEntity<String> response = new ResponseEntity<>(HttpStatus.TEMPORARY_REDIRECT);
-        when(mockRestTemplate.exchange(anyString(), any(), any(), eq(String.class))).thenReturn(response);
-        BridgeException exception = assertThrows(BridgeException.class, () -> irmaService.startSession("accessToken", "http://dummy"));
-        assertEquals(500, exception.getHttpStatusCode());
+    void startSessionTestNoResponseBody() throws Exception {
+        respond(204, null, 0);
+        assertNull(irmaService.startSession(SESSION_REQUEST, url(), irmaPath()).get(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    void startSessionTestWithStatusCodeIsNot2xx() {
+        respond(307, null, 0);
+        assertEquals(500, failure(irmaService.startSession(SESSION_REQUEST, url(), irmaPath())).getHttpStatusCode());
+    }
 
     @Test
-    void startSessionTestWithException() {
-        when(mockRestTemplate.exchange(anyString(), any(), any(), eq(String.class))).thenThrow(new HttpServerErrorException(HttpStatus.BAD_REQUEST, "error"));
-        BridgeException exception = assertThrows(BridgeException.class, () -> irmaService.startSession("accessToken", "http://dummy"));
-        assertEquals(500, exception.getHttpStatusCode());
+    void startSessionTestWithServerError() {
+        respond(500, "error", 0);
+        assertEquals(500, failure(irmaService.startSession(SESSION_REQUEST, url(), irmaPath())).getHttpStatusCode());
     }
 
     @Test
-    void startSessionTestWithHttpClientErrorException() {
-        when(mockRestTemplate.exchange(anyString(), any(), any(), eq(String.class))).thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "error"));
-        BridgeException exception = assertThrows(BridgeException.class, () -> irmaService.startSession("accessToken", "http://dummy"));
+    void startSessionTestWithClientError() {
+        respond(400, "error", 0);
+        BridgeException exception = failure(irmaService.startSession(SESSION_REQUEST, url(), irmaPath()));
         assertEquals(400, exception.getHttpStatusCode());
+        assertTrue(exception.getMessage().contains("error"));
+    }
+
+    @Test
+    void startSessionTestWithReadTimeout() {
+        respond(200, "{}", 2000);
+        IrmaPath irmaPath = irmaPath();
+        irmaPath.setReadTimeoutInMs(200);
+        assertEquals(504, failure(irmaService.startSession(SESSION_REQUEST, url(), irmaPath)).getHttpStatusCode());
+    }
+
+    @Test
+    void startSessionTestWithTotalTimeout() {
+        respond(200, "{}", 2000);
+        IrmaPath irmaPath = irmaPath();
+        irmaPath.setTotalTimeoutInMs(200);
+        long start = System.nanoTime();
+        assertEquals(504, failure(irmaService.startSession(SESSION_REQUEST, url(), irmaPath)).getHttpStatusCode());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+    }
+
+    @Test
+    void startSessionTestWithConnectionRefused() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        CompletableFuture<String> result = irmaService.startSession(SESSION_REQUEST, "http://127.0.0.1:" + port, irmaPath());
+        assertEquals(500, failure(result).getHttpStatusCode());
+    }
+
+    @Test
+    void totalTimeoutBeyondAsyncRequestTimeoutTest() {
+        configuration.getDefaultMap().setTotalTimeoutInMs(30000);
+
+        assertThrows(InvalidConfigurationException.class,
+                () -> new IrmaService(httpClient, configurationService, Duration.ofSeconds(30)));
+    }
+
+    @Test
+    void poolSettingsApplyToIrmaRouteTest() throws Exception {
+        HttpRoute route = IrmaRoutes.route(url());
+        assertEquals(3, connectionManager.getMaxPerRoute(route));
+
+        respond(200, "{}", 0);
+        irmaService.startSession(SESSION_REQUEST, url(), irmaPath()).get(5, TimeUnit.SECONDS);
+
+        // The connection must be pooled on exactly the route the settings were applied to
+        assertEquals(Set.of(route), connectionManager.getRoutes());
+        assertEquals(1, connectionManager.getStats(route).getAvailable());
+    }
+
+    @Test
+    void irmaRoutesTest() throws Exception {
+        IrmaPath other = irmaPath();
+        other.setIrmaServiceHost("irma.example.com");
+        IrmaPath same = irmaPath();
+        same.setIrmaServiceHost(configuration.getDefaultMap().getIrmaServiceHost());
+        configuration.setIrmaMapping(Map.of("other", other, "same", same));
+        configuration.setHttpsUsed(true);
+
+        Map<HttpRoute, IrmaPath> routes = IrmaRoutes.of(configuration);
+
+        assertEquals(2, routes.size());
+        assertSame(configuration.getDefaultMap(), routes.values().iterator().next());
+        HttpRoute otherRoute = IrmaRoutes.route("https://irma.example.com");
+        assertEquals(443, otherRoute.getTargetHost().getPort());
+        assertTrue(otherRoute.isSecure());
+        assertSame(other, routes.get(otherRoute));
+    }
+
+    @Test
+    void prewarmConnectionsTest() throws Exception {
+        irmaService.prewarmConnections().get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, prewarmRequests.get());
+        assertEquals(2, connectionManager.getStats(IrmaRoutes.route(url())).getAvailable());
+    }
+
+    @Test
+    void connectionPoolMetricsTest() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new IrmaHttpClientConfig().irmaConnectionPoolMetrics(connectionManager, configurationService)
+                .bindTo(registry);
+        irmaService.prewarmConnections().get(5, TimeUnit.SECONDS);
+
+        String host = IrmaRoutes.route(url()).getTargetHost().toURI();
+        assertEquals(3, registry.get("irma.connections.max").tag("host", host).gauge().value());
+        assertEquals(2, registry.get("irma.connections.available").tag("host", host).gauge().value());
+        assertEquals(0, registry.get("irma.connections.leased").tag("host", host).gauge().value());
+        assertEquals(0, registry.get("irma.connections.pending").tag("host", host).gauge().value());
+    }
+
+    /**
+     * Let the IRMA server answer session requests with the given status and body, after a delay.
+     */
+    void respond(int status, String body, long delayInMs) {
+        server.createContext("/session", (HttpExchange exchange) -> {
+            receivedBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            receivedHeaders.set(exchange.getRequestHeaders());
+            sleep(delayInMs);
+            byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            } catch (IOException e) {
+                // The client may have given up already
+            }
+        });
+    }
+
+    static void sleep(long delayInMs) {
+        try {
+            Thread.sleep(delayInMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    static IrmaPath irmaPath() {
+        IrmaPath irmaPath = new IrmaPath();
+        irmaPath.setConnectTimeoutInMs(1000);
+        irmaPath.setReadTimeoutInMs(2000);
+        irmaPath.setTotalTimeoutInMs(3000);
+        return irmaPath;
+    }
+
+    static BridgeException failure(CompletableFuture<String> result) {
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        return assertInstanceOf(BridgeException.class, exception.getCause());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,271 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.model.RequestorAuthMethod;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
+import nl.sidn.irma.saml_bridge.util.KeyReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static nl.sidn.irma.saml_bridge.Fixtures.configuration;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+class KeyServiceTest {
+
+    @Mock
+    private ConfigurationService configurationService;
+
+    @Mock
+    private KeyReader keyReader;
+
+    private X509Certificate certificate;
+
+    private RSAPrivateKey privateKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        privateKey = (RSAPrivateKey) keyPair.getPrivate();
+        certificate = mock(X509Certificate.class);
+        when(certificate.getPublicKey()).thenReturn(keyPair.getPublic());
+
+        when(configurationService.getConfiguration()).thenReturn(configuration());
+        when(keyReader.getPrivate(any())).thenReturn(privateKey);
+        when(keyReader.getSigningPrivate(any())).thenReturn(privateKey);
+        when(keyReader.getCertificate(any())).thenReturn(certificate);
+    }
+
+    @Test
+    void samlSigningMaterialTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+
+        KeyService keyService = new KeyService(configurationService, keyReader);
+
+        assertSame(certificate, keyService.getSamlCredential().getEntityCertificate());
+        assertSame(privateKey, keyService.getSamlCredential().getPrivateKey());
+        assertEquals(Base64.getEncoder().encodeToString("test".getBytes()), keyService.getSamlCertificateBase64());
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, keyService.getSamlSigningKey().getSignatureAlgorithm());
+        assertNull(keyService.getSamlEcSigningKey());
+        assertEquals(List.of(keyService.getSamlSigningKey()), keyService.getSamlSigningKeys());
+    }
+
+    @Test
+    void ecSigningKeyTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        mockEcKey("secp256r1");
+
+        KeyService keyService = createWithEcKey();
+
+        SigningKey ecSigningKey = keyService.getSamlEcSigningKey();
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, ecSigningKey.getSignatureAlgorithm());
+        assertEquals("SHA256withECDSAinP1363Format", ecSigningKey.getJcaAlgorithm());
+        assertEquals(List.of(ecSigningKey, keyService.getSamlSigningKey()), keyService.getSamlSigningKeys());
+    }
+
+    @Test
+    void ecP384SigningKeyTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        mockEcKey("secp384r1");
+
+        KeyService keyService = createWithEcKey();
+
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384, keyService.getSamlEcSigningKey().getSignatureAlgorithm());
+        assertEquals("SHA384withECDSAinP1363Format", keyService.getSamlEcSigningKey().getJcaAlgorithm());
+    }
+
+    @Test
+    void ecUnsupportedCurveTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        mockEcKey("secp521r1");
+
+        assertThrows(InvalidKeySpecException.class, this::createWithEcKey);
+    }
+
+    @Test
+    void ecCurveOfSameSizeTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        // secp256k1 has a 256 bit field like P-256, but is no P-256 key.
+        ECParameterSpec secp256k1 = new ECParameterSpec(
+                new EllipticCurve(new ECFieldFp(new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F", 16)),
+                        BigInteger.ZERO, BigInteger.valueOf(7)),
+                new ECPoint(new BigInteger("79BE667EF9DCBBAC55A06295CE870B07029BFCDB2DCE28D959F2815B16F81798", 16),
+                        new BigInteger("483ADA7726A3C4655DA4FBFC0E1108A8FD17B448A68554199C47D08FFB10D4B8", 16)),
+                new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16),
+                1);
+        mockEcKey("secp256r1");
+        ECPrivateKey ecPrivateKey = mock(ECPrivateKey.class);
+        when(ecPrivateKey.getParams()).thenReturn(secp256k1);
+        when(ecPrivateKey.getAlgorithm()).thenReturn("EC");
+        when(keyReader.getSigningPrivate(eq("ec.der"))).thenReturn(ecPrivateKey);
+
+        assertThrows(InvalidKeySpecException.class, this::createWithEcKey);
+    }
+
+    @Test
+    void certificateOfOtherKeyPairTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        when(certificate.getPublicKey()).thenReturn(generator.generateKeyPair().getPublic());
+
+        assertThrows(InvalidKeySpecException.class, () -> new KeyService(configurationService, keyReader));
+    }
+
+    @Test
+    void ecPrimaryKeyTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        KeyPair keyPair = ecKeyPair("secp256r1");
+        when(certificate.getPublicKey()).thenReturn(keyPair.getPublic());
+        when(keyReader.getSigningPrivate(any())).thenReturn(keyPair.getPrivate());
+
+        // Service Providers that list no signing method get RSA signatures.
+        assertThrows(InvalidKeySpecException.class, () -> new KeyService(configurationService, keyReader));
+    }
+
+    @Test
+    void ecCertificateOfOtherKeyPairTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        mockEcKey("secp256r1");
+        when(keyReader.getSigningPrivate(eq("ec.der"))).thenReturn(ecKeyPair("secp256r1").getPrivate());
+
+        assertThrows(InvalidKeySpecException.class, this::createWithEcKey);
+    }
+
+    @Test
+    void ecCertificateMismatchTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        when(keyReader.getSigningPrivate("ec.der")).thenReturn(ecKeyPair("secp256r1").getPrivate());
+        when(keyReader.getCertificate("ec.crt")).thenReturn(certificate);
+
+        assertThrows(InvalidKeySpecException.class, this::createWithEcKey);
+    }
+
+    @Test
+    void selectSigningKeyTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        mockEcKey("secp256r1");
+
+        KeyService keyService = createWithEcKey();
+        SigningKey rsa = keyService.getSamlSigningKey();
+        SigningKey ec = keyService.getSamlEcSigningKey();
+
+        // Without a preference, or without an algorithm we have a key for, fall back to RSA.
+        assertEquals(rsa, keyService.selectSigningKey(null));
+        assertEquals(rsa, keyService.selectSigningKey(List.of()));
+        assertEquals(rsa, keyService.selectSigningKey(List.of(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512)));
+
+        // Otherwise follow the order of preference of the Service Provider.
+        assertEquals(ec, keyService.selectSigningKey(List.of(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256)));
+        assertEquals(ec, keyService.selectSigningKey(List.of(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512,
+                SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256)));
+        assertEquals(rsa, keyService.selectSigningKey(List.of(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256)));
+
+        assertEquals(ec, keyService.findSigningKey(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256));
+        assertEquals(rsa, keyService.findSigningKey(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256));
+    }
+
+    private KeyService createWithEcKey() throws Exception {
+        when(configurationService.getConfiguration()).thenReturn(configuration(c -> {
+            c.setSamlEcCertificatePath("ec.crt");
+            c.setSamlEcPrivateKeyPath("ec.der");
+        }));
+
+        return new KeyService(configurationService, keyReader);
+    }
+
+    private void mockEcKey(String curve) throws Exception {
+        KeyPair keyPair = ecKeyPair(curve);
+        X509Certificate ecCertificate = mock(X509Certificate.class);
+        when(ecCertificate.getEncoded()).thenReturn("ec".getBytes());
+        when(ecCertificate.getPublicKey()).thenReturn(keyPair.getPublic());
+
+        when(keyReader.getSigningPrivate(eq("ec.der"))).thenReturn(keyPair.getPrivate());
+        when(keyReader.getCertificate(eq("ec.crt"))).thenReturn(ecCertificate);
+    }
+
+    private static KeyPair ecKeyPair(String curve) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        return generator.generateKeyPair();
+    }
+
+    @Test
+    void assertParametersKeysTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        SecretKey key = new SecretKeySpec(new byte[32], "AES");
+        when(keyReader.getSecret(eq("1.key"))).thenReturn(key);
+        when(configurationService.getConfiguration()).thenReturn(configuration(c -> {
+            c.setAssertParametersKeyPaths(Map.of("1", "1.key"));
+            c.setAssertParametersKeyId("1");
+        }));
+
+        KeyService keyService = new KeyService(configurationService, keyReader);
+
+        assertEquals(Map.of("1", key), keyService.getAssertParametersKeys());
+    }
+
+    @Test
+    void requestorKeysTest() throws Exception {
+        when(certificate.getEncoded()).thenReturn("test".getBytes());
+        SecretKey key = new SecretKeySpec(new byte[32], "HmacSHA256");
+        when(keyReader.getHmacSecret(eq("requestor.key"))).thenReturn(key);
+        when(keyReader.getToken(eq("requestor.token"))).thenReturn("requestorToken");
+        IrmaPath hmac = new IrmaPath();
+        hmac.setAuthMethod(RequestorAuthMethod.HMAC);
+        hmac.setAuthKeyPath("requestor.key");
+        IrmaPath token = new IrmaPath();
+        token.setAuthMethod(RequestorAuthMethod.TOKEN);
+        token.setAuthKeyPath("requestor.token");
+        when(configurationService.getConfiguration()).thenReturn(configuration(c -> {
+            c.setIrmaMapping(Map.of("hmac", hmac, "token", token));
+        }));
+
+        KeyService keyService = new KeyService(configurationService, keyReader);
+
+        assertEquals(key, keyService.getRequestorHmacKey(hmac));
+        assertEquals("requestorToken", keyService.getRequestorToken(token));
+        assertEquals(1, keyService.getRequestorHmacKeys().size());
+        assertEquals(1, keyService.getRequestorTokens().size());
+    }
+
+    @Test
+    void samlCertificateEncodingExceptionTest() throws Exception {
+        when(certificate.getEncoded()).thenThrow(mock(CertificateEncodingException.class));
+
+        assertThrows(CertificateEncodingException.class, () -> new KeyService(configurationService, keyReader));
+    }
+}
@@ -0,0 +1,83 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.shibboleth.shared.xml.ParserPool;
+import nl.sidn.irma.saml_bridge.config.SamlConfiguration;
+import nl.sidn.irma.saml_bridge.model.IdPMetadata;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import nl.sidn.irma.saml_bridge.util.KeyReader;
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
+import nl.sidn.irma.saml_bridge.util.XmlSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataServiceTest {
+
+    ConfigurationService configurationService;
+
+    KeyService keyService;
+
+    ParserPool parserPool;
+
+    MetadataService metadataService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        configurationService = new ConfigurationService(new ObjectMapper());
+        keyService = new KeyService(configurationService, new KeyReader());
+        parserPool = new SamlConfiguration().parserPool();
+
+        OpenSamlService openSamlService = new OpenSamlService(configurationService, keyService, parserPool,
+                new SamlObjectBuilders(), new XmlSerializer(), new IdGenerator());
+        metadataService = new MetadataService(configurationService, openSamlService);
+    }
+
+    @Test
+    void metadataIsReusedTest() throws Exception {
+        IdPMetadata metadata = metadataService.getMetadata();
+
+        assertSame(metadata, metadataService.getMetadata());
+        assertTrue(metadata.getEtag().startsWith("\"") && metadata.getEtag().endsWith("\""));
+        assertEquals(Duration.ofSeconds(30), metadata.getCacheDuration());
+        assertNull(parse(metadata).getSignature());
+    }
+
+    @Test
+    void metadataIsCreatedOnceTest() throws Exception {
+        IdPMetadata metadata = metadataService.getMetadata();
+
+        // The configuration is only loaded at startup, so it is not read again.
+        configurationService.getConfiguration().setIssuerName("other-irma-saml-bridge");
+
+        assertSame(metadata, metadataService.getMetadata());
+    }
+
+    @Test
+    void signedMetadataTest() throws Exception {
+        configurationService.getConfiguration().setSignMetadata(true);
+
+        IdPMetadata metadata = metadataService.getMetadata();
+        EntityDescriptor entityDescriptor = parse(metadata);
+
+        assertSame(metadata, metadataService.getMetadata());
+        assertNotNull(entityDescriptor.getSignature());
+        SignatureValidator.validate(entityDescriptor.getSignature(), keyService.getSamlCredential());
+    }
+
+    EntityDescriptor parse(IdPMetadata metadata) throws Exception {
+        return (EntityDescriptor) XMLObjectSupport.unmarshallFromInputStream(parserPool,
+                new ByteArrayInputStream(metadata.getDocument()));
+    }
+}
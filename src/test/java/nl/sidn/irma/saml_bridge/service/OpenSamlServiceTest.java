@@ -4,25 +4,32 @@ import net.shibboleth.shared.xml.ParserPool;
 import nl.sidn.irma.saml_bridge.model.AssertParameters;
 import nl.sidn.irma.saml_bridge.model.Disclosure;
 import nl.sidn.irma.saml_bridge.model.ResultStatus;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
+import nl.sidn.irma.saml_bridge.util.XmlSerializer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.saml.ext.saml2alg.SigningMethod;
 import org.opensaml.saml.saml2.core.Response;
 import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.IDPSSODescriptor;
 import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509Certificate;
+import javax.xml.transform.TransformerConfigurationException;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.List;
 
 import static nl.sidn.irma.saml_bridge.Fixtures.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
@@ -37,14 +44,18 @@ class OpenSamlServiceTest {
     @Mock
     private ParserPool parserPool;
 
-    @InjectMocks
     OpenSamlService openSamlService;
 
     @BeforeEach
-    void setUp() throws CertificateEncodingException {
+    void setUp() throws InitializationException, TransformerConfigurationException {
+        openSamlService = new OpenSamlService(configurationService, keyService, parserPool, new SamlObjectBuilders(),
+                new XmlSerializer(), new IdGenerator());
         when(configurationService.getConfiguration()).thenReturn(configuration());
-        when(keyService.getSamlCertificate()).thenReturn(mock(X509Certificate.class));
-        when(keyService.getSamlCertificate().getEncoded()).thenReturn("test".getBytes());
+        when(keyService.getSamlCertificateBase64()).thenReturn(Base64.getEncoder().encodeToString("test".getBytes()));
+        when(keyService.getSamlSigningKeys()).thenReturn(List.of(SigningKey.builder()
+                .certificateBase64(Base64.getEncoder().encodeToString("test".getBytes()))
+                .signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256)
+                .build()));
     }
 
     @Test
@@ -84,19 +95,56 @@ class OpenSamlServiceTest {
     }
 
     @Test
-    void createIdPMetadataTest() throws CertificateEncodingException {
+    void createIdPMetadataTest() {
         EntityDescriptor entityDescriptor = openSamlService.createIdPMetadata();
         assertNotNull(entityDescriptor);
     }
 
     @Test
-    void createSPMetadataTest() throws CertificateEncodingException {
+    void createIdPMetadataUsesEncodedCertificateTest() {
+        EntityDescriptor entityDescriptor = openSamlService.createIdPMetadata();
+
+        IDPSSODescriptor idpssoDescriptor = (IDPSSODescriptor) entityDescriptor.getRoleDescriptors().get(0);
+        String certificate = idpssoDescriptor.getKeyDescriptors().get(0).getKeyInfo()
+                .getX509Datas().get(0).getX509Certificates().get(0).getValue();
+        assertEquals(keyService.getSamlCertificateBase64(), certificate);
+    }
+
+    @Test
+    void createIdPMetadataAdvertisesSigningKeysTest() {
+        when(keyService.getSamlSigningKeys()).thenReturn(List.of(
+                SigningKey.builder()
+                        .certificateBase64(Base64.getEncoder().encodeToString("ec".getBytes()))
+                        .signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256)
+                        .build(),
+                SigningKey.builder()
+                        .certificateBase64(Base64.getEncoder().encodeToString("test".getBytes()))
+                        .signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256)
+                        .build()));
+
+        EntityDescriptor entityDescriptor = openSamlService.createIdPMetadata();
+
+        IDPSSODescriptor idpssoDescriptor = (IDPSSODescriptor) entityDescriptor.getRoleDescriptors().get(0);
+        assertEquals(2, idpssoDescriptor.getKeyDescriptors().size());
+        assertEquals(Base64.getEncoder().encodeToString("ec".getBytes()), idpssoDescriptor.getKeyDescriptors().get(0)
+                .getKeyInfo().getX509Datas().get(0).getX509Certificates().get(0).getValue());
+
+        List<String> signingMethods = entityDescriptor.getExtensions().getUnknownXMLObjects(SigningMethod.DEFAULT_ELEMENT_NAME)
+                .stream()
+                .map(signingMethod -> ((SigningMethod) signingMethod).getAlgorithm())
+                .toList();
+        assertEquals(List.of(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256),
+                signingMethods);
+    }
+
+    @Test
+    void createSPMetadataTest() {
         EntityDescriptor entityDescriptor = openSamlService.createSPMetadata();
         assertNotNull(entityDescriptor);
     }
 
     @Test
-    void createSPMetadataAssertionConsumerServiceHonoursConfiguredPostfix() throws CertificateEncodingException {
+    void createSPMetadataAssertionConsumerServiceHonoursConfiguredPostfix() {
         // Regression for the hardcoded "/irma-saml-bridge/test/return" Location that broke
         // the SAML return flow in every deployed env where the context-path differs from
         // the local-dev default.
@@ -6,6 +6,8 @@ import nl.sidn.irma.saml_bridge.model.AssertParameters;
 import nl.sidn.irma.saml_bridge.model.Disclosure;
 import nl.sidn.irma.saml_bridge.model.RedirectInstruction;
 import nl.sidn.irma.saml_bridge.model.ResultStatus;
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -15,16 +17,21 @@ import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.saml2.core.Response;
 import org.opensaml.security.SecurityException;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import javax.xml.transform.TransformerException;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateEncodingException;
+import java.util.List;
 
 import static nl.sidn.irma.saml_bridge.Fixtures.assertParameters;
 import static nl.sidn.irma.saml_bridge.Fixtures.disclosure;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
@@ -33,11 +40,33 @@ class RedirectInstructionServiceTest {
     @Mock
     private OpenSamlService openSamlService;
 
+    @Mock
+    private SelfVerificationService selfVerificationService;
+
+    @Mock
+    private TemplateResponseWriter templateResponseWriter;
+
+    @Mock
+    private SigningExecutor signingExecutor;
+
+    @Mock
+    private KeyService keyService;
+
+    @Mock
+    private SignatureValidationService signatureValidationService;
+
     @InjectMocks
     private RedirectInstructionService redirectInstructionService;
 
+    private final SigningKey signingKey = SigningKey.builder()
+            .signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256)
+            .build();
+
     @BeforeEach
-    void setUp() {
+    void setUp() throws BridgeException {
+        // Sign on the calling thread.
+        when(signingExecutor.execute(any())).thenAnswer(invocation -> invocation.<SigningExecutor.SigningTask<?>>getArgument(0).run());
+        when(keyService.selectSigningKey(any())).thenReturn(signingKey);
     }
 
     @Test
@@ -46,12 +75,56 @@ class RedirectInstructionServiceTest {
         Disclosure disclosure = disclosure();
 
         when(openSamlService.createAssertionResponse(any(AssertParameters.class), any(Disclosure.class), any(ResultStatus.class))).thenReturn(mock(Response.class));
-        when(openSamlService.marshallResponse(any(Response.class))).thenReturn("saml response");
-        doNothing().when(openSamlService).verifyAssertionResponse(anyString());
+        when(openSamlService.marshallResponse(any(Response.class), eq(signingKey))).thenReturn("saml response".getBytes(StandardCharsets.UTF_8));
+        doNothing().when(selfVerificationService).verify(any(Response.class), any(byte[].class));
         RedirectInstruction redirectInstruction = redirectInstructionService.create(assertParameters, disclosure, ResultStatus.SUCCESS);
         assertNotNull(redirectInstruction);
     }
 
+    @Test
+    void createFromTemplateTest() throws BridgeException, MarshallingException, SignatureException, XMLParserException, UnmarshallingException {
+        AssertParameters assertParameters = assertParameters();
+        Disclosure disclosure = disclosure();
+
+        when(templateResponseWriter.isEnabled()).thenReturn(true);
+        when(templateResponseWriter.write(assertParameters, disclosure, ResultStatus.SUCCESS, signingKey)).thenReturn("saml response".getBytes(StandardCharsets.UTF_8));
+        RedirectInstruction redirectInstruction = redirectInstructionService.create(assertParameters, disclosure, ResultStatus.SUCCESS);
+
+        assertArrayEquals("saml response".getBytes(StandardCharsets.UTF_8), redirectInstruction.getSamlResponse());
+        verify(selfVerificationService).verify(null, "saml response".getBytes(StandardCharsets.UTF_8));
+        verify(openSamlService, never()).createAssertionResponse(any(), any(), any());
+    }
+
+    @Test
+    void createWithSigningMethodOfServiceProviderTest() throws BridgeException, MarshallingException, SignatureException, TransformerException {
+        AssertParameters assertParameters = assertParameters();
+        List<String> signingMethods = List.of(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256);
+        SigningKey ecSigningKey = SigningKey.builder()
+                .signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256)
+                .build();
+
+        when(signatureValidationService.findServiceProvider(assertParameters.getIssuer())).thenReturn(ServiceProvider.builder()
+                .entityId(assertParameters.getIssuer())
+                .signingMethods(signingMethods)
+                .build());
+        when(keyService.selectSigningKey(signingMethods)).thenReturn(ecSigningKey);
+        when(openSamlService.createAssertionResponse(any(AssertParameters.class), any(Disclosure.class), any(ResultStatus.class))).thenReturn(mock(Response.class));
+        when(openSamlService.marshallResponse(any(Response.class), eq(ecSigningKey))).thenReturn("saml response".getBytes(StandardCharsets.UTF_8));
+
+        RedirectInstruction redirectInstruction = redirectInstructionService.create(assertParameters, disclosure(), ResultStatus.SUCCESS);
+
+        assertArrayEquals("saml response".getBytes(StandardCharsets.UTF_8), redirectInstruction.getSamlResponse());
+    }
+
+    @Test
+    void createSigningQueueBusyTest() throws BridgeException {
+        when(signingExecutor.execute(any())).thenThrow(new BridgeException(HttpStatus.SERVICE_UNAVAILABLE, "Too many responses are being signed, try again later"));
+
+        BridgeException bridgeException = assertThrows(BridgeException.class, () -> redirectInstructionService.create(assertParameters(), disclosure(), ResultStatus.SUCCESS));
+        assertEquals(503, bridgeException.getHttpStatusCode());
+        verifyNoInteractions(openSamlService, templateResponseWriter, selfVerificationService);
+    }
+
     @Test
     void createTestExceptions() throws BridgeException, MarshallingException, SecurityException, CertificateEncodingException, SignatureException, TransformerException, XMLParserException, UnmarshallingException {
         AssertParameters assertParameters = assertParameters();
@@ -60,24 +133,24 @@ class RedirectInstructionServiceTest {
         when(openSamlService.createAssertionResponse(any(AssertParameters.class), any(Disclosure.class), any(ResultStatus.class))).thenReturn(mock(Response.class));
 
         //MarshallingException
-        when(openSamlService.marshallResponse(any(Response.class))).thenThrow(mock(MarshallingException.class));
-        //doNothing().when(openSamlService).verifyAssertionResponse(anyString());
+        when(openSamlService.marshallResponse(any(Response.class), eq(signingKey))).thenThrow(mock(MarshallingException.class));
+        //doNothing().when(selfVerificationService).verify(any(Response.class), any(byte[].class));
         BridgeException bridgeException = assertThrows(BridgeException.class, () -> redirectInstructionService.create(assertParameters, disclosure, ResultStatus.SUCCESS));
         assertEquals("Failed to marshall assertion", bridgeException.getMessage());
 
         //TransformerException
-        when(openSamlService.marshallResponse(any(Response.class))).thenThrow(mock(TransformerException.class));
+        when(openSamlService.marshallResponse(any(Response.class), eq(signingKey))).thenThrow(mock(TransformerException.class));
         bridgeException = assertThrows(BridgeException.class, () -> redirectInstructionService.create(assertParameters, disclosure, ResultStatus.SUCCESS));
         assertEquals("Failed to write assertion", bridgeException.getMessage());
 
         //SignatureException
-        when(openSamlService.marshallResponse(any(Response.class))).thenThrow(mock(SignatureException.class));
+        when(openSamlService.marshallResponse(any(Response.class), eq(signingKey))).thenThrow(mock(SignatureException.class));
         bridgeException = assertThrows(BridgeException.class, () -> redirectInstructionService.create(assertParameters, disclosure, ResultStatus.SUCCESS));
         assertEquals("Failed to write signature", bridgeException.getMessage());
 
         //UnmarshallingException
-        when(openSamlService.marshallResponse(any(Response.class))).thenReturn("saml response");
-        doThrow(mock(UnmarshallingException.class)).when(openSamlService).verifyAssertionResponse(anyString());
+        when(openSamlService.marshallResponse(any(Response.class), eq(signingKey))).thenReturn("saml response".getBytes(StandardCharsets.UTF_8));
+        doThrow(mock(UnmarshallingException.class)).when(selfVerificationService).verify(any(Response.class), any(byte[].class));
         bridgeException = assertThrows(BridgeException.class, () -> redirectInstructionService.create(assertParameters, disclosure, ResultStatus.SUCCESS));
         assertEquals("Failed to validate signature or format of our assertion", bridgeException.getMessage());
     }
@@ -0,0 +1,226 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static nl.sidn.irma.saml_bridge.service.ReplayCacheService.Result.ACCEPTED;
+import static nl.sidn.irma.saml_bridge.service.ReplayCacheService.Result.FULL;
+import static nl.sidn.irma.saml_bridge.service.ReplayCacheService.Result.REPLAYED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReplayCacheServiceTest {
+
+    static final String ISSUER = "http://localhost:8080/sp";
+
+    MutableClock clock = new MutableClock(Instant.parse("2024-01-01T12:00:00Z"));
+
+    SimpleMeterRegistry registry;
+
+    ReplayCacheService replayCacheService;
+
+    @BeforeEach
+    void setUp() {
+        replayCacheService = create(60, 100);
+    }
+
+    ReplayCacheService create(int ttlInSec, int maxEntries) {
+        return create(ttlInSec, maxEntries, 30);
+    }
+
+    ReplayCacheService create(int ttlInSec, int maxEntries, int samlClockSkewInSec) {
+        Configuration configuration = new Configuration();
+        configuration.setRequestTtlInSec(ttlInSec);
+        configuration.setReplayCacheMaxEntries(maxEntries);
+        configuration.setSamlClockSkewInSec(samlClockSkewInSec);
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.getConfiguration()).thenReturn(configuration);
+
+        registry = new SimpleMeterRegistry();
+        ReplayCacheService service = new ReplayCacheService(configurationService, registry);
+        service.setClock(clock);
+        return service;
+    }
+
+    @Test
+    void replayIsRejectedTest() {
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+        assertEquals(REPLAYED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_2", clock.instant()));
+        assertEquals(2, replayCacheService.size());
+    }
+
+    @Test
+    void sameIdOfOtherIssuerIsAcceptedTest() {
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+        assertEquals(ACCEPTED, replayCacheService.register("http://localhost:8080/other-sp", "_1", clock.instant()));
+    }
+
+    @Test
+    void entriesExpireAfterTtlTest() {
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+
+        clock.advance(59);
+        assertEquals(REPLAYED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+
+        clock.advance(1);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+        assertEquals(1, replayCacheService.size());
+    }
+
+    @Test
+    void entriesLiveUntilTtlOfFutureIssueInstantTest() {
+        // A request issued by an SP with a clock running ahead is valid for longer, so must be remembered longer
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant().plusSeconds(20)));
+
+        clock.advance(79);
+        assertEquals(REPLAYED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+
+        clock.advance(1);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+    }
+
+    @Test
+    void entriesOfFarFutureIssueInstantAreClampedTest() {
+        // samlClockSkewInSec is 30, requests issued further in the future are rejected before they are registered
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant().plusSeconds(3600)));
+
+        clock.advance(89);
+        assertEquals(REPLAYED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+
+        clock.advance(1);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+        assertEquals(1, replayCacheService.size());
+    }
+
+    @Test
+    void entriesAreClampedBySamlClockSkewTest() {
+        // The JWT clock skew stays 30, only the SAML clock skew applies.
+        replayCacheService = create(60, 100, 10);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant().plusSeconds(3600)));
+
+        clock.advance(69);
+        assertEquals(REPLAYED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+
+        clock.advance(1);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_1", clock.instant()));
+    }
+
+    @Test
+    void entriesExpireAfterLongIdlePeriodTest() {
+        for (int i = 0; i < 50; i++) {
+            replayCacheService.register(ISSUER, "_" + i, clock.instant());
+        }
+
+        clock.advance(3600);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_0", clock.instant()));
+        assertEquals(1, replayCacheService.size());
+    }
+
+    @Test
+    void fullCacheRejectsNewRequestsTest() {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_" + i, clock.instant()));
+        }
+
+        assertEquals(FULL, replayCacheService.register(ISSUER, "_100", clock.instant()));
+        assertEquals(REPLAYED, replayCacheService.register(ISSUER, "_0", clock.instant()));
+        assertEquals(100, replayCacheService.size());
+
+        // Entries in other stripes are expired when room is needed
+        clock.advance(60);
+        assertEquals(ACCEPTED, replayCacheService.register(ISSUER, "_100", clock.instant()));
+        assertEquals(1, replayCacheService.size());
+    }
+
+    @Test
+    void concurrentRegistrationsAcceptEachRequestOnceTest() throws Exception {
+        replayCacheService = create(60, 100000);
+        int threads = 8;
+        int requests = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int accepted = 0;
+                    for (int i = 0; i < requests; i++) {
+                        if (replayCacheService.register(ISSUER, "_" + i, clock.instant()) == ACCEPTED) {
+                            accepted++;
+                        }
+                    }
+                    return accepted;
+                }));
+            }
+            start.countDown();
+
+            int accepted = 0;
+            for (Future<Integer> result : results) {
+                accepted += result.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(requests, accepted);
+            assertEquals(requests, replayCacheService.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void metricsTest() {
+        replayCacheService = create(60, 2);
+        replayCacheService.register(ISSUER, "_1", clock.instant());
+        replayCacheService.register(ISSUER, "_1", clock.instant());
+        replayCacheService.register(ISSUER, "_2", clock.instant());
+        replayCacheService.register(ISSUER, "_3", clock.instant());
+
+        assertEquals(2, registry.get("saml.replay.cache.entries").gauge().value());
+        assertEquals(2, registry.get("saml.replay.cache.capacity").gauge().value());
+        assertEquals(1, registry.get("saml.replay.cache.rejections").tag("reason", "replayed").counter().count());
+        assertEquals(1, registry.get("saml.replay.cache.rejections").tag("reason", "full").counter().count());
+    }
+
+    static class MutableClock extends Clock {
+
+        private Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void advance(long seconds) {
+            instant = instant.plusSeconds(seconds);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
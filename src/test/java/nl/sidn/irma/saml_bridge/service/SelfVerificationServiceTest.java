@@ -0,0 +1,114 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import nl.sidn.irma.saml_bridge.model.SelfVerification;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SelfVerificationServiceTest {
+
+    static final byte[] MARSHALLED = "<saml2p:Response/>".getBytes(StandardCharsets.UTF_8);
+
+    OpenSamlService openSamlService = mock(OpenSamlService.class);
+
+    Response response = mock(Response.class);
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    SelfVerificationService create(SelfVerification mode, int sampleRate) {
+        Configuration configuration = new Configuration();
+        configuration.setSelfVerification(mode);
+        configuration.setSelfVerificationSampleRate(sampleRate);
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.getConfiguration()).thenReturn(configuration);
+
+        return new SelfVerificationService(configurationService, openSamlService, registry);
+    }
+
+    @Test
+    void alwaysTest() throws Exception {
+        SelfVerificationService service = create(SelfVerification.ALWAYS, 100);
+
+        service.verify(response, MARSHALLED);
+        service.verify(response, MARSHALLED);
+
+        verify(openSamlService, times(2)).verifyAssertionResponse(MARSHALLED);
+        verify(openSamlService, never()).verifySignedResponse(any());
+        assertEquals(2, count("always", "verified"));
+    }
+
+    @Test
+    void sampledTest() throws Exception {
+        SelfVerificationService service = create(SelfVerification.SAMPLED, 10);
+
+        for (int i = 0; i < 25; i++) {
+            service.verify(response, MARSHALLED);
+        }
+
+        verify(openSamlService, times(3)).verifyAssertionResponse(MARSHALLED);
+        assertEquals(3, count("sampled", "verified"));
+        assertEquals(22, count("sampled", "skipped"));
+    }
+
+    @Test
+    void inMemoryTest() throws Exception {
+        SelfVerificationService service = create(SelfVerification.IN_MEMORY, 100);
+
+        service.verify(response, MARSHALLED);
+
+        verify(openSamlService).verifySignedResponse(response);
+        verify(openSamlService, never()).verifyAssertionResponse(any());
+        assertEquals(1, count("in_memory", "verified"));
+    }
+
+    @Test
+    void inMemoryTemplateTest() throws Exception {
+        SelfVerificationService service = create(SelfVerification.IN_MEMORY, 100);
+
+        service.verify(null, MARSHALLED);
+
+        verify(openSamlService).verifyAssertionResponse(MARSHALLED);
+        verify(openSamlService, never()).verifySignedResponse(any());
+        assertEquals(1, count("in_memory", "verified"));
+    }
+
+    @Test
+    void offTest() throws Exception {
+        SelfVerificationService service = create(SelfVerification.OFF, 100);
+
+        service.verify(response, MARSHALLED);
+
+        verify(openSamlService, never()).verifyAssertionResponse(any());
+        verify(openSamlService, never()).verifySignedResponse(any());
+        assertEquals(1, count("off", "skipped"));
+    }
+
+    @Test
+    void failureTest() throws Exception {
+        SelfVerificationService service = create(SelfVerification.IN_MEMORY, 100);
+        doThrow(new SignatureException("Signature did not validate")).when(openSamlService).verifySignedResponse(response);
+
+        assertThrows(SignatureException.class, () -> service.verify(response, MARSHALLED));
+
+        assertEquals(1, count("in_memory", "failed"));
+        assertEquals(0, count("in_memory", "verified"));
+    }
+
+    double count(String mode, String result) {
+        return registry.get("saml.self.verifications").tag("mode", mode).tag("result", result).counter().count();
+    }
+}
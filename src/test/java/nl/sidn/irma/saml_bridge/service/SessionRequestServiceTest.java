@@ -0,0 +1,155 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.sidn.irma.saml_bridge.model.Condiscon;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import nl.sidn.irma.saml_bridge.model.IrmaPath;
+import nl.sidn.irma.saml_bridge.model.RequestorAuthMethod;
+import nl.sidn.irma.saml_bridge.model.SessionRequest;
+import nl.sidn.irma.saml_bridge.util.JwtUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionRequestServiceTest {
+
+    static final String CONDISCON = "[[[\"irma-demo.gemeente.personalData.fullname\"]]]";
+
+    static final Map<String, Object> SPREQUEST = Map.of(
+            "request", Map.of(
+                    "@context", "https://irma.app/ld/request/disclosure/v2",
+                    "disclose", List.of(List.of(List.of("irma-demo.gemeente.personalData.fullname"))),
+                    "host", "irma.example.org"),
+            "validity", 30);
+
+    static final SecretKey HMAC_KEY = new SecretKeySpec(new byte[32], "HmacSHA256");
+
+    Configuration configuration;
+
+    ConfigurationService configurationService;
+
+    KeyService keyService;
+
+    JwtUtil jwtUtil;
+
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        configuration = new Configuration();
+        configurationService = mock(ConfigurationService.class);
+        when(configurationService.getConfiguration()).thenReturn(configuration);
+
+        keyService = mock(KeyService.class);
+        when(keyService.getRequestorHmacKey(any())).thenReturn(HMAC_KEY);
+        when(keyService.getRequestorToken(any())).thenReturn("requestorToken");
+
+        AtomicInteger signed = new AtomicInteger();
+        jwtUtil = mock(JwtUtil.class);
+        when(jwtUtil.createJwtToken(eq("verification_request"), eq("sprequest"), any()))
+                .thenAnswer(invocation -> "token-" + signed.incrementAndGet());
+        when(jwtUtil.createHmacJwtToken(eq("verification_request"), eq("sprequest"), any(), same(HMAC_KEY)))
+                .thenAnswer(invocation -> "hmac-token-" + signed.incrementAndGet());
+    }
+
+    @Test
+    void sessionRequestTest() throws Exception {
+        SessionRequest sessionRequest = sessionRequestService()
+                .getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath(RequestorAuthMethod.PUBLICKEY));
+
+        assertEquals(RequestorAuthMethod.PUBLICKEY, sessionRequest.getAuthMethod());
+        assertEquals("token-1", sessionRequest.getBody());
+        assertNull(sessionRequest.getAuthorization());
+
+        ArgumentCaptor<Object> sprequest = ArgumentCaptor.forClass(Object.class);
+        verify(jwtUtil).createJwtToken(eq("verification_request"), eq("sprequest"), sprequest.capture());
+        assertEquals(SPREQUEST, sprequest.getValue());
+    }
+
+    @Test
+    void hmacSessionRequestTest() throws Exception {
+        IrmaPath irmaPath = irmaPath(RequestorAuthMethod.HMAC);
+        SessionRequest sessionRequest = sessionRequestService()
+                .getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath);
+
+        assertEquals(RequestorAuthMethod.HMAC, sessionRequest.getAuthMethod());
+        assertEquals("hmac-token-1", sessionRequest.getBody());
+        assertNull(sessionRequest.getAuthorization());
+
+        ArgumentCaptor<Object> sprequest = ArgumentCaptor.forClass(Object.class);
+        verify(jwtUtil).createHmacJwtToken(eq("verification_request"), eq("sprequest"), sprequest.capture(), same(HMAC_KEY));
+        verify(keyService).getRequestorHmacKey(irmaPath);
+        assertEquals(SPREQUEST, sprequest.getValue());
+    }
+
+    @Test
+    void tokenSessionRequestTest() throws Exception {
+        IrmaPath irmaPath = irmaPath(RequestorAuthMethod.TOKEN);
+        SessionRequest sessionRequest = sessionRequestService()
+                .getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath);
+
+        assertEquals(RequestorAuthMethod.TOKEN, sessionRequest.getAuthMethod());
+        assertEquals(SPREQUEST, objectMapper.readValue(sessionRequest.getBody(), Map.class));
+        assertEquals("requestorToken", sessionRequest.getAuthorization());
+        verify(keyService).getRequestorToken(irmaPath);
+    }
+
+    @Test
+    void sessionRequestIsReusedTest() throws Exception {
+        SessionRequestService sessionRequestService = sessionRequestService();
+        IrmaPath irmaPath = irmaPath(RequestorAuthMethod.PUBLICKEY);
+
+        String token = sessionRequestService.getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath).getBody();
+
+        // Condiscons that only differ in formatting share their session request.
+        assertEquals(token, sessionRequestService.getSessionRequest("irma.example.org", "/irma",
+                Condiscon.parse("[ [ [ \"irma-demo.gemeente.personalData.fullname\" ] ] ]"), irmaPath).getBody());
+        assertNotEquals(token, sessionRequestService.getSessionRequest("other.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath).getBody());
+        assertNotEquals(token, sessionRequestService.getSessionRequest("irma.example.org", "/other", Condiscon.parse(CONDISCON), irmaPath).getBody());
+        assertNotEquals(token, sessionRequestService.getSessionRequest("irma.example.org", "/irma",
+                Condiscon.parse("[[[\"irma-demo.MijnOverheid.ageLower.over18\"]]]"), irmaPath).getBody());
+        assertNotEquals(token, sessionRequestService.getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON),
+                irmaPath(RequestorAuthMethod.HMAC)).getBody());
+        verify(jwtUtil, times(4)).createJwtToken(eq("verification_request"), eq("sprequest"), any());
+    }
+
+    @Test
+    void sessionRequestIsNotCachedTest() throws Exception {
+        configuration.setSessionRequestCacheTtlInSec(0);
+        SessionRequestService sessionRequestService = sessionRequestService();
+        IrmaPath irmaPath = irmaPath(RequestorAuthMethod.PUBLICKEY);
+
+        assertEquals("token-1", sessionRequestService.getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath).getBody());
+        assertEquals("token-2", sessionRequestService.getSessionRequest("irma.example.org", "/irma", Condiscon.parse(CONDISCON), irmaPath).getBody());
+    }
+
+    SessionRequestService sessionRequestService() {
+        return new SessionRequestService(configurationService, keyService, jwtUtil, objectMapper);
+    }
+
+    static IrmaPath irmaPath(RequestorAuthMethod authMethod) {
+        IrmaPath irmaPath = new IrmaPath();
+        irmaPath.setAuthMethod(authMethod);
+        if (authMethod != RequestorAuthMethod.PUBLICKEY) {
+            irmaPath.setAuthKeyPath("./dev-keys/requestor." + authMethod.name().toLowerCase());
+        }
+        return irmaPath;
+    }
+}
@@ -0,0 +1,130 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import nl.sidn.irma.saml_bridge.model.ServiceProvider;
+import nl.sidn.irma.saml_bridge.util.HTTPRedirectDeflateDecoder;
+import org.junit.jupiter.api.Test;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class SignatureValidationServiceTest {
+
+    private static final String ENTITY_ID = "sidn-irma-saml-bridge";
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    SignatureValidationService signatureValidationService;
+
+    @Test
+    void findServiceProviderTest() {
+        ServiceProvider serviceProvider = signatureValidationService.findServiceProvider(ENTITY_ID);
+
+        assertNotNull(serviceProvider);
+        assertEquals(ENTITY_ID, serviceProvider.getEntityId());
+        assertFalse(serviceProvider.getSigningCredentials().isEmpty());
+        assertNotNull(serviceProvider.getSpssoDescriptor());
+        assertEquals("http://localhost:8080/irma-saml-bridge/test/return",
+                serviceProvider.getRedirectAssertionConsumerServiceUrl());
+    }
+
+    @Test
+    void findServiceProviderSigningMethodsTest() {
+        // Lists its algorithms in the extensions of its entity descriptor.
+        ServiceProvider serviceProvider = signatureValidationService.findServiceProvider("https://samltest.id/saml/sp");
+
+        assertEquals(List.of(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512, SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384,
+                SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256), serviceProvider.getSigningMethods().subList(0, 3));
+        assertTrue(serviceProvider.getSigningMethods().contains(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256));
+
+        // Lists none.
+        assertTrue(signatureValidationService.findServiceProvider(ENTITY_ID).getSigningMethods().isEmpty());
+    }
+
+    @Test
+    void findServiceProviderUnknownTest() {
+        assertNull(signatureValidationService.findServiceProvider("i-am-fake-issuer"));
+        assertNull(signatureValidationService.findServiceProvider(null));
+    }
+
+    @Test
+    void verifySignatureTest() throws Exception {
+        MockHttpServletRequest request = signedRequest("/test/request");
+
+        ServiceProvider serviceProvider = signatureValidationService.verifySignature(request.getQueryString(), issuer(request));
+
+        assertEquals(ENTITY_ID, serviceProvider.getEntityId());
+    }
+
+    @Test
+    void verifySignatureUnknownIssuerTest() throws Exception {
+        MockHttpServletRequest request = signedRequest("/test/request?fake-issuer=true");
+
+        assertThrows(MessageHandlerException.class,
+                () -> signatureValidationService.verifySignature(request.getQueryString(), issuer(request)));
+    }
+
+    @Test
+    void verifySignatureUnsignedTest() throws Exception {
+        MockHttpServletRequest signed = signedRequest("/test/request");
+        MockHttpServletRequest request = request(signed.getQueryString().replaceAll("&Signature=[^&]*", ""));
+
+        assertThrows(MessageHandlerException.class,
+                () -> signatureValidationService.verifySignature(request.getQueryString(), issuer(request)));
+    }
+
+    /**
+     * Let the test endpoint create a signed AuthnRequest, and replay its redirect as an incoming request.
+     */
+    MockHttpServletRequest signedRequest(String testEndpoint) throws Exception {
+        String redirect = mockMvc.perform(get(testEndpoint)).andReturn().getResponse().getRedirectedUrl();
+        assertNotNull(redirect);
+        return request(URI.create(redirect).getRawQuery());
+    }
+
+    static MockHttpServletRequest request(String rawQuery) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/request");
+        request.setQueryString(rawQuery);
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            request.addParameter(
+                    URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return request;
+    }
+
+    static String issuer(MockHttpServletRequest request) throws Exception {
+        return ((AuthnRequest) decode(request).getMessage()).getIssuer().getValue();
+    }
+
+    static MessageContext decode(MockHttpServletRequest request) throws Exception {
+        HTTPRedirectDeflateDecoder decoder = new HTTPRedirectDeflateDecoder();
+        decoder.setHttpServletRequest(request);
+        decoder.initialize();
+        decoder.decode();
+        return decoder.getMessageContext();
+    }
+}
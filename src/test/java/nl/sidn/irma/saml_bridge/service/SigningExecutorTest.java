@@ -0,0 +1,201 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.sidn.irma.saml_bridge.exception.BridgeException;
+import nl.sidn.irma.saml_bridge.model.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SigningExecutorTest {
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    ExecutorService callers = Executors.newCachedThreadPool();
+
+    CountDownLatch release = new CountDownLatch(1);
+
+    SigningExecutor signingExecutor;
+
+    SigningExecutor create(int threads, int queueCapacity, int queueTimeoutInMs) {
+        Configuration configuration = new Configuration();
+        configuration.setSigningThreads(threads);
+        configuration.setSigningQueueCapacity(queueCapacity);
+        configuration.setSigningQueueTimeoutInMs(queueTimeoutInMs);
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.getConfiguration()).thenReturn(configuration);
+
+        signingExecutor = new SigningExecutor(configurationService, registry);
+        return signingExecutor;
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        signingExecutor.shutdown();
+    }
+
+    @Test
+    void executeTest() throws Exception {
+        SigningExecutor executor = create(2, 10, 1000);
+
+        String thread = executor.execute(() -> Thread.currentThread().getName());
+
+        assertTrue(thread.startsWith("saml-signing-"), thread);
+        assertEquals(1, registry.get("saml.signing.queue.wait").timer().count());
+        assertEquals(1, registry.get("saml.signing.duration").timer().count());
+        assertEquals(2, registry.get("saml.signing.threads").gauge().value());
+    }
+
+    @Test
+    void exceptionTest() {
+        SigningExecutor executor = create(1, 10, 1000);
+        BridgeException failure = new BridgeException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write signature");
+        IllegalStateException bug = new IllegalStateException("bug");
+
+        assertSame(failure, assertThrows(BridgeException.class, () -> executor.execute(() -> {
+            throw failure;
+        })));
+        assertSame(bug, assertThrows(IllegalStateException.class, () -> executor.execute(() -> {
+            throw bug;
+        })));
+    }
+
+    @Test
+    void queueFullTest() throws Exception {
+        SigningExecutor executor = create(1, 1, 10_000);
+        CountDownLatch started = new CountDownLatch(1);
+
+        Future<String> running = callers.submit(() -> executor.execute(() -> {
+            started.countDown();
+            await();
+            return "running";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> queued = callers.submit(() -> executor.execute(() -> "queued"));
+        waitForQueueDepth(1);
+
+        BridgeException exception = assertThrows(BridgeException.class, () -> executor.execute(() -> "rejected"));
+        assertEquals(503, exception.getHttpStatusCode());
+        assertEquals(1, registry.get("saml.signing.rejections").tag("reason", "full").counter().count());
+
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void queueTimeoutTest() throws Exception {
+        SigningExecutor executor = create(1, 10, 100);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean signed = new AtomicBoolean();
+
+        Future<String> running = callers.submit(() -> executor.execute(() -> {
+            started.countDown();
+            await();
+            return "running";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        BridgeException exception = assertThrows(BridgeException.class, () -> executor.execute(() -> {
+            signed.set(true);
+            return "timed out";
+        }));
+        assertEquals(503, exception.getHttpStatusCode());
+        assertEquals(1, registry.get("saml.signing.rejections").tag("reason", "timeout").counter().count());
+        // The abandoned response no longer takes a place in the queue.
+        assertEquals(0, registry.get("saml.signing.queue.depth").gauge().value());
+
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("after", executor.execute(() -> "after"));
+        assertFalse(signed.get());
+    }
+
+    @Test
+    void startedTaskCompletesTest() throws Exception {
+        SigningExecutor executor = create(1, 10, 1000);
+        CountDownLatch started = new CountDownLatch(1);
+
+        Future<String> slow = callers.submit(() -> executor.execute(() -> {
+            started.countDown();
+            await();
+            return "slow";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Signing runs past the queue timeout, but it started in time.
+        sleep(1500);
+        assertFalse(slow.isDone());
+        release.countDown();
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+        assertEquals(0, registry.get("saml.signing.rejections").tag("reason", "timeout").counter().count());
+    }
+
+    @Test
+    void interruptedCallerTest() throws Exception {
+        SigningExecutor executor = create(1, 10, 10_000);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean signed = new AtomicBoolean();
+
+        Future<String> running = callers.submit(() -> executor.execute(() -> {
+            started.countDown();
+            await();
+            return "running";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> queued = callers.submit(() -> executor.execute(() -> {
+            signed.set(true);
+            return "interrupted";
+        }));
+        waitForQueueDepth(1);
+
+        queued.cancel(true);
+        // The abandoned response no longer takes a place in the queue.
+        waitForQueueDepth(0);
+
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("after", executor.execute(() -> "after"));
+        assertFalse(signed.get());
+    }
+
+    private void await() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForQueueDepth(int depth) {
+        for (int i = 0; i < 500 && registry.get("saml.signing.queue.depth").gauge().value() != depth; i++) {
+            sleep(10);
+        }
+        assertEquals(depth, registry.get("saml.signing.queue.depth").gauge().value());
+    }
+}
@@ -0,0 +1,207 @@
+package nl.sidn.irma.saml_bridge.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.shibboleth.shared.xml.ParserPool;
+import nl.sidn.irma.saml_bridge.config.SamlConfiguration;
+import nl.sidn.irma.saml_bridge.model.AssertParameters;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import nl.sidn.irma.saml_bridge.model.RequestError;
+import nl.sidn.irma.saml_bridge.model.ResultStatus;
+import nl.sidn.irma.saml_bridge.model.SigningKey;
+import nl.sidn.irma.saml_bridge.util.IdGenerator;
+import nl.sidn.irma.saml_bridge.util.KeyReader;
+import nl.sidn.irma.saml_bridge.util.SamlObjectBuilders;
+import nl.sidn.irma.saml_bridge.util.XmlSerializer;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static nl.sidn.irma.saml_bridge.Fixtures.assertParameters;
+import static nl.sidn.irma.saml_bridge.Fixtures.disclosure;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Differential tests of the template writer against {@link OpenSamlService}, the reference implementation.
+ * Both write the same response at the same instant with the development keys, and the responses must be
+ * equal after canonicalization, apart from their random IDs.
+ */
+class TemplateResponseWriterTest {
+
+    static final Clock CLOCK = Clock.fixed(Instant.parse("2024-03-01T12:34:56.789Z"), ZoneId.of("Europe/Amsterdam"));
+
+    KeyService keyService;
+
+    OpenSamlService openSamlService;
+
+    TemplateResponseWriter templateResponseWriter;
+
+    ParserPool parserPool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ConfigurationService configurationService = new ConfigurationService(new ObjectMapper());
+        keyService = new KeyService(configurationService, new KeyReader());
+        IdGenerator idGenerator = new IdGenerator();
+        parserPool = new SamlConfiguration().parserPool();
+
+        openSamlService = new OpenSamlService(configurationService, keyService, parserPool, new SamlObjectBuilders(),
+                new XmlSerializer(), idGenerator);
+        openSamlService.setClock(CLOCK);
+        templateResponseWriter = new TemplateResponseWriter(configurationService, keyService, idGenerator);
+        templateResponseWriter.setClock(CLOCK);
+    }
+
+    @Test
+    void successTest() throws Exception {
+        assertEquivalent(assertParameters(), disclosure(), ResultStatus.SUCCESS);
+    }
+
+    @Test
+    void successWithoutAttributesTest() throws Exception {
+        assertEquivalent(assertParameters(), disclosure(d -> d.setAttributes(new TreeMap<>())), ResultStatus.SUCCESS);
+    }
+
+    @Test
+    void successWithoutRequestIdTest() throws Exception {
+        assertEquivalent(assertParameters(p -> {
+            p.setRequestId(null);
+            p.setServiceUrl(null);
+        }), disclosure(), ResultStatus.SUCCESS);
+    }
+
+    @Test
+    void escapingTest() throws Exception {
+        Map<String, String> attributes = new TreeMap<>();
+        attributes.put("irma-demo.gemeente.personalData.fullname", "Zoë \"Çelik\" & <Jansen> – 日本 😀");
+        attributes.put("irma-demo.gemeente.address.street", "Straat\t1\nBus 2\r\n");
+        attributes.put("irma-demo.name&<\"quoted\">", "'single' > \"double\"");
+
+        assertEquivalent(assertParameters(p -> {
+            p.setRequestId("_id \"with\" <markup> & \t\n\r whitespace");
+            p.setServiceUrl("https://sp.example/acs?a=1&b=\"2\"");
+            p.setIssuer("https://sp.example/<metadata>");
+        }), disclosure(d -> d.setAttributes(attributes)), ResultStatus.SUCCESS);
+    }
+
+    @Test
+    void largeDisclosureTest() throws Exception {
+        Map<String, String> attributes = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            attributes.put("irma-demo.attribute" + i, "value ".repeat(100) + i);
+        }
+
+        assertEquivalent(assertParameters(), disclosure(d -> d.setAttributes(attributes)), ResultStatus.SUCCESS);
+    }
+
+    @Test
+    void failedTest() throws Exception {
+        assertEquivalent(assertParameters(p -> p.setRequestError(new RequestError(500, "Session <expired> & \"cancelled\""))),
+                null, ResultStatus.FAILED);
+    }
+
+    @Test
+    void failedWithoutMessageTest() throws Exception {
+        assertEquivalent(assertParameters(), null, ResultStatus.FAILED);
+    }
+
+    @Test
+    void ecdsaTest() throws Exception {
+        assertEquivalent(assertParameters(), disclosure(), ResultStatus.SUCCESS, keyService.getSamlEcSigningKey());
+    }
+
+    @Test
+    void ecdsaFailedTest() throws Exception {
+        assertEquivalent(assertParameters(), null, ResultStatus.FAILED, keyService.getSamlEcSigningKey());
+    }
+
+    @Test
+    void reuseTest() throws Exception {
+        byte[] first = templateResponseWriter.write(assertParameters(), disclosure(), ResultStatus.SUCCESS);
+        byte[] second = templateResponseWriter.write(assertParameters(), disclosure(), ResultStatus.SUCCESS);
+        byte[] failed = templateResponseWriter.write(assertParameters(), null, ResultStatus.FAILED);
+
+        assertNotEquals(new String(first, StandardCharsets.UTF_8), new String(second, StandardCharsets.UTF_8));
+        assertEquals(first.length, second.length);
+        openSamlService.verifyAssertionResponse(first);
+        openSamlService.verifyAssertionResponse(second);
+        openSamlService.verifyAssertionResponse(failed);
+    }
+
+    @Test
+    void tamperedTest() throws Exception {
+        String written = new String(templateResponseWriter.write(assertParameters(), disclosure(), ResultStatus.SUCCESS),
+                StandardCharsets.UTF_8);
+        byte[] tampered = written.replace(">test</saml2:AttributeValue>", ">tset</saml2:AttributeValue>")
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(SignatureException.class, () -> openSamlService.verifyAssertionResponse(tampered));
+    }
+
+    @Test
+    void invalidCharacterTest() {
+        Map<String, String> attributes = new TreeMap<>();
+        attributes.put("test", "bell\u0007");
+
+        assertThrows(MarshallingException.class, () -> templateResponseWriter.write(assertParameters(),
+                disclosure(d -> d.setAttributes(attributes)), ResultStatus.SUCCESS));
+    }
+
+    private void assertEquivalent(AssertParameters assertParameters, Disclosure disclosure, ResultStatus status)
+            throws Exception {
+        assertEquivalent(assertParameters, disclosure, status, keyService.getSamlSigningKey());
+    }
+
+    private void assertEquivalent(AssertParameters assertParameters, Disclosure disclosure, ResultStatus status,
+            SigningKey signingKey) throws Exception {
+        byte[] reference = openSamlService.marshallResponse(
+                openSamlService.createAssertionResponse(assertParameters, disclosure, status), signingKey);
+        byte[] written = templateResponseWriter.write(assertParameters, disclosure, status, signingKey);
+
+        // The written response is well formed and correctly signed by itself.
+        openSamlService.verifyAssertionResponse(written);
+
+        // Apart from its signature, the written response is exactly its canonical form.
+        Element writtenElement = parserPool.parse(new ByteArrayInputStream(written)).getDocumentElement();
+        String canonicalWritten = canonicalizeUnsigned(writtenElement);
+
+        String document = new String(written, StandardCharsets.UTF_8);
+        assertTrue(document.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"));
+        String unsigned = document.substring(document.indexOf("?>") + 2, document.indexOf("<ds:Signature"))
+                + document.substring(document.indexOf("</ds:Signature>") + "</ds:Signature>".length());
+        assertEquals(canonicalWritten, unsigned);
+
+        // And it equals the reference, apart from the random ID of the response.
+        Element referenceElement = parserPool.parse(new ByteArrayInputStream(reference)).getDocumentElement();
+        referenceElement.setAttributeNS(null, "ID", writtenElement.getAttribute("ID"));
+        assertEquals(canonicalizeUnsigned(referenceElement), canonicalWritten);
+    }
+
+    /**
+     * @return The exclusive canonical form of a response without its signature, as covered by the signature.
+     */
+    private static String canonicalizeUnsigned(Element response) throws Exception {
+        Node signature = response.getElementsByTagNameNS(SignatureConstants.XMLSIG_NS, "Signature").item(0);
+        response.removeChild(signature);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS).canonicalizeSubtree(response, "xsd", out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,217 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import nl.sidn.irma.saml_bridge.exception.MalformedException;
+import nl.sidn.irma.saml_bridge.model.DisclosedAttributes;
+import nl.sidn.irma.saml_bridge.model.Disclosure;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Parses signed IRMA session results with the streaming claims deserializer, and compares the extracted
+ * disclosure to the one extracted from the same claims as a tree of lists and maps.
+ */
+class ClaimsDeserializerTest {
+
+    static final KeyPair KEY_PAIR = Jwts.SIG.RS256.keyPair().build();
+
+    @Test
+    void disclosureTest() throws Exception {
+        List<List<Map<String, Object>>> disclosed = List.of(
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Jan Janssen", "PRESENT")),
+                List.of(attribute("irma-demo.MijnOverheid.ageLower.over18", "yes", "PRESENT"),
+                        attribute("irma-demo.MijnOverheid.ageLower.over21", "no", "PRESENT")));
+
+        Jws<Claims> jws = parse(disclosed);
+
+        assertInstanceOf(DisclosedAttributes.class, jws.getPayload().get("disclosed"));
+        Disclosure disclosure = Disclosure.fromJwt(jws);
+        assertEquals(Map.of(
+                "irma-demo.gemeente.personalData.fullname", "Jan Janssen",
+                "irma-demo.MijnOverheid.ageLower.over18", "yes",
+                "irma-demo.MijnOverheid.ageLower.over21", "no"), disclosure.getAttributes());
+        assertEquals("VALID", disclosure.getProofStatus());
+        assertEquals("session-token", disclosure.getToken());
+        assertEquals(disclosure, Disclosure.fromJwt(tree(disclosed)));
+    }
+
+    @Test
+    void incompleteConjunctionIsSkippedTest() throws Exception {
+        List<List<Map<String, Object>>> disclosed = List.of(
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Jan Janssen", "PRESENT")),
+                List.of(attribute("irma-demo.MijnOverheid.ageLower.over18", "yes", "PRESENT"),
+                        attribute("irma-demo.MijnOverheid.ageLower.over21", "no", "EXTRA")));
+
+        Disclosure disclosure = Disclosure.fromJwt(parse(disclosed));
+
+        assertEquals(Map.of("irma-demo.gemeente.personalData.fullname", "Jan Janssen"), disclosure.getAttributes());
+        assertEquals(disclosure, Disclosure.fromJwt(tree(disclosed)));
+    }
+
+    @Test
+    void optionalAttributeTest() throws Exception {
+        List<List<Map<String, Object>>> disclosed = List.of(
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Jan Janssen", "PRESENT"),
+                        attribute("irma-demo.gemeente.personalData.prefix", null, "NULL")),
+                List.of());
+
+        Disclosure disclosure = Disclosure.fromJwt(parse(disclosed));
+
+        assertEquals(Map.of("irma-demo.gemeente.personalData.fullname", "Jan Janssen"), disclosure.getAttributes());
+        assertEquals(disclosure, Disclosure.fromJwt(tree(disclosed)));
+    }
+
+    @Test
+    void duplicateAttributeTest() throws Exception {
+        List<List<Map<String, Object>>> disclosed = List.of(
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Jan Janssen", "PRESENT")),
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Jan Janssen", "PRESENT")));
+
+        assertEquals(Map.of("irma-demo.gemeente.personalData.fullname", "Jan Janssen"),
+                Disclosure.fromJwt(parse(disclosed)).getAttributes());
+    }
+
+    @Test
+    void conflictingDuplicateAttributeTest() {
+        List<List<Map<String, Object>>> disclosed = List.of(
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Jan Janssen", "PRESENT")),
+                List.of(attribute("irma-demo.gemeente.personalData.fullname", "Piet Pietersen", "PRESENT")));
+
+        assertThrows(MalformedException.class, () -> Disclosure.fromJwt(parse(disclosed)));
+        assertThrows(MalformedException.class, () -> Disclosure.fromJwt(tree(disclosed)));
+    }
+
+    @Test
+    void malformedDisclosureTest() {
+        assertThrows(MalformedException.class, () -> Disclosure.fromJwt(parse("malformedClaim")));
+        assertThrows(MalformedException.class, () -> Disclosure.fromJwt(parse(null)));
+        assertThrows(RuntimeException.class, () -> parse(List.of(List.of("malformedAttribute"))));
+    }
+
+    @Test
+    void registeredClaimsTest() {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("disclosed", List.of());
+        String token = Jwts.builder()
+                .issuer("irmaserver")
+                .issuedAt(Date.from(Instant.now().minusSeconds(120)))
+                .expiration(Date.from(Instant.now().minusSeconds(60)))
+                .claims().add(claims).and()
+                .signWith(KEY_PAIR.getPrivate())
+                .compact();
+
+        assertThrows(ExpiredJwtException.class, () -> parser().parseSignedClaims(token));
+    }
+
+    @Test
+    void duplicateClaimTest() {
+        String token = sign("{\"alg\":\"RS256\"}",
+                "{\"proofStatus\":\"INVALID\",\"token\":\"session-token\",\"proofStatus\":\"VALID\"}");
+
+        // A payload that is not a valid JSON object is no claims payload.
+        assertThrows(UnsupportedJwtException.class, () -> parser().parseSignedClaims(token));
+    }
+
+    @Test
+    void duplicateNestedClaimTest() {
+        String token = sign("{\"alg\":\"RS256\"}",
+                "{\"proofStatus\":\"VALID\",\"nested\":{\"a\":1,\"a\":2}}");
+
+        assertThrows(UnsupportedJwtException.class, () -> parser().parseSignedClaims(token));
+    }
+
+    @Test
+    void duplicateHeaderTest() {
+        String token = sign("{\"alg\":\"RS256\",\"kid\":\"1\",\"kid\":\"2\"}",
+                "{\"proofStatus\":\"VALID\"}");
+
+        assertThrows(MalformedJwtException.class, () -> parser().parseSignedClaims(token));
+    }
+
+    /**
+     * Sign a JWT with the given JSON, which the JWT builder would not allow to contain duplicates.
+     */
+    static String sign(String header, String payload) {
+        try {
+            Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+            String signingInput = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                    + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(KEY_PAIR.getPrivate());
+            signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+            return signingInput + "." + encoder.encodeToString(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Map<String, Object> attribute(String id, String rawValue, String status) {
+        Map<String, Object> attribute = new LinkedHashMap<>();
+        attribute.put("rawvalue", rawValue);
+        attribute.put("value", Map.of("", rawValue == null ? "" : rawValue, "en", rawValue == null ? "" : rawValue));
+        attribute.put("id", id);
+        attribute.put("status", status);
+        attribute.put("issuancetime", 1700000000);
+        return attribute;
+    }
+
+    static Jws<Claims> parse(Object disclosed) {
+        Map<String, Object> claims = new HashMap<>();
+        if (disclosed != null) {
+            claims.put("disclosed", disclosed);
+        }
+        claims.put("proofStatus", "VALID");
+        claims.put("token", "session-token");
+        String token = Jwts.builder()
+                .issuer("irmaserver")
+                .subject("disclosing_result")
+                .issuedAt(new Date())
+                .claims().add(claims).and()
+                .signWith(KEY_PAIR.getPrivate())
+                .compact();
+        return parser().parseSignedClaims(token);
+    }
+
+    /**
+     * Parse with the default deserializer, which results in the claims as a tree of lists and maps.
+     */
+    static Jws<Claims> tree(Object disclosed) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("disclosed", disclosed);
+        claims.put("proofStatus", "VALID");
+        claims.put("token", "session-token");
+        String token = Jwts.builder()
+                .claims().add(claims).and()
+                .signWith(KEY_PAIR.getPrivate())
+                .compact();
+        return Jwts.parser().verifyWith(KEY_PAIR.getPublic()).build().parseSignedClaims(token);
+    }
+
+    static JwtParser parser() {
+        return Jwts.parser()
+                .verifyWith(KEY_PAIR.getPublic())
+                .json(new ClaimsDeserializer())
+                .build();
+    }
+}
@@ -0,0 +1,117 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HTTPRedirectDeflateDecoderTest {
+
+    private static final String MESSAGE = "<samlp:AuthnRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
+            + "ID=\"_test\" Version=\"2.0\" IssueInstant=\"2024-01-01T00:00:00Z\"/>";
+
+    private HTTPRedirectDeflateDecoder decoder;
+
+    @BeforeAll
+    static void initializeOpenSaml() throws Exception {
+        InitializationService.initialize();
+    }
+
+    @BeforeEach
+    void init() {
+        decoder = new HTTPRedirectDeflateDecoder();
+    }
+
+    @Test
+    void decodeMessageTest() throws Exception {
+        byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(message, readAll(decoder.decodeMessage(encode(message))));
+    }
+
+    @Test
+    void decodeMessageReusesBuffersTest() throws Exception {
+        byte[] large = "x".repeat(100_000).getBytes(StandardCharsets.UTF_8);
+        byte[] small = MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(large, readAll(decoder.decodeMessage(encode(large))));
+        assertArrayEquals(small, readAll(decoder.decodeMessage(encode(small))));
+    }
+
+    @Test
+    void decodeMessageChunkedBase64Test() throws Exception {
+        byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        String encoded = Base64.getMimeEncoder().encodeToString(deflate(message));
+
+        assertArrayEquals(message, readAll(decoder.decodeMessage(encoded)));
+    }
+
+    @Test
+    void decodeMessageDeflateBombTest() throws Exception {
+        // 10 MB of zeroes deflates to roughly 10 kB.
+        String bomb = encode(new byte[10 * 1024 * 1024]);
+
+        assertThrows(MessageDecodingException.class, () -> decoder.decodeMessage(bomb));
+    }
+
+    @Test
+    void decodeMessageMaxInflatedSizeTest() throws Exception {
+        String encoded = encode(MESSAGE.getBytes(StandardCharsets.UTF_8));
+        decoder.setMaxInflatedSize(MESSAGE.length() - 1);
+
+        assertThrows(MessageDecodingException.class, () -> decoder.decodeMessage(encoded));
+    }
+
+    @Test
+    void decodeMessageMaxCompressedSizeTest() throws Exception {
+        String encoded = encode(MESSAGE.getBytes(StandardCharsets.UTF_8));
+        decoder.setMaxCompressedSize(16);
+
+        assertThrows(MessageDecodingException.class, () -> decoder.decodeMessage(encoded));
+    }
+
+    @Test
+    void decodeMessageMalformedTest() throws Exception {
+        String encoded = encode(MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(MessageDecodingException.class, () -> decoder.decodeMessage("not base64!"));
+        assertThrows(MessageDecodingException.class,
+                () -> decoder.decodeMessage(encoded.substring(0, encoded.length() / 2)));
+        assertThrows(MessageDecodingException.class, () -> decoder.decodeMessage(
+                Base64.getEncoder().encodeToString(MESSAGE.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static String encode(byte[] message) {
+        return Base64.getEncoder().encodeToString(deflate(message));
+    }
+
+    private static byte[] deflate(byte[] message) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(message);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import com.google.common.io.BaseEncoding;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdGeneratorTest {
+
+    /** An underscore and 128 bits in hex, which is an NCName. */
+    static final Pattern ID = Pattern.compile("_[0-9A-F]{32}");
+
+    @Test
+    void formatTest() {
+        IdGenerator idGenerator = new IdGenerator();
+
+        for (int i = 0; i < 10_000; i++) {
+            String id = idGenerator.generateId();
+            assertTrue(ID.matcher(id).matches(), id);
+        }
+    }
+
+    @Test
+    void uniquenessTest() {
+        IdGenerator idGenerator = new IdGenerator();
+        Set<String> ids = new HashSet<>();
+
+        // Spans many refills of the pool.
+        for (int i = 0; i < 200_000; i++) {
+            assertTrue(ids.add(idGenerator.generateId()));
+        }
+    }
+
+    @Test
+    void concurrentUniquenessTest() throws Exception {
+        IdGenerator idGenerator = new IdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(() -> {
+                    boolean unique = true;
+                    for (int i = 0; i < 25_000; i++) {
+                        unique &= ids.add(idGenerator.generateId());
+                    }
+                    return unique;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(true, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(200_000, ids.size());
+    }
+
+    @Test
+    void distributionTest() {
+        IdGenerator idGenerator = new IdGenerator();
+        int[] counts = new int[16];
+
+        for (int i = 0; i < 10_000; i++) {
+            String id = idGenerator.generateId();
+            for (int j = 1; j < id.length(); j++) {
+                counts[Character.digit(id.charAt(j), 16)]++;
+            }
+        }
+
+        // 20000 expected per digit, far beyond six standard deviations.
+        for (int count : counts) {
+            assertTrue(count > 19_000 && count < 21_000, String.valueOf(count));
+        }
+    }
+
+    @Test
+    void fromTokenTest() {
+        IdGenerator idGenerator = new IdGenerator();
+
+        for (String token : new String[] { "Zk4GvBPnEcFzwBd3Xr1A", "", "a-b_c.~", "Zoë日本😀" }) {
+            assertEquals("_" + BaseEncoding.base16().encode(token.getBytes(StandardCharsets.UTF_8)),
+                    idGenerator.fromToken(token));
+        }
+    }
+}
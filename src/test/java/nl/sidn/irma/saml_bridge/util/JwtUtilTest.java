@@ -1,17 +1,32 @@
 package nl.sidn.irma.saml_bridge.util;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MissingClaimException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import nl.sidn.irma.saml_bridge.service.ConfigurationService;
 import nl.sidn.irma.saml_bridge.service.KeyService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Exercises the real jjwt sign/verify round trip (no mocks) to guard the 0.12 migration:
@@ -49,6 +64,19 @@ class JwtUtilTest {
         assertEquals("value", jws.getPayload().get("aparams"));
     }
 
+    @Test
+    void hmacTokenVerifiesWithSharedKey() {
+        SecretKey key = new SecretKeySpec(new byte[32], "HmacSHA256");
+        String token = jwtUtil.createHmacJwtToken("verification_request", "sprequest", "value", key);
+
+        Jws<Claims> jws = Jwts.parser().verifyWith(key).build().parseSignedClaims(token);
+
+        assertEquals("HS256", jws.getHeader().getAlgorithm());
+        assertEquals("verification_request", jws.getPayload().getSubject());
+        assertEquals("sidn-irma-saml-bridge", jws.getPayload().getIssuer());
+        assertEquals("value", jws.getPayload().get("sprequest"));
+    }
+
     @Test
     void irmaTokenVerifiesWithIrmaPublicKey() {
         Map<String, Object> claims = new HashMap<>();
@@ -62,4 +90,101 @@ class JwtUtilTest {
         assertEquals("VALID", jws.getPayload().get("proofStatus"));
         assertEquals("session-token", jws.getPayload().get("token"));
     }
+
+    @Test
+    void tokenWithinClockSkewVerifies() {
+        String token = createJwtToken(Instant.now().plusSeconds(10));
+
+        assertEquals("assert_parameters", jwtUtil.getClaims(keyService.getJwtPublicKey(), token).getPayload().getSubject());
+    }
+
+    @Test
+    void tokenOlderThanRequestTtlIsRejected() {
+        // requestTtlInSec is 900 and jwtClockSkewInSec is 30 in the test configuration.
+        String token = createJwtToken(Instant.now().minusSeconds(931));
+
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.getClaims(keyService.getJwtPublicKey(), token));
+    }
+
+    @Test
+    void tokenIssuedInTheFutureIsRejected() {
+        String token = createJwtToken(Instant.now().plusSeconds(60));
+
+        assertThrows(PrematureJwtException.class, () -> jwtUtil.getClaims(keyService.getJwtPublicKey(), token));
+    }
+
+    @Test
+    void tokenWithoutIssuedAtIsRejected() {
+        String token = createJwtToken(null);
+
+        assertThrows(MissingClaimException.class, () -> jwtUtil.getClaims(keyService.getJwtPublicKey(), token));
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        String token = Jwts.builder()
+                .issuedAt(new Date())
+                .expiration(Date.from(Instant.now().minusSeconds(60)))
+                .subject("assert_parameters")
+                .signWith(keyService.getJwtPrivateKey())
+                .compact();
+
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.getClaims(keyService.getJwtPublicKey(), token));
+    }
+
+    @Test
+    void signedAssertParametersVerify() {
+        String token = jwtUtil.createAssertParametersToken(Map.of("sp_name", "spName"));
+
+        assertEquals(3, token.split("\\.").length);
+        assertEquals(Map.of("sp_name", "spName"), jwtUtil.getAssertParameters(token).get("aparams"));
+    }
+
+    @Test
+    void encryptedAssertParametersDecrypt() throws Exception {
+        JwtUtil encryptingJwtUtil = createEncryptingJwtUtil("1");
+
+        String token = encryptingJwtUtil.createAssertParametersToken(Map.of("sp_name", "secretSpName"));
+
+        String[] parts = token.split("\\.");
+        assertEquals(5, parts.length);
+        for (String part : parts) {
+            assertFalse(new String(Base64.getUrlDecoder().decode(part), StandardCharsets.ISO_8859_1).contains("secretSpName"));
+        }
+        assertEquals(Map.of("sp_name", "secretSpName"), encryptingJwtUtil.getAssertParameters(token).get("aparams"));
+        // Tokens of either mode are accepted in both, so the mode can be changed while sessions are in progress.
+        assertEquals(Map.of("sp_name", "secretSpName"), jwtUtil.getAssertParameters(token).get("aparams"));
+        assertEquals(Map.of("sp_name", "spName"), encryptingJwtUtil.getAssertParameters(
+                jwtUtil.createAssertParametersToken(Map.of("sp_name", "spName"))).get("aparams"));
+    }
+
+    @Test
+    void encryptedAssertParametersWithUnknownKeyIdAreRejected() throws Exception {
+        String token = createEncryptingJwtUtil("2").createAssertParametersToken(Map.of("sp_name", "spName"));
+
+        assertThrows(UnsupportedJwtException.class, () -> jwtUtil.getAssertParameters(token));
+    }
+
+    @Test
+    void irmaTokenIsNotAcceptedAsAssertParameters() {
+        String token = jwtUtil.createTestIrmaJwtTokenWithClaims("irmaserver", "disclosing_result", Map.of("aparams", "value"));
+
+        assertThrows(io.jsonwebtoken.security.SignatureException.class, () -> jwtUtil.getAssertParameters(token));
+    }
+
+    private JwtUtil createEncryptingJwtUtil(String keyId) throws Exception {
+        ConfigurationService configurationService = new ConfigurationService(new ObjectMapper());
+        configurationService.getConfiguration().setAssertParametersKeyPaths(Map.of(keyId, "./dev-keys/assert-parameters-1.key"));
+        configurationService.getConfiguration().setAssertParametersKeyId(keyId);
+        return new JwtUtil(configurationService, new KeyService(configurationService, keyReader));
+    }
+
+    private String createJwtToken(Instant issuedAt) {
+        return Jwts.builder()
+                .issuedAt(issuedAt != null ? Date.from(issuedAt) : null)
+                .subject("assert_parameters")
+                .claim("aparams", "value")
+                .signWith(keyService.getJwtPrivateKey())
+                .compact();
+    }
 }
@@ -0,0 +1,290 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import net.shibboleth.shared.primitive.NonnullSupplier;
+import net.shibboleth.shared.xml.ParserPool;
+import nl.sidn.irma.saml_bridge.service.ConfigurationService;
+import nl.sidn.irma.saml_bridge.service.KeyService;
+import nl.sidn.irma.saml_bridge.service.SignatureValidationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.common.messaging.context.SAMLProtocolContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
+import org.opensaml.saml.metadata.resolver.impl.PredicateRoleDescriptorResolver;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml.security.impl.MetadataCredentialResolver;
+import org.opensaml.xmlsec.SignatureValidationParameters;
+import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.opensaml.xmlsec.keyinfo.impl.BasicProviderKeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.impl.provider.DEREncodedKeyValueProvider;
+import org.opensaml.xmlsec.keyinfo.impl.provider.DSAKeyValueProvider;
+import org.opensaml.xmlsec.keyinfo.impl.provider.InlineX509DataProvider;
+import org.opensaml.xmlsec.keyinfo.impl.provider.RSAKeyValueProvider;
+import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Checks that the verifier accepts and rejects exactly the same messages as the
+ * OpenSAML signature security handler backed by a metadata credential resolver.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class RedirectSignatureVerifierTest {
+
+    private static final String RSA_SHA1 = "http://www.w3.org/2000/09/xmldsig#rsa-sha1";
+    private static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    private static final String RSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha512";
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ConfigurationService configurationService;
+
+    @Autowired
+    KeyService keyService;
+
+    @Autowired
+    SignatureValidationService signatureValidationService;
+
+    @Autowired
+    ParserPool parserPool;
+
+    private final List<FilesystemMetadataResolver> resolvers = new ArrayList<>();
+
+    private ExplicitKeySignatureTrustEngine legacyTrustEngine;
+
+    private RedirectSignatureVerifier verifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        File directory = new File(configurationService.getConfiguration().getSamlMetadataPath());
+        for (File metadata : Objects.requireNonNull(directory.listFiles())) {
+            FilesystemMetadataResolver fs = new FilesystemMetadataResolver(metadata);
+            fs.setId("fs-metadataresolver-" + metadata.getName());
+            fs.setParserPool(parserPool);
+            fs.initialize();
+            resolvers.add(fs);
+        }
+
+        ChainingMetadataResolver metadataResolver = new ChainingMetadataResolver();
+        metadataResolver.setId("chaining-metadataresolver");
+        metadataResolver.setResolvers(new ArrayList<MetadataResolver>(resolvers));
+        metadataResolver.initialize();
+
+        BasicProviderKeyInfoCredentialResolver kicr = new BasicProviderKeyInfoCredentialResolver(List.of(
+                new DEREncodedKeyValueProvider(),
+                new DSAKeyValueProvider(),
+                new RSAKeyValueProvider(),
+                new InlineX509DataProvider()));
+
+        PredicateRoleDescriptorResolver rd = new PredicateRoleDescriptorResolver(metadataResolver);
+        rd.initialize();
+
+        MetadataCredentialResolver credentialResolver = new MetadataCredentialResolver();
+        credentialResolver.setKeyInfoCredentialResolver(kicr);
+        credentialResolver.setRoleDescriptorResolver(rd);
+        credentialResolver.initialize();
+
+        legacyTrustEngine = new ExplicitKeySignatureTrustEngine(credentialResolver, kicr);
+        verifier = new RedirectSignatureVerifier(signatureValidationService::findServiceProvider);
+    }
+
+    @AfterEach
+    void tearDown() {
+        resolvers.forEach(FilesystemMetadataResolver::destroy);
+    }
+
+    @TestFactory
+    Stream<DynamicTest> verifierMatchesLegacyHandlerTest() throws Exception {
+        String samlRequest = samlRequest("/test/request");
+        String otherSamlRequest = samlRequest("/test/request?old-request=true");
+        String fakeIssuerSamlRequest = samlRequest("/test/request?fake-issuer=true");
+        String relayState = URLEncoder.encode("https://sp.example.com/return?a=1&b=2", StandardCharsets.UTF_8);
+        PrivateKey samlKey = keyService.getSamlPrivateKey();
+        PrivateKey otherKey = keyService.getJwtPrivateKey();
+
+        String signedContent = "SAMLRequest=" + samlRequest + "&SigAlg=" + encode(RSA_SHA256);
+        String signedContentWithRelayState = "SAMLRequest=" + samlRequest + "&RelayState=" + relayState
+                + "&SigAlg=" + encode(RSA_SHA256);
+        String signature = sign(samlKey, "SHA256withRSA", signedContent);
+
+        Map<String, Boolean> expectations = new LinkedHashMap<>();
+        Map<String, String> queries = new LinkedHashMap<>();
+
+        queries.put("valid", signedContent + "&Signature=" + signature);
+        expectations.put("valid", true);
+
+        queries.put("valid with RelayState", signedContentWithRelayState
+                + "&Signature=" + sign(samlKey, "SHA256withRSA", signedContentWithRelayState));
+        expectations.put("valid with RelayState", true);
+
+        String sha512Content = "SAMLRequest=" + samlRequest + "&SigAlg=" + encode(RSA_SHA512);
+        queries.put("valid rsa-sha512", sha512Content + "&Signature=" + sign(samlKey, "SHA512withRSA", sha512Content));
+        expectations.put("valid rsa-sha512", true);
+
+        queries.put("tampered SAMLRequest",
+                "SAMLRequest=" + otherSamlRequest + "&SigAlg=" + encode(RSA_SHA256) + "&Signature=" + signature);
+        expectations.put("tampered SAMLRequest", false);
+
+        queries.put("tampered RelayState", "SAMLRequest=" + samlRequest + "&RelayState=" + encode("tampered")
+                + "&SigAlg=" + encode(RSA_SHA256)
+                + "&Signature=" + sign(samlKey, "SHA256withRSA", signedContentWithRelayState));
+        expectations.put("tampered RelayState", false);
+
+        queries.put("unsigned RelayState", "SAMLRequest=" + samlRequest + "&RelayState=" + relayState
+                + "&SigAlg=" + encode(RSA_SHA256) + "&Signature=" + signature);
+        expectations.put("unsigned RelayState", false);
+
+        queries.put("wrong key", signedContent + "&Signature=" + sign(otherKey, "SHA256withRSA", signedContent));
+        expectations.put("wrong key", false);
+
+        String fakeIssuerContent = "SAMLRequest=" + fakeIssuerSamlRequest + "&SigAlg=" + encode(RSA_SHA256);
+        queries.put("unknown issuer",
+                fakeIssuerContent + "&Signature=" + sign(samlKey, "SHA256withRSA", fakeIssuerContent));
+        expectations.put("unknown issuer", false);
+
+        queries.put("missing Signature", signedContent);
+        expectations.put("missing Signature", false);
+
+        queries.put("empty Signature", signedContent + "&Signature=");
+        expectations.put("empty Signature", false);
+
+        queries.put("missing SigAlg", "SAMLRequest=" + samlRequest + "&Signature=" + signature);
+        expectations.put("missing SigAlg", false);
+
+        String unsupportedContent = "SAMLRequest=" + samlRequest + "&SigAlg=" + encode("urn:unsupported:algorithm");
+        queries.put("unsupported SigAlg",
+                unsupportedContent + "&Signature=" + sign(samlKey, "SHA256withRSA", unsupportedContent));
+        expectations.put("unsupported SigAlg", false);
+
+        String mismatchContent = "SAMLRequest=" + samlRequest + "&SigAlg=" + encode(RSA_SHA1);
+        queries.put("SigAlg mismatch",
+                mismatchContent + "&Signature=" + sign(samlKey, "SHA256withRSA", mismatchContent));
+        expectations.put("SigAlg mismatch", false);
+
+        queries.put("malformed Signature", signedContent + "&Signature=" + encode("%%%not-base64"));
+        expectations.put("malformed Signature", false);
+
+        return queries.entrySet().stream().map(entry -> DynamicTest.dynamicTest(entry.getKey(), () -> {
+            MockHttpServletRequest request = request(entry.getValue());
+            String issuer = ((AuthnRequest) decode(request).getMessage()).getIssuer().getValue();
+
+            boolean expected = expectations.get(entry.getKey());
+            assertEquals(expected, legacyAccepts(request), "legacy handler");
+            assertEquals(expected, accepts(entry.getValue(), issuer), "verifier");
+        }));
+    }
+
+    private boolean accepts(String queryString, String issuer) {
+        try {
+            return verifier.verify(queryString, issuer) != null;
+        } catch (MessageHandlerException e) {
+            return false;
+        }
+    }
+
+    private boolean legacyAccepts(MockHttpServletRequest request) throws Exception {
+        MessageContext messageContext = decode(request);
+
+        SignatureValidationParameters sigValParams = new SignatureValidationParameters();
+        sigValParams.setSignatureTrustEngine(legacyTrustEngine);
+
+        SignatureSecurityHandler signatureHandler = new SignatureSecurityHandler();
+        signatureHandler.setHttpServletRequestSupplier(NonnullSupplier.of(request));
+        signatureHandler.initialize();
+
+        Objects.requireNonNull(messageContext.getSubcontext(SAMLPeerEntityContext.class, true))
+                .setRole(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+        Objects.requireNonNull(messageContext.getSubcontext(SAMLProtocolContext.class, true))
+                .setProtocol(SAMLConstants.SAML20P_NS);
+        Objects.requireNonNull(messageContext.getSubcontext(SecurityParametersContext.class, true))
+                .setSignatureValidationParameters(sigValParams);
+
+        try {
+            signatureHandler.invoke(messageContext);
+        } catch (MessageHandlerException e) {
+            return false;
+        }
+
+        SAMLPeerEntityContext peerEntityContext = messageContext.getSubcontext(SAMLPeerEntityContext.class);
+        return peerEntityContext != null && peerEntityContext.isAuthenticated();
+    }
+
+    /**
+     * @return The raw SAMLRequest parameter of the redirect made by the test endpoint.
+     */
+    private String samlRequest(String testEndpoint) throws Exception {
+        String redirect = mockMvc.perform(get(testEndpoint)).andReturn().getResponse().getRedirectedUrl();
+        assertNotNull(redirect);
+        String rawQuery = URI.create(redirect).getRawQuery();
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.startsWith("SAMLRequest=")) {
+                return parameter.substring("SAMLRequest=".length());
+            }
+        }
+        throw new AssertionError("No SAMLRequest in " + redirect);
+    }
+
+    private static String sign(PrivateKey key, String algorithm, String content) throws Exception {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(key);
+        signature.update(content.getBytes(StandardCharsets.UTF_8));
+        return encode(Base64.getEncoder().encodeToString(signature.sign()));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static MockHttpServletRequest request(String rawQuery) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/request");
+        request.setQueryString(rawQuery);
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            request.addParameter(
+                    URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return request;
+    }
+
+    private static MessageContext decode(MockHttpServletRequest request) throws Exception {
+        HTTPRedirectDeflateDecoder decoder = new HTTPRedirectDeflateDecoder();
+        decoder.setHttpServletRequest(request);
+        decoder.initialize();
+        decoder.decode();
+        return decoder.getMessageContext();
+    }
+}
@@ -0,0 +1,42 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.xmlsec.signature.KeyInfo;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class SamlObjectBuildersTest {
+
+    @Test
+    void allBuildersResolvedTest() throws Exception {
+        SamlObjectBuilders builders = new SamlObjectBuilders();
+
+        for (Method method : SamlObjectBuilders.class.getMethods()) {
+            if (method.getName().startsWith("get") && method.getName().endsWith("Builder")) {
+                assertInstanceOf(XMLObjectBuilder.class, method.invoke(builders), method.getName());
+            }
+        }
+    }
+
+    @Test
+    void buildObjectTest() throws Exception {
+        SamlObjectBuilders builders = new SamlObjectBuilders();
+
+        assertEquals(Response.DEFAULT_ELEMENT_NAME, builders.getResponseBuilder().buildObject().getElementQName());
+        assertEquals(KeyInfo.DEFAULT_ELEMENT_NAME,
+                builders.getKeyInfoBuilder().buildObject(KeyInfo.DEFAULT_ELEMENT_NAME).getElementQName());
+
+        XSString attributeValue = builders.getXsStringBuilder()
+                .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+        assertNotNull(attributeValue);
+        assertEquals(XSString.TYPE_NAME, attributeValue.getSchemaType());
+    }
+}
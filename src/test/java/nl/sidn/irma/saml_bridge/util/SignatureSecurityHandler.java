@@ -0,0 +1,35 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.RequestAbstractType;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+
+/**
+ * Shorthand for SAML2HTTPRedirectDeflateSignatureSecurityHandler.
+ * Derives the signer from the Issuer of the decoded message, so the trust engine
+ * can look up the signing keys of that entity.
+ * 
+ * Reference implementation that {@link RedirectSignatureVerifier} is checked against.
+ */
+public class SignatureSecurityHandler extends SAML2HTTPRedirectDeflateSignatureSecurityHandler {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    protected String deriveSignerEntityID(@Nonnull final MessageContext messageContext) {
+        final Object message = messageContext.getMessage();
+
+        Issuer issuer = null;
+        if (message instanceof RequestAbstractType) {
+            issuer = ((RequestAbstractType) message).getIssuer();
+        } else if (message instanceof StatusResponseType) {
+            issuer = ((StatusResponseType) message).getIssuer();
+        }
+
+        return issuer == null ? null : issuer.getValue();
+    }
+}
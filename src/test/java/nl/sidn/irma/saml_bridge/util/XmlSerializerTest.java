@@ -0,0 +1,119 @@
+package nl.sidn.irma.saml_bridge.util;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the serializer to serializing with a fresh transformer into a string, as was done before.
+ */
+class XmlSerializerTest {
+
+    @Test
+    void serializeTest() throws Exception {
+        Element element = document("Jan Janssen");
+
+        byte[] result = new XmlSerializer().serialize(element);
+
+        assertArrayEquals(serializeToString(element).getBytes(StandardCharsets.UTF_8), result);
+        assertTrue(new String(result, StandardCharsets.UTF_8).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\""));
+    }
+
+    @Test
+    void serializeNonAsciiTest() throws Exception {
+        Element element = document("Zoë Çelik – 日本");
+
+        byte[] result = new XmlSerializer().serialize(element);
+
+        assertArrayEquals(serializeToString(element).getBytes(StandardCharsets.UTF_8), result);
+        assertTrue(new String(result, StandardCharsets.UTF_8).contains("Zoë Çelik – 日本"));
+    }
+
+    @Test
+    void reuseTest() throws Exception {
+        XmlSerializer serializer = new XmlSerializer();
+
+        byte[] first = serializer.serialize(document("first value which is somewhat longer"));
+        byte[] second = serializer.serialize(document("second"));
+
+        assertArrayEquals(serializeToString(document("first value which is somewhat longer")).getBytes(StandardCharsets.UTF_8), first);
+        assertArrayEquals(serializeToString(document("second")).getBytes(StandardCharsets.UTF_8), second);
+    }
+
+    @Test
+    void largeDocumentTest() throws Exception {
+        XmlSerializer serializer = new XmlSerializer();
+        Element large = document("x".repeat(1024 * 1024));
+
+        assertArrayEquals(serializeToString(large).getBytes(StandardCharsets.UTF_8), serializer.serialize(large));
+        assertArrayEquals(serializeToString(document("small")).getBytes(StandardCharsets.UTF_8),
+                serializer.serialize(document("small")));
+    }
+
+    @Test
+    void concurrentTest() throws Exception {
+        XmlSerializer serializer = new XmlSerializer();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String value = "value-" + i;
+                results.add(executor.submit(() -> {
+                    byte[] expected = serializeToString(document(value)).getBytes(StandardCharsets.UTF_8);
+                    byte[] actual = serializer.serialize(document(value));
+                    return Arrays.equals(expected, actual);
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(true, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Element document(String value) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().newDocument();
+
+        Element root = document.createElementNS("urn:oasis:names:tc:SAML:2.0:protocol", "saml2p:Response");
+        root.setAttribute("ID", "_a4d3c1");
+        Element child = document.createElementNS("urn:oasis:names:tc:SAML:2.0:assertion", "saml2:AttributeValue");
+        child.setTextContent(value);
+        root.appendChild(child);
+        document.appendChild(root);
+        return root;
+    }
+
+    private static String serializeToString(Element element) throws Exception {
+        StringWriter writer = new StringWriter();
+
+        TransformerFactory tf = TransformerFactory.newInstance();
+        tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+
+        Transformer transformer = tf.newTransformer();
+        transformer.transform(new DOMSource(element), new StreamResult(writer));
+        return writer.toString();
+    }
+}